@@ -0,0 +1,177 @@
+package org.pytorch.helloworld;
+
+import android.graphics.Bitmap;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Converts a region of a Bitmap into a resized, normalized 1 x 3 x H x W float tensor in one pass.
+ *
+ * Unlike {@code TensorImageUtils.bitmapToFloatBuffer}, the source is never read as a whole:
+ * {@code getPixels} fills a strip of {@link #STRIP_ROWS} rows at a time and every output row is
+ * interpolated from the two source rows around it, so extra memory is one strip and one output
+ * row whatever the bitmap size. Resizing is bilinear with half-pixel aligned centers, the source
+ * index and 8-bit fixed-point weight of every output column and row are precomputed and kept
+ * until the sizes change. The {@code (x / 255 - mean) / std} normalization of every channel is
+ * a 256-entry table. Output goes straight into the caller's buffer, so one tensor can be reused
+ * for every call. Not thread safe, use one converter per thread.
+ */
+public class BitmapTensorConverter {
+  private static final int STRIP_ROWS = 16;
+  private static final int FRACTION_BITS = 8;
+  private static final int ONE = 1 << FRACTION_BITS;
+
+  private final float[] mNormR = new float[256];
+  private final float[] mNormG = new float[256];
+  private final float[] mNormB = new float[256];
+
+  private int[] mStrip = new int[0];
+  private int mStripWidth;
+  private int mStripFirstRow;
+  private int mStripRowCount;
+  private float[] mRow = new float[0];
+
+  private int mColumnsSrcWidth;
+  private int mColumnsOutWidth;
+  private int[] mX0 = new int[0];
+  private int[] mX1 = new int[0];
+  private int[] mXFraction = new int[0];
+  private int mRowsSrcHeight;
+  private int mRowsOutHeight;
+  private int[] mY0 = new int[0];
+  private int[] mY1 = new int[0];
+  private int[] mYFraction = new int[0];
+
+  public BitmapTensorConverter(float[] normMeanRGB, float[] normStdRGB) {
+    if (normMeanRGB.length != 3 || normStdRGB.length != 3) {
+      throw new IllegalArgumentException("normMeanRGB and normStdRGB must have 3 elements");
+    }
+    for (int i = 0; i < 256; i++) {
+      mNormR[i] = (i / 255.f - normMeanRGB[0]) / normStdRGB[0];
+      mNormG[i] = (i / 255.f - normMeanRGB[1]) / normStdRGB[1];
+      mNormB[i] = (i / 255.f - normMeanRGB[2]) / normStdRGB[2];
+    }
+  }
+
+  /**
+   * Resizes the source rectangle to {@code outWidth x outHeight} and writes it as a 3 x outHeight
+   * x outWidth tensor at {@code outOffset}, the position of {@code outBuffer} is not changed.
+   */
+  public void convert(Bitmap bitmap, int x, int y, int width, int height, int outWidth, int outHeight,
+                      FloatBuffer outBuffer, int outOffset) {
+    if (x < 0 || y < 0 || width <= 0 || height <= 0
+        || x + width > bitmap.getWidth() || y + height > bitmap.getHeight()) {
+      throw new IllegalArgumentException("Source rectangle is outside of the bitmap");
+    }
+    if (outWidth <= 0 || outHeight <= 0) {
+      throw new IllegalArgumentException("Output size must be positive");
+    }
+    final int planeSize = outWidth * outHeight;
+    if (outOffset < 0 || outBuffer.capacity() - outOffset < 3 * planeSize) {
+      throw new IllegalArgumentException("Output buffer is smaller than 3 * height * width");
+    }
+    prepareColumns(width, outWidth);
+    prepareRows(height, outHeight);
+    if (mStrip.length < STRIP_ROWS * width) {
+      mStrip = new int[STRIP_ROWS * width];
+    }
+    if (mRow.length < 3 * outWidth) {
+      mRow = new float[3 * outWidth];
+    }
+    mStripWidth = width;
+    mStripRowCount = 0;
+
+    final int position = outBuffer.position();
+    for (int outY = 0; outY < outHeight; outY++) {
+      interpolateRow(bitmap, x, y, height, outY, outWidth);
+      final int rowOffset = outOffset + outY * outWidth;
+      outBuffer.position(rowOffset);
+      outBuffer.put(mRow, 0, outWidth);
+      outBuffer.position(rowOffset + planeSize);
+      outBuffer.put(mRow, outWidth, outWidth);
+      outBuffer.position(rowOffset + 2 * planeSize);
+      outBuffer.put(mRow, 2 * outWidth, outWidth);
+    }
+    outBuffer.position(position);
+  }
+
+  private void interpolateRow(Bitmap bitmap, int x, int y, int height, int outY, int outWidth) {
+    final int y0 = mY0[outY];
+    final int y1 = mY1[outY];
+    if (y1 >= mStripFirstRow + mStripRowCount || y0 < mStripFirstRow) {
+      mStripFirstRow = y0;
+      mStripRowCount = Math.min(STRIP_ROWS, height - y0);
+      bitmap.getPixels(mStrip, 0, mStripWidth, x, y + y0, mStripWidth, mStripRowCount);
+    }
+    final int[] strip = mStrip;
+    final int row0 = (y0 - mStripFirstRow) * mStripWidth;
+    final int row1 = (y1 - mStripFirstRow) * mStripWidth;
+    final int fy = mYFraction[outY];
+    final int[] x0s = mX0;
+    final int[] x1s = mX1;
+    final int[] fxs = mXFraction;
+    final float[] normR = mNormR;
+    final float[] normG = mNormG;
+    final float[] normB = mNormB;
+    final float[] out = mRow;
+    final int greenOffset = outWidth;
+    final int blueOffset = 2 * outWidth;
+    for (int outX = 0; outX < outWidth; outX++) {
+      final int fx = fxs[outX];
+      final int p00 = strip[row0 + x0s[outX]];
+      final int p01 = strip[row0 + x1s[outX]];
+      final int p10 = strip[row1 + x0s[outX]];
+      final int p11 = strip[row1 + x1s[outX]];
+      out[outX] = normR[lerp(p00 >> 16, p01 >> 16, p10 >> 16, p11 >> 16, fx, fy)];
+      out[greenOffset + outX] = normG[lerp(p00 >> 8, p01 >> 8, p10 >> 8, p11 >> 8, fx, fy)];
+      out[blueOffset + outX] = normB[lerp(p00, p01, p10, p11, fx, fy)];
+    }
+  }
+
+  /** Bilinear blend of the low bytes of four pixels, weights in 1 / {@link #ONE} units. */
+  private static int lerp(int c00, int c01, int c10, int c11, int fx, int fy) {
+    final int top = (c00 & 0xFF) * (ONE - fx) + (c01 & 0xFF) * fx;
+    final int bottom = (c10 & 0xFF) * (ONE - fx) + (c11 & 0xFF) * fx;
+    return (top * (ONE - fy) + bottom * fy + (1 << (2 * FRACTION_BITS - 1))) >> (2 * FRACTION_BITS);
+  }
+
+  private void prepareColumns(int srcWidth, int outWidth) {
+    if (srcWidth == mColumnsSrcWidth && outWidth == mColumnsOutWidth) {
+      return;
+    }
+    if (mX0.length < outWidth) {
+      mX0 = new int[outWidth];
+      mX1 = new int[outWidth];
+      mXFraction = new int[outWidth];
+    }
+    coefficients(srcWidth, outWidth, mX0, mX1, mXFraction);
+    mColumnsSrcWidth = srcWidth;
+    mColumnsOutWidth = outWidth;
+  }
+
+  private void prepareRows(int srcHeight, int outHeight) {
+    if (srcHeight == mRowsSrcHeight && outHeight == mRowsOutHeight) {
+      return;
+    }
+    if (mY0.length < outHeight) {
+      mY0 = new int[outHeight];
+      mY1 = new int[outHeight];
+      mYFraction = new int[outHeight];
+    }
+    coefficients(srcHeight, outHeight, mY0, mY1, mYFraction);
+    mRowsSrcHeight = srcHeight;
+    mRowsOutHeight = outHeight;
+  }
+
+  /** Source neighbors and fixed-point weight of the second one for every output index. */
+  private static void coefficients(int srcSize, int outSize, int[] outI0, int[] outI1, int[] outFraction) {
+    final float scale = (float) srcSize / outSize;
+    for (int i = 0; i < outSize; i++) {
+      final float center = Math.max(0.f, Math.min(srcSize - 1, (i + 0.5f) * scale - 0.5f));
+      final int i0 = (int) center;
+      outI0[i] = i0;
+      outI1[i] = Math.min(srcSize - 1, i0 + 1);
+      outFraction[i] = Math.round((center - i0) * ONE);
+    }
+  }
+}
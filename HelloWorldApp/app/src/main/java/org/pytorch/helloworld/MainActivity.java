@@ -2,7 +2,6 @@ package org.pytorch.helloworld;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Bundle;
 import android.util.Log;
 import android.widget.ImageView;
@@ -18,10 +17,18 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.FloatBuffer;
 
 import androidx.appcompat.app.AppCompatActivity;
 
 public class MainActivity extends AppCompatActivity {
+  // short side the model input is decoded to, larger images are subsampled while decoding
+  private static final int INPUT_SHORT_SIDE = 224;
+  private static final int BITMAP_CACHE_BYTES = 4 * 1024 * 1024;
+  private static final int INPUT_TENSOR_SIZE = 224;
+
+  // survives activity recreation, e.g. on rotation, so the image is not decoded again
+  private static AssetBitmapLoader sBitmapLoader;
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -33,7 +40,10 @@ public class MainActivity extends AppCompatActivity {
     try {
       // creating bitmap from packaged into app android asset 'image.jpg',
       // app/src/main/assets/image.jpg
-      bitmap = BitmapFactory.decodeStream(getAssets().open("image.jpg"));
+      if (sBitmapLoader == null) {
+        sBitmapLoader = new AssetBitmapLoader(getApplicationContext().getAssets(), BITMAP_CACHE_BYTES);
+      }
+      bitmap = sBitmapLoader.load("image.jpg", INPUT_SHORT_SIDE);
       // loading serialized torchscript module from packaged into app android asset model.pt,
       // app/src/model/assets/model.pt
       module = Module.load(assetFilePath(this, "model.pt"));
@@ -46,9 +56,16 @@ public class MainActivity extends AppCompatActivity {
     ImageView imageView = findViewById(R.id.image);
     imageView.setImageBitmap(bitmap);
 
-    // preparing input tensor
-    final Tensor inputTensor = TensorImageUtils.bitmapToFloat32Tensor(bitmap,
-        TensorImageUtils.TORCHVISION_NORM_MEAN_RGB, TensorImageUtils.TORCHVISION_NORM_STD_RGB);
+    // preparing input tensor: the center square of the image resized to 224x224
+    final FloatBuffer inputBuffer =
+        Tensor.allocateFloatBuffer(3 * INPUT_TENSOR_SIZE * INPUT_TENSOR_SIZE);
+    final int cropSize = Math.min(bitmap.getWidth(), bitmap.getHeight());
+    new BitmapTensorConverter(
+        TensorImageUtils.TORCHVISION_NORM_MEAN_RGB, TensorImageUtils.TORCHVISION_NORM_STD_RGB)
+        .convert(bitmap, (bitmap.getWidth() - cropSize) / 2, (bitmap.getHeight() - cropSize) / 2,
+            cropSize, cropSize, INPUT_TENSOR_SIZE, INPUT_TENSOR_SIZE, inputBuffer, 0);
+    final Tensor inputTensor = Tensor.fromBlob(inputBuffer,
+        new long[]{1, 3, INPUT_TENSOR_SIZE, INPUT_TENSOR_SIZE});
 
     // running the model
     final Tensor outputTensor = module.forward(IValue.from(inputTensor)).toTensor();
@@ -57,16 +74,11 @@ public class MainActivity extends AppCompatActivity {
     final float[] scores = outputTensor.getDataAsFloatArray();
 
     // searching for the index with maximum score
-    float maxScore = -Float.MAX_VALUE;
-    int maxScoreIdx = -1;
-    for (int i = 0; i < scores.length; i++) {
-      if (scores[i] > maxScore) {
-        maxScore = scores[i];
-        maxScoreIdx = i;
-      }
-    }
+    final int[] topIxs = new int[1];
+    final float[] topScores = new float[1];
+    TopK.select(scores, 1, topIxs, topScores);
 
-    String className = ImageNetClasses.IMAGENET_CLASSES[maxScoreIdx];
+    String className = ImageNetClasses.IMAGENET_CLASSES[topIxs[0]];
 
     // showing className on UI
     TextView textView = findViewById(R.id.text);
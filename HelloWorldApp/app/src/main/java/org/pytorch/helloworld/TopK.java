@@ -0,0 +1,82 @@
+package org.pytorch.helloworld;
+
+/**
+ * Float-only variant of the PyTorchDemoApp top-K selection, using the bounded min-heap path.
+ * Results are ordered by descending score, equal scores by ascending index, NaN ranks last.
+ */
+public class TopK {
+
+  /**
+   * Writes the indices and scores of the {@code k} highest scores into the output buffers.
+   *
+   * @return number of written results, {@code min(k, scores.length)}
+   */
+  public static int select(float[] scores, int k, int[] outIxs, float[] outScores) {
+    final int count = Math.min(k, scores.length);
+    if (count <= 0) {
+      return 0;
+    }
+    for (int i = 0; i < count; i++) {
+      outIxs[i] = i;
+      outScores[i] = scores[i];
+    }
+    for (int i = (count >>> 1) - 1; i >= 0; i--) {
+      siftDown(outIxs, outScores, i, count);
+    }
+    for (int i = count; i < scores.length; i++) {
+      if (ranksAbove(scores[i], i, outScores[0], outIxs[0])) {
+        outIxs[0] = i;
+        outScores[0] = scores[i];
+        siftDown(outIxs, outScores, 0, count);
+      }
+    }
+    for (int end = count - 1; end > 0; end--) {
+      final int ix = outIxs[0];
+      final float score = outScores[0];
+      outIxs[0] = outIxs[end];
+      outScores[0] = outScores[end];
+      outIxs[end] = ix;
+      outScores[end] = score;
+      siftDown(outIxs, outScores, 0, end);
+    }
+    return count;
+  }
+
+  private static boolean ranksAbove(float va, int ia, float vb, int ib) {
+    if (va > vb) {
+      return true;
+    }
+    if (va < vb) {
+      return false;
+    }
+    if (va == vb) {
+      return ia < ib;
+    }
+    final boolean aNaN = va != va;
+    final boolean bNaN = vb != vb;
+    if (aNaN != bNaN) {
+      return bNaN;
+    }
+    return ia < ib;
+  }
+
+  private static void siftDown(int[] ixs, float[] scores, int i, int size) {
+    final int ix = ixs[i];
+    final float score = scores[i];
+    int child;
+    while ((child = 2 * i + 1) < size) {
+      final int right = child + 1;
+      if (right < size && ranksAbove(scores[child], ixs[child], scores[right], ixs[right])) {
+        child = right;
+      }
+      if (!ranksAbove(score, ix, scores[child], ixs[child])) {
+        break;
+      }
+      ixs[i] = ixs[child];
+      scores[i] = scores[child];
+      i = child;
+    }
+    ixs[i] = ix;
+    scores[i] = score;
+  }
+}
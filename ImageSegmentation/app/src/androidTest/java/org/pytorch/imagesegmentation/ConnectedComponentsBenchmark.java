@@ -0,0 +1,201 @@
+package org.pytorch.imagesegmentation;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the banded union-find of {@link ConnectedComponents} with a sequential breadth-first
+ * flood fill that collects the same areas and boxes, on a map of a few large blobs and on noise
+ * with many small components. Run it with {@code ./gradlew connectedAndroidTest}, results are
+ * printed to logcat and written to the benchmark json report.
+ */
+@RunWith(Parameterized.class)
+public class ConnectedComponentsBenchmark {
+    private static final int BACKGROUND = 0;
+
+    @Parameterized.Parameters(name = "size={0},noise={1}")
+    public static Collection<Object[]> parameters() {
+        return Arrays.asList(new Object[][]{
+                {513, false},
+                {513, true},
+                {2048, false},
+                {2048, true},
+        });
+    }
+
+    @Rule
+    public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private final int mSize;
+    private final boolean mNoise;
+    private byte[] mLabels;
+
+    public ConnectedComponentsBenchmark(int size, boolean noise) {
+        mSize = size;
+        mNoise = noise;
+    }
+
+    @Before
+    public void setUp() {
+        mLabels = labelMap(mSize, mNoise);
+    }
+
+    @Test
+    public void unionFind() {
+        final ConnectedComponents components = new ConnectedComponents(ForkJoinPool.commonPool());
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            components.label(mLabels, mSize, mSize, BACKGROUND);
+        }
+    }
+
+    @Test
+    public void breadthFirst() {
+        final FloodFill floodFill = new FloodFill();
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            floodFill.label(mLabels, mSize, mSize, BACKGROUND);
+        }
+    }
+
+    @Test
+    public void sameComponents() {
+        final ConnectedComponents.Result result = new ConnectedComponents(ForkJoinPool.commonPool())
+                .label(mLabels, mSize, mSize, BACKGROUND);
+        final FloodFill floodFill = new FloodFill();
+        assertEquals(floodFill.label(mLabels, mSize, mSize, BACKGROUND), result.componentCount);
+        final int[] areas = Arrays.copyOf(result.area, result.componentCount);
+        final int[] expectedAreas = Arrays.copyOf(floodFill.mArea, result.componentCount);
+        Arrays.sort(areas);
+        Arrays.sort(expectedAreas);
+        assertArrayEquals(expectedAreas, areas);
+    }
+
+    /** Blobs of a few classes on background, or every pixel drawn from five classes. */
+    static byte[] labelMap(int size, boolean noise) {
+        final byte[] labels = new byte[size * size];
+        final Random random = new Random(0);
+        if (noise) {
+            for (int i = 0; i < labels.length; i++) {
+                labels[i] = (byte) random.nextInt(5);
+            }
+            return labels;
+        }
+        for (int blob = 0; blob < 12; blob++) {
+            final int cx = random.nextInt(size);
+            final int cy = random.nextInt(size);
+            final int radius = size / 16 + random.nextInt(size / 8);
+            final byte label = (byte) (1 + random.nextInt(20));
+            for (int y = Math.max(0, cy - radius); y < Math.min(size, cy + radius); y++) {
+                for (int x = Math.max(0, cx - radius); x < Math.min(size, cx + radius); x++) {
+                    final int dx = x - cx;
+                    final int dy = y - cy;
+                    if (dx * dx + dy * dy < radius * radius) {
+                        labels[y * size + x] = label;
+                    }
+                }
+            }
+        }
+        return labels;
+    }
+
+    /** Sequential 4-connected labeling with an explicit pixel queue, the baseline. */
+    static class FloodFill {
+        private int[] mComponent = new int[0];
+        private int[] mQueue = new int[0];
+        int[] mArea = new int[0];
+        private int[] mMinX = new int[0];
+        private int[] mMinY = new int[0];
+        private int[] mMaxX = new int[0];
+        private int[] mMaxY = new int[0];
+
+        int label(byte[] labels, int width, int height, int backgroundLabel) {
+            final int pixels = width * height;
+            if (mComponent.length < pixels) {
+                mComponent = new int[pixels];
+                mQueue = new int[pixels];
+            }
+            Arrays.fill(mComponent, 0, pixels, -1);
+            int count = 0;
+            for (int start = 0; start < pixels; start++) {
+                final int label = labels[start] & 0xFF;
+                if (mComponent[start] != -1 || label == backgroundLabel) {
+                    continue;
+                }
+                ensureCapacity(count + 1);
+                int area = 0;
+                int minX = width;
+                int minY = height;
+                int maxX = -1;
+                int maxY = -1;
+                int head = 0;
+                int tail = 0;
+                mQueue[tail++] = start;
+                mComponent[start] = count;
+                while (head < tail) {
+                    final int p = mQueue[head++];
+                    final int x = p % width;
+                    final int y = p / width;
+                    area++;
+                    minX = Math.min(minX, x);
+                    minY = Math.min(minY, y);
+                    maxX = Math.max(maxX, x);
+                    maxY = Math.max(maxY, y);
+                    if (x > 0) {
+                        tail = visit(labels, label, p - 1, count, tail);
+                    }
+                    if (x < width - 1) {
+                        tail = visit(labels, label, p + 1, count, tail);
+                    }
+                    if (y > 0) {
+                        tail = visit(labels, label, p - width, count, tail);
+                    }
+                    if (y < height - 1) {
+                        tail = visit(labels, label, p + width, count, tail);
+                    }
+                }
+                mArea[count] = area;
+                mMinX[count] = minX;
+                mMinY[count] = minY;
+                mMaxX[count] = maxX;
+                mMaxY[count] = maxY;
+                count++;
+            }
+            return count;
+        }
+
+        private int visit(byte[] labels, int label, int p, int component, int tail) {
+            if (mComponent[p] == -1 && (labels[p] & 0xFF) == label) {
+                mComponent[p] = component;
+                mQueue[tail++] = p;
+            }
+            return tail;
+        }
+
+        private void ensureCapacity(int count) {
+            if (mArea.length >= count) {
+                return;
+            }
+            final int capacity = Math.max(count, mArea.length * 2);
+            mArea = Arrays.copyOf(mArea, capacity);
+            mMinX = Arrays.copyOf(mMinX, capacity);
+            mMinY = Arrays.copyOf(mMinY, capacity);
+            mMaxX = Arrays.copyOf(mMaxX, capacity);
+            mMaxY = Arrays.copyOf(mMaxY, capacity);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.pytorch.imagesegmentation;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares redrawing a mask as contour paths against redrawing it as a label bitmap with
+ * setPixels, the time side of the contour overlay trade-off. Run it with
+ * {@code ./gradlew connectedAndroidTest} and read {@code adb logcat -s ImageSegmentation}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ContourRedrawTest {
+    private static final String TAG = "ImageSegmentation";
+    private static final int RUNS = 20;
+
+    @Test
+    public void pathRedrawAgainstSetPixels() {
+        final int width = 513;
+        final int height = 513;
+        final byte[] labels = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final float dx = (x - 200) / 120.f;
+                final float dy = (y - 300) / 190.f;
+                final float ex = (x - 400) / 60.f;
+                final float ey = (y - 120) / 45.f;
+                if (dx * dx + dy * dy <= 1.f) {
+                    labels[y * width + x] = 15;
+                } else if (ex * ex + ey * ey <= 1.f) {
+                    labels[y * width + x] = 12;
+                }
+            }
+        }
+        final LabelColorMap colorMap = LabelColorMap.voc();
+
+        long startTime = SystemClock.elapsedRealtimeNanos();
+        final List<ContourExtractor.Contour> contours =
+                new ContourExtractor(0.75f).extract(labels, width, height, 0);
+        final long extractNanos = SystemClock.elapsedRealtimeNanos() - startTime;
+        final MaskOverlayDrawable overlay = new MaskOverlayDrawable(contours, width, height, colorMap, 160);
+        overlay.setBounds(0, 0, width, height);
+
+        final LabelMapRenderer renderer = new LabelMapRenderer();
+        final Bitmap target = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(target);
+        final long[] setPixelsNanos = new long[RUNS];
+        final long[] pathNanos = new long[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            startTime = SystemClock.elapsedRealtimeNanos();
+            renderer.render(labels, width, height, colorMap);
+            setPixelsNanos[run] = SystemClock.elapsedRealtimeNanos() - startTime;
+
+            startTime = SystemClock.elapsedRealtimeNanos();
+            overlay.draw(canvas);
+            pathNanos[run] = SystemClock.elapsedRealtimeNanos() - startTime;
+        }
+        target.recycle();
+
+        Log.i(TAG, String.format(Locale.US,
+                "%d contours; extract %.2f ms, median path redraw %.2f ms, median setPixels redraw %.2f ms",
+                contours.size(), extractNanos / 1e6f, median(pathNanos) / 1e6f, median(setPixelsNanos) / 1e6f));
+        assertEquals(2, contours.size());
+    }
+
+    private static long median(long[] values) {
+        final long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,63 @@
+package org.pytorch.imagesegmentation;
+
+import android.graphics.Bitmap;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that a run-length encoded mask renders to the same pixels as its label map, and that
+ * renders never go to the Bitmap marked shown.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LabelMapRendererTest {
+    private final LabelColorMap mColorMap = LabelColorMap.voc();
+
+    @Test
+    public void rleMaskMatchesLabels() {
+        final int width = 131;
+        final int height = 37;
+        final byte[] labels = new byte[width * height];
+        final Random random = new Random(7);
+        byte label = 0;
+        for (int i = 0; i < labels.length; i++) {
+            if (random.nextInt(6) == 0) {
+                label = (byte) random.nextInt(LabelColorMap.VOC_CLASS_COUNT);
+            }
+            labels[i] = label;
+        }
+        final RleMask mask = new RleMask();
+        mask.encode(labels, width, height);
+
+        final LabelMapRenderer renderer = new LabelMapRenderer();
+        final int[] expected = pixels(renderer.render(labels, width, height, mColorMap));
+        assertArrayEquals(expected, pixels(renderer.render(mask, mColorMap)));
+    }
+
+    @Test
+    public void rendersAvoidShownBitmap() {
+        final byte[] labels = new byte[16];
+        final LabelMapRenderer renderer = new LabelMapRenderer();
+        final Bitmap first = renderer.render(labels, 4, 4, mColorMap);
+        renderer.markShown(first);
+        final Bitmap second = renderer.render(labels, 4, 4, mColorMap);
+        assertNotSame(first, second);
+        assertSame(second, renderer.render(labels, 4, 4, mColorMap));
+        renderer.markShown(second);
+        assertSame(first, renderer.render(labels, 4, 4, mColorMap));
+    }
+
+    private static int[] pixels(Bitmap bitmap) {
+        final int[] pixels = new int[bitmap.getWidth() * bitmap.getHeight()];
+        bitmap.getPixels(pixels, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+        return pixels;
+    }
+}
@@ -0,0 +1,116 @@
+package org.pytorch.imagesegmentation;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.pytorch.Module;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures latency and mean IoU of reduced resolution inference against full resolution inference
+ * for the bundled images, one line per image, short side and upsampling mode. Run it on a device
+ * with {@code ./gradlew connectedAndroidTest} and read the table with
+ * {@code adb logcat -s ImageSegmentation}; it is also reported as instrumentation status.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ResolutionReportTest {
+    private static final String TAG = "ImageSegmentation";
+    private static final String[] ASSET_NAMES = {"deeplab.jpg", "dog.jpg"};
+    private static final int[] SHORT_SIDES = {128, 192, 256, 320};
+    // the first run of each configuration pays for allocations and kernel selection
+    private static final int RUNS = 3;
+
+    private final Context mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    private final CancellationSignal mCancellationSignal = new CancellationSignal();
+    private final StringBuilder mReport = new StringBuilder();
+    private SegmentationModel mModel;
+    private TiledSegmenter mFullResolution;
+
+    @Before
+    public void setUp() throws IOException {
+        final Module module = Module.load(MainActivity.assetFilePath(mContext, "deeplabv3_scripted.pt"));
+        mModel = new SegmentationModel(module, new SegmentationPostProcessor(ForkJoinPool.commonPool()),
+                LabelColorMap.VOC_CLASS_COUNT);
+        mFullResolution = new TiledSegmenter(mModel, 513, 32);
+    }
+
+    @After
+    public void tearDown() {
+        mFullResolution.close();
+        mModel.destroy();
+        final Bundle status = new Bundle();
+        status.putString("resolution_report", mReport.toString());
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, status);
+    }
+
+    @Test
+    public void reducedResolutionAgainstFullResolution() throws IOException {
+        log("asset, short side, upsample, median latency ms, mIoU vs full resolution");
+        for (String assetName : ASSET_NAMES) {
+            final Bitmap bitmap;
+            try (InputStream is = mContext.getAssets().open(assetName)) {
+                bitmap = BitmapFactory.decodeStream(is);
+            }
+            final int pixels = bitmap.getWidth() * bitmap.getHeight();
+            final byte[] reference = new byte[pixels];
+            final byte[] labels = new byte[pixels];
+
+            final long[] latencies = new long[RUNS];
+            for (int run = 0; run < RUNS; run++) {
+                final long startTime = SystemClock.elapsedRealtime();
+                mFullResolution.segment(bitmap, reference, mCancellationSignal);
+                latencies[run] = SystemClock.elapsedRealtime() - startTime;
+            }
+            log(String.format(Locale.US, "%s, full, -, %d, 1.000", assetName, median(latencies)));
+
+            for (int shortSide : SHORT_SIDES) {
+                for (int mode = ReducedResolutionSegmenter.UPSAMPLE_NEAREST;
+                     mode <= ReducedResolutionSegmenter.UPSAMPLE_BILINEAR_LOGITS; mode++) {
+                    final ReducedResolutionSegmenter segmenter =
+                            new ReducedResolutionSegmenter(mModel, shortSide, mode);
+                    for (int run = 0; run < RUNS; run++) {
+                        final long startTime = SystemClock.elapsedRealtime();
+                        segmenter.segment(bitmap, labels, mCancellationSignal);
+                        latencies[run] = SystemClock.elapsedRealtime() - startTime;
+                    }
+                    final float meanIoU =
+                            SegmentationMetrics.meanIoU(labels, reference, pixels, mModel.getClassCount());
+                    log(String.format(Locale.US, "%s, %d, %s, %d, %.3f", assetName, shortSide,
+                            mode == ReducedResolutionSegmenter.UPSAMPLE_NEAREST ? "nearest" : "bilinear",
+                            median(latencies), meanIoU));
+                    assertTrue(meanIoU >= 0.f && meanIoU <= 1.f);
+                }
+            }
+        }
+    }
+
+    private void log(String line) {
+        Log.i(TAG, line);
+        mReport.append(line).append('\n');
+    }
+
+    private static long median(long[] values) {
+        final long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,135 @@
+package org.pytorch.imagesegmentation;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Compares the banded argmax of {@link SegmentationPostProcessor} with the per-pixel loop the
+ * sample started with, which reads all 21 class planes for one pixel before moving to the next,
+ * on non-square logits of the DeepLabV3 output shape. Run it with
+ * {@code ./gradlew connectedAndroidTest}, results are printed to logcat and written to the
+ * benchmark json report.
+ */
+@RunWith(Parameterized.class)
+public class SegmentationPostProcessorBenchmark {
+    private static final int CLASS_COUNT = 21;
+
+    @Parameterized.Parameters(name = "{0}x{1}")
+    public static Collection<Object[]> parameters() {
+        return Arrays.asList(new Object[][]{
+                {513, 385},
+                {1026, 770},
+        });
+    }
+
+    @Rule
+    public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private final int mWidth;
+    private final int mHeight;
+    private float[] mScores;
+    private byte[] mLabels;
+
+    public SegmentationPostProcessorBenchmark(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+    }
+
+    @Before
+    public void setUp() {
+        final Random random = new Random(0);
+        mScores = new float[CLASS_COUNT * mWidth * mHeight];
+        for (int i = 0; i < mScores.length; i++) {
+            mScores[i] = random.nextFloat() * 20.f - 10.f;
+        }
+        mLabels = new byte[mWidth * mHeight];
+    }
+
+    @Test
+    public void perPixelLoop() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            perPixelArgmax(mScores, CLASS_COUNT, mWidth, mHeight, mLabels);
+        }
+    }
+
+    @Test
+    public void postProcessor() {
+        final SegmentationPostProcessor postProcessor =
+                new SegmentationPostProcessor(ForkJoinPool.commonPool());
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            postProcessor.argmax(mScores, CLASS_COUNT, mWidth, mHeight, mLabels);
+        }
+    }
+
+    @Test
+    public void postProcessorOneThread() {
+        final ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            final SegmentationPostProcessor postProcessor = new SegmentationPostProcessor(pool);
+            final BenchmarkState state = mBenchmarkRule.getState();
+            while (state.keepRunning()) {
+                postProcessor.argmax(mScores, CLASS_COUNT, mWidth, mHeight, mLabels);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void postProcessorRleMask() {
+        final SegmentationPostProcessor postProcessor =
+                new SegmentationPostProcessor(ForkJoinPool.commonPool());
+        final RleMask mask = new RleMask();
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            postProcessor.argmax(mScores, CLASS_COUNT, mWidth, mHeight, mask);
+        }
+    }
+
+    @Test
+    public void sameLabels() {
+        final byte[] expected = new byte[mWidth * mHeight];
+        perPixelArgmax(mScores, CLASS_COUNT, mWidth, mHeight, expected);
+        new SegmentationPostProcessor(ForkJoinPool.commonPool())
+                .argmax(mScores, CLASS_COUNT, mWidth, mHeight, mLabels);
+        assertArrayEquals(expected, mLabels);
+    }
+
+    /**
+     * The argmax of the original {@code MainActivity.run}, comparing in double and striding
+     * {@code width * height} floats between classes for every pixel. The original swapped the
+     * row and column bounds, which is only correct for square images, they are in row-major
+     * order here so non-square logits give the right labels.
+     */
+    static void perPixelArgmax(float[] scores, int classCount, int width, int height,
+                               byte[] outLabels) {
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int maxi = 0;
+                double maxnum = -Double.MAX_VALUE;
+                for (int i = 0; i < classCount; i++) {
+                    if (scores[i * (width * height) + y * width + x] > maxnum) {
+                        maxnum = scores[i * (width * height) + y * width + x];
+                        maxi = i;
+                    }
+                }
+                outLabels[y * width + x] = (byte) maxi;
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.pytorch.imagesegmentation;
+
+import android.graphics.Bitmap;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that hits need the same size and pixels, and that contains leaves the LRU order alone.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SegmentationResultCacheTest {
+    private static final int WIDTH = 24;
+    private static final int HEIGHT = 16;
+
+    @Test
+    public void sameContentInAnotherBitmapHits() {
+        final SegmentationResultCache cache = new SegmentationResultCache(1024 * 1024);
+        final Bitmap bitmap = gradient(WIDTH, HEIGHT, 0);
+        final SegmentationResultCache.Key key = cache.key(bitmap);
+        final RleMask mask = cache.put(key, new byte[WIDTH * HEIGHT], WIDTH, HEIGHT);
+
+        final SegmentationResultCache.Key copyKey = cache.key(bitmap.copy(Bitmap.Config.ARGB_8888, true));
+        assertEquals(key, copyKey);
+        assertEquals(key.hashCode(), copyKey.hashCode());
+        assertSame(mask, cache.get(copyKey));
+    }
+
+    @Test
+    public void differentPixelsOrSizeMiss() {
+        final SegmentationResultCache cache = new SegmentationResultCache(1024 * 1024);
+        final Bitmap bitmap = gradient(WIDTH, HEIGHT, 0);
+        final SegmentationResultCache.Key key = cache.key(bitmap);
+        cache.put(key, new byte[WIDTH * HEIGHT], WIDTH, HEIGHT);
+
+        final Bitmap changed = bitmap.copy(Bitmap.Config.ARGB_8888, true);
+        changed.setPixel(WIDTH - 1, HEIGHT - 1, changed.getPixel(WIDTH - 1, HEIGHT - 1) ^ 1);
+        final SegmentationResultCache.Key changedKey = cache.key(changed);
+        assertNotEquals(key, changedKey);
+        assertNull(cache.get(changedKey));
+        assertFalse(cache.contains(changedKey));
+
+        // same pixel count and, for a constant image, the same pixel stream
+        final SegmentationResultCache.Key wide = cache.key(constant(WIDTH * 2, HEIGHT / 2));
+        final SegmentationResultCache.Key tall = cache.key(constant(WIDTH, HEIGHT));
+        assertNotEquals(wide, tall);
+    }
+
+    @Test
+    public void containsDoesNotRefreshEntries() {
+        final byte[] labels = new byte[WIDTH * HEIGHT];
+        final long maskBytes = encodedSize(labels);
+        final SegmentationResultCache cache = new SegmentationResultCache((int) (2 * maskBytes));
+        final SegmentationResultCache.Key a = cache.key(gradient(WIDTH, HEIGHT, 1));
+        final SegmentationResultCache.Key b = cache.key(gradient(WIDTH, HEIGHT, 2));
+        final SegmentationResultCache.Key c = cache.key(gradient(WIDTH, HEIGHT, 3));
+        cache.put(a, labels, WIDTH, HEIGHT);
+        cache.put(b, labels, WIDTH, HEIGHT);
+
+        // a stays least recently used, so it is the one evicted
+        assertTrue(cache.contains(a));
+        cache.put(c, labels, WIDTH, HEIGHT);
+        assertFalse(cache.contains(a));
+        assertNull(cache.get(a));
+        assertTrue(cache.contains(b));
+        assertTrue(cache.contains(c));
+
+        // get does refresh, so b survives the next insertion and c is evicted
+        assertNotNull(cache.get(b));
+        cache.put(a, labels, WIDTH, HEIGHT);
+        assertTrue(cache.contains(b));
+        assertFalse(cache.contains(c));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsLabelsOfAnotherSize() {
+        final SegmentationResultCache cache = new SegmentationResultCache(1024 * 1024);
+        cache.put(cache.key(gradient(WIDTH, HEIGHT, 0)), new byte[WIDTH * HEIGHT], HEIGHT, WIDTH);
+    }
+
+    private static long encodedSize(byte[] labels) {
+        final RleMask mask = new RleMask();
+        mask.encode(labels, WIDTH, HEIGHT);
+        return mask.sizeInBytes();
+    }
+
+    private static Bitmap gradient(int width, int height, int seed) {
+        final int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | (int) (i * 2654435761L * (seed + 1) & 0xFFFFFF);
+        }
+        return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    private static Bitmap constant(int width, int height) {
+        final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(0xFF336699);
+        return bitmap;
+    }
+}
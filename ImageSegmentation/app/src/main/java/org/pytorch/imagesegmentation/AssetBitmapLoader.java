@@ -0,0 +1,115 @@
+package org.pytorch.imagesegmentation;
+
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.LruCache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes assets no larger than needed and keeps them in an LRU cache keyed by asset name and
+ * requested size.
+ *
+ * The subsample factor is the largest power of two that keeps the short side at or above the
+ * requested one, so the decoder never produces the full resolution image just to scale it down.
+ * Bitmaps evicted from the cache are kept for {@code inBitmap} reuse by the next decode, a
+ * bitmap returned by {@link #load} must therefore not be used after it can have been evicted,
+ * i.e. once more than the cache budget of other assets was loaded.
+ */
+public class AssetBitmapLoader {
+    private static final int MAX_REUSABLE = 2;
+
+    private final AssetManager mAssets;
+    private final LruCache<String, Bitmap> mCache;
+    private final List<Bitmap> mReusable = new ArrayList<>();
+    private final BitmapFactory.Options mOptions = new BitmapFactory.Options();
+
+    public AssetBitmapLoader(AssetManager assets, int maxCacheBytes) {
+        mAssets = assets;
+        mCache = new LruCache<String, Bitmap>(maxCacheBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (evicted && mReusable.size() < MAX_REUSABLE) {
+                    mReusable.add(oldValue);
+                }
+            }
+        };
+    }
+
+    /**
+     * @param minShortSide short side the decoded bitmap should at least have, 0 decodes at full
+     *                     resolution
+     */
+    public synchronized Bitmap load(String assetName, int minShortSide) throws IOException {
+        final String key = assetName + '@' + minShortSide;
+        final Bitmap cached = mCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final BitmapFactory.Options options = mOptions;
+        options.inJustDecodeBounds = true;
+        options.inBitmap = null;
+        options.inSampleSize = 1;
+        try (InputStream is = mAssets.open(assetName)) {
+            BitmapFactory.decodeStream(is, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Cannot decode asset " + assetName);
+        }
+        final int shortSide = Math.min(options.outWidth, options.outHeight);
+        int sampleSize = 1;
+        while (minShortSide > 0 && shortSide / (sampleSize * 2) >= minShortSide) {
+            sampleSize *= 2;
+        }
+        final int width = (options.outWidth + sampleSize - 1) / sampleSize;
+        final int height = (options.outHeight + sampleSize - 1) / sampleSize;
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inBitmap = takeReusable(width * height * 4);
+        Bitmap bitmap;
+        try (InputStream is = mAssets.open(assetName)) {
+            bitmap = BitmapFactory.decodeStream(is, null, options);
+        } catch (IllegalArgumentException e) {
+            // the decoder rounded the size differently and the reused bitmap does not fit
+            options.inBitmap = null;
+            try (InputStream is = mAssets.open(assetName)) {
+                bitmap = BitmapFactory.decodeStream(is, null, options);
+            }
+        }
+        if (bitmap == null) {
+            throw new IOException("Cannot decode asset " + assetName);
+        }
+        // a bitmap over the whole budget would be evicted into the reuse list right away
+        if (bitmap.getAllocationByteCount() <= mCache.maxSize()) {
+            mCache.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    private Bitmap takeReusable(int byteCount) {
+        for (int i = 0; i < mReusable.size(); i++) {
+            if (mReusable.get(i).getAllocationByteCount() >= byteCount) {
+                return mReusable.remove(i);
+            }
+        }
+        return null;
+    }
+
+    public synchronized void clear() {
+        mCache.evictAll();
+        mReusable.clear();
+    }
+}
@@ -0,0 +1,258 @@
+package org.pytorch.imagesegmentation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs items through a chain of stages, each with its own worker threads, connected by bounded
+ * queues.
+ *
+ * A full queue blocks the stage in front of it, so a slow stage throttles everything upstream
+ * down to {@link #submit} instead of letting decoded images pile up. Items may overtake each
+ * other inside a stage with several workers. The first exception thrown by a stage aborts the
+ * pipeline and is rethrown by {@link #finish}. Busy time and time blocked on a full downstream
+ * queue are recorded per stage, which tells the bottleneck apart from the stages waiting on it.
+ * Plain Java without Android classes, so it also runs on the JVM with stub stages.
+ */
+public class BatchPipeline<T> {
+    public interface Stage<T> {
+        void process(T item) throws Exception;
+    }
+
+    public static class StageStats {
+        public final String name;
+        public final int workers;
+        public final long items;
+        public final long busyNanos;
+        public final long blockedNanos;
+        /** Busy time over worker time, 1 means every worker of the stage was always busy. */
+        public final float utilization;
+
+        StageStats(String name, int workers, long items, long busyNanos, long blockedNanos,
+                   long elapsedNanos) {
+            this.name = name;
+            this.workers = workers;
+            this.items = items;
+            this.busyNanos = busyNanos;
+            this.blockedNanos = blockedNanos;
+            this.utilization = elapsedNanos > 0 ? (float) busyNanos / (workers * elapsedNanos) : 0;
+        }
+    }
+
+    public static class Report {
+        public final long items;
+        public final long elapsedNanos;
+        public final List<StageStats> stages;
+
+        Report(long items, long elapsedNanos, List<StageStats> stages) {
+            this.items = items;
+            this.elapsedNanos = elapsedNanos;
+            this.stages = stages;
+        }
+
+        public float itemsPerSecond() {
+            return elapsedNanos > 0 ? items * 1e9f / elapsedNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder(String.format(Locale.US,
+                    "%d images in %.2f s, %.2f images/s", items, elapsedNanos / 1e9f, itemsPerSecond()));
+            for (StageStats stage : stages) {
+                sb.append(String.format(Locale.US,
+                        "\n  %-12s x%d utilization %5.1f%%, %.1f ms/image, blocked %.2f s",
+                        stage.name, stage.workers, stage.utilization * 100,
+                        stage.items > 0 ? stage.busyNanos / 1e6f / stage.items : 0,
+                        stage.blockedNanos / 1e9f));
+            }
+            return sb.toString();
+        }
+    }
+
+    private static final Object END = new Object();
+    private static final long SUBMIT_POLL_TIMEOUT_MS = 100;
+
+    private final List<StageRunner> mStages = new ArrayList<>();
+    private final List<Thread> mThreads = new ArrayList<>();
+    private final AtomicReference<Throwable> mFailure = new AtomicReference<>();
+    private CountDownLatch mDone;
+    private long mStartTime;
+    private long mSubmitted;
+
+    /**
+     * @param queueCapacity items that may wait in front of the stage
+     */
+    public BatchPipeline<T> addStage(String name, int workers, int queueCapacity, Stage<T> stage) {
+        if (mDone != null) {
+            throw new IllegalStateException("Pipeline already started");
+        }
+        if (workers <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("Workers and queue capacity must be positive");
+        }
+        mStages.add(new StageRunner(name, workers, queueCapacity, stage));
+        return this;
+    }
+
+    public void start() {
+        if (mStages.isEmpty()) {
+            throw new IllegalStateException("Pipeline has no stages");
+        }
+        if (mDone != null) {
+            throw new IllegalStateException("Pipeline already started");
+        }
+        final StageRunner last = mStages.get(mStages.size() - 1);
+        mDone = new CountDownLatch(last.mWorkers);
+        mStartTime = System.nanoTime();
+        for (int i = 0; i < mStages.size(); i++) {
+            final StageRunner stage = mStages.get(i);
+            final StageRunner next = i + 1 < mStages.size() ? mStages.get(i + 1) : null;
+            for (int w = 0; w < stage.mWorkers; w++) {
+                final Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        stage.work(next);
+                    }
+                }, "Batch-" + stage.mName + "-" + w);
+                mThreads.add(thread);
+                thread.start();
+            }
+        }
+    }
+
+    /**
+     * Hands an item to the first stage, blocking while its queue is full.
+     *
+     * @return false if the pipeline failed and the item was not accepted
+     */
+    public boolean submit(T item) throws InterruptedException {
+        if (!offerToFirstStage(item)) {
+            return false;
+        }
+        mSubmitted++;
+        return true;
+    }
+
+    /**
+     * Waits until all submitted items left the last stage.
+     *
+     * @throws ExecutionException with the first exception thrown by a stage
+     */
+    public Report finish() throws InterruptedException, ExecutionException {
+        offerToFirstStage(END);
+        mDone.await();
+        final long elapsed = System.nanoTime() - mStartTime;
+        for (Thread thread : mThreads) {
+            thread.join();
+        }
+        final Throwable failure = mFailure.get();
+        if (failure != null) {
+            throw new ExecutionException("Batch stage failed", failure);
+        }
+        final List<StageStats> stats = new ArrayList<>(mStages.size());
+        for (StageRunner stage : mStages) {
+            stats.add(new StageStats(stage.mName, stage.mWorkers, stage.mItems.get(),
+                    stage.mBusyNanos.get(), stage.mBlockedNanos.get(), elapsed));
+        }
+        return new Report(mStages.get(mStages.size() - 1).mItems.get(), elapsed, stats);
+    }
+
+    /** Stops all workers, items still in flight are dropped. */
+    public void abort() {
+        for (Thread thread : mThreads) {
+            thread.interrupt();
+        }
+    }
+
+    public boolean isFailed() {
+        return mFailure.get() != null;
+    }
+
+    public long getSubmittedCount() {
+        return mSubmitted;
+    }
+
+    /** Waits for room in the first queue, giving up when a failed stage stops draining it. */
+    private boolean offerToFirstStage(Object item) throws InterruptedException {
+        final BlockingQueue<Object> queue = mStages.get(0).mQueue;
+        while (mFailure.get() == null) {
+            if (queue.offer(item, SUBMIT_POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void fail(Throwable t) {
+        if (mFailure.compareAndSet(null, t)) {
+            abort();
+        }
+        // releases finish() even though the end marker never arrives
+        while (mDone.getCount() > 0) {
+            mDone.countDown();
+        }
+    }
+
+    private class StageRunner {
+        final String mName;
+        final int mWorkers;
+        final BlockingQueue<Object> mQueue;
+        final Stage<T> mStage;
+        final AtomicInteger mRunningWorkers;
+        final AtomicLong mItems = new AtomicLong();
+        final AtomicLong mBusyNanos = new AtomicLong();
+        final AtomicLong mBlockedNanos = new AtomicLong();
+
+        StageRunner(String name, int workers, int queueCapacity, Stage<T> stage) {
+            mName = name;
+            mWorkers = workers;
+            // one extra slot so the end marker can always be passed between sibling workers
+            mQueue = new ArrayBlockingQueue<>(queueCapacity + 1);
+            mStage = stage;
+            mRunningWorkers = new AtomicInteger(workers);
+        }
+
+        @SuppressWarnings("unchecked")
+        void work(StageRunner next) {
+            try {
+                while (true) {
+                    final Object item = mQueue.take();
+                    if (item == END) {
+                        // siblings need to see the marker too, the last one forwards it
+                        mQueue.put(END);
+                        if (mRunningWorkers.decrementAndGet() == 0 && next != null) {
+                            next.mQueue.put(END);
+                        }
+                        break;
+                    }
+                    final long startTime = System.nanoTime();
+                    mStage.process((T) item);
+                    final long processedTime = System.nanoTime();
+                    mBusyNanos.addAndGet(processedTime - startTime);
+                    mItems.incrementAndGet();
+                    if (next != null) {
+                        next.mQueue.put(item);
+                        mBlockedNanos.addAndGet(System.nanoTime() - processedTime);
+                    }
+                }
+                if (next == null) {
+                    mDone.countDown();
+                }
+            } catch (InterruptedException e) {
+                if (mFailure.get() == null) {
+                    fail(e);
+                }
+            } catch (Throwable t) {
+                fail(t);
+            }
+        }
+    }
+}
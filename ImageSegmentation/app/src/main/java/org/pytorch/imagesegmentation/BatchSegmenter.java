@@ -0,0 +1,254 @@
+package org.pytorch.imagesegmentation;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.CancellationSignal;
+
+import org.pytorch.Tensor;
+import org.pytorch.torchvision.TensorImageUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Segments a folder of stored images through a {@link BatchPipeline} of decode, preprocess,
+ * infer, post-process and write stages.
+ *
+ * Every image is scaled so that its long side equals {@code inputSize} and letterboxed into a
+ * fixed {@code inputSize x inputSize} tensor, with the padding right of and below the image. The
+ * fixed size lets all buffers live in a pool of items that cycle through the stages: decoded
+ * bitmaps, input tensors, label maps and colored masks are reused and the pool size caps the
+ * number of images in flight. The colored mask is cropped to the scaled image, so it is written
+ * as PNG with the aspect ratio of the input. The module runs on a single infer
+ * worker unless more are configured, Module instances are not meant to run forward from several
+ * threads at once.
+ */
+public class BatchSegmenter {
+    public static final int STAGE_DECODE = 0;
+    public static final int STAGE_PREPROCESS = 1;
+    public static final int STAGE_INFER = 2;
+    public static final int STAGE_POSTPROCESS = 3;
+    public static final int STAGE_WRITE = 4;
+    private static final long POOL_POLL_TIMEOUT_MS = 100;
+    private static final String[] STAGE_NAMES = {"decode", "preprocess", "infer", "postprocess", "write"};
+
+    private final SegmentationModel mModel;
+    private final int mInputSize;
+    private final int mQueueCapacity;
+    private final int[] mWorkers = {2, 1, 1, 1, 1};
+    private final LabelColorMap mColorMap = LabelColorMap.voc();
+    private final ThreadLocal<SegmentationPostProcessor> mPostProcessors =
+            new ThreadLocal<SegmentationPostProcessor>() {
+                @Override
+                protected SegmentationPostProcessor initialValue() {
+                    return new SegmentationPostProcessor(ForkJoinPool.commonPool());
+                }
+            };
+    private final ThreadLocal<BitmapTensorConverter> mConverters =
+            new ThreadLocal<BitmapTensorConverter>() {
+                @Override
+                protected BitmapTensorConverter initialValue() {
+                    return new BitmapTensorConverter(TensorImageUtils.TORCHVISION_NORM_MEAN_RGB,
+                            TensorImageUtils.TORCHVISION_NORM_STD_RGB);
+                }
+            };
+
+    private static class Item {
+        File input;
+        File output;
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        Bitmap decoded;
+        int scaledWidth;
+        int scaledHeight;
+        final FloatBuffer inputBuffer;
+        final Tensor inputTensor;
+        float[] logits;
+        final byte[] labels;
+        final LabelMapRenderer renderer = new LabelMapRenderer();
+        Bitmap mask;
+
+        Item(int inputSize) {
+            inputBuffer = Tensor.allocateFloatBuffer(3 * inputSize * inputSize);
+            inputTensor = Tensor.fromBlob(inputBuffer, new long[]{1, 3, inputSize, inputSize});
+            labels = new byte[inputSize * inputSize];
+        }
+    }
+
+    public BatchSegmenter(SegmentationModel model, int inputSize, int queueCapacity) {
+        mModel = model;
+        mInputSize = inputSize;
+        mQueueCapacity = queueCapacity;
+    }
+
+    /** Sets the number of worker threads of one of the {@code STAGE_*} stages. */
+    public void setWorkers(int stage, int workers) {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("Stage needs at least one worker");
+        }
+        mWorkers[stage] = workers;
+    }
+
+    /**
+     * Writes {@code <name>.png} into {@code outputDir} for every input, blocking until all are
+     * written. Once {@code cancellationSignal} is cancelled no more inputs are submitted, the
+     * images already in the pipeline are still written and counted in the report.
+     */
+    public BatchPipeline.Report run(File[] inputs, File outputDir, CancellationSignal cancellationSignal)
+            throws InterruptedException, ExecutionException {
+        int poolSize = 0;
+        for (int workers : mWorkers) {
+            poolSize += workers + mQueueCapacity;
+        }
+        // one more than fit into the pipeline, so a free item is waiting whenever submit can proceed
+        poolSize++;
+        final BlockingQueue<Item> freeItems = new ArrayBlockingQueue<>(poolSize);
+        final List<Item> items = new ArrayList<>(poolSize);
+
+        final BatchPipeline<Item> pipeline = new BatchPipeline<>();
+        pipeline.addStage(STAGE_NAMES[STAGE_DECODE], mWorkers[STAGE_DECODE], mQueueCapacity,
+                new BatchPipeline.Stage<Item>() {
+                    @Override
+                    public void process(Item item) throws IOException {
+                        decode(item);
+                    }
+                })
+                .addStage(STAGE_NAMES[STAGE_PREPROCESS], mWorkers[STAGE_PREPROCESS], mQueueCapacity,
+                        new BatchPipeline.Stage<Item>() {
+                            @Override
+                            public void process(Item item) {
+                                final int width = item.decoded.getWidth();
+                                final int height = item.decoded.getHeight();
+                                final int longSide = Math.max(width, height);
+                                item.scaledWidth = Math.max(1, Math.round((float) width * mInputSize / longSide));
+                                item.scaledHeight = Math.max(1, Math.round((float) height * mInputSize / longSide));
+                                mConverters.get().convertLetterboxed(item.decoded, item.scaledWidth,
+                                        item.scaledHeight, mInputSize, mInputSize, item.inputBuffer, 0);
+                            }
+                        })
+                .addStage(STAGE_NAMES[STAGE_INFER], mWorkers[STAGE_INFER], mQueueCapacity,
+                        new BatchPipeline.Stage<Item>() {
+                            @Override
+                            public void process(Item item) {
+                                item.logits = mModel.forwardLogits(item.inputTensor,
+                                        mInputSize, mInputSize, item.labels);
+                            }
+                        })
+                .addStage(STAGE_NAMES[STAGE_POSTPROCESS], mWorkers[STAGE_POSTPROCESS], mQueueCapacity,
+                        new BatchPipeline.Stage<Item>() {
+                            @Override
+                            public void process(Item item) {
+                                if (item.logits != null) {
+                                    mPostProcessors.get().argmax(item.logits, mModel.getClassCount(),
+                                            mInputSize, mInputSize, item.labels);
+                                    item.logits = null;
+                                }
+                                // drops the padding, moving the rows of the image together in place
+                                for (int y = 1; y < item.scaledHeight; y++) {
+                                    System.arraycopy(item.labels, y * mInputSize, item.labels,
+                                            y * item.scaledWidth, item.scaledWidth);
+                                }
+                                item.mask = item.renderer.render(item.labels, item.scaledWidth,
+                                        item.scaledHeight, mColorMap);
+                            }
+                        })
+                .addStage(STAGE_NAMES[STAGE_WRITE], mWorkers[STAGE_WRITE], mQueueCapacity,
+                        new BatchPipeline.Stage<Item>() {
+                            @Override
+                            public void process(Item item) throws IOException, InterruptedException {
+                                try (OutputStream os = new FileOutputStream(item.output)) {
+                                    item.mask.compress(Bitmap.CompressFormat.PNG, 100, os);
+                                }
+                                freeItems.put(item);
+                            }
+                        });
+
+        pipeline.start();
+        try {
+            for (File input : inputs) {
+                if (cancellationSignal.isCanceled()) {
+                    break;
+                }
+                Item item = freeItems.poll();
+                if (item == null && items.size() < poolSize) {
+                    item = new Item(mInputSize);
+                    items.add(item);
+                }
+                // the write stage returns items, unless a failed stage stopped the pipeline
+                while (item == null && !pipeline.isFailed()) {
+                    item = freeItems.poll(POOL_POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                }
+                if (item == null) {
+                    break;
+                }
+                item.input = input;
+                item.output = new File(outputDir, stripExtension(input.getName()) + ".png");
+                if (!pipeline.submit(item)) {
+                    break;
+                }
+            }
+            return pipeline.finish();
+        } catch (InterruptedException e) {
+            pipeline.abort();
+            throw e;
+        } finally {
+            for (Item item : items) {
+                if (item.decoded != null) {
+                    item.decoded.recycle();
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes at the largest power of two subsample whose long side still covers the input size,
+     * into the item's previous bitmap when it is large enough.
+     */
+    private void decode(Item item) throws IOException {
+        final BitmapFactory.Options options = item.options;
+        options.inJustDecodeBounds = true;
+        options.inBitmap = null;
+        BitmapFactory.decodeFile(item.input.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Cannot decode " + item.input);
+        }
+        int sampleSize = 1;
+        while (Math.max(options.outWidth, options.outHeight) / (sampleSize * 2) >= mInputSize) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inBitmap = item.decoded;
+        Bitmap decoded;
+        try {
+            decoded = BitmapFactory.decodeFile(item.input.getPath(), options);
+        } catch (IllegalArgumentException e) {
+            // the previous bitmap is too small for this image
+            options.inBitmap = null;
+            decoded = BitmapFactory.decodeFile(item.input.getPath(), options);
+        }
+        if (decoded == null) {
+            throw new IOException("Cannot decode " + item.input);
+        }
+        if (item.decoded != null && item.decoded != decoded) {
+            item.decoded.recycle();
+        }
+        item.decoded = decoded;
+    }
+
+    private static String stripExtension(String name) {
+        final int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+}
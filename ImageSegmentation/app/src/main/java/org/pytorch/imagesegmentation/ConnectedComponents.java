@@ -0,0 +1,233 @@
+package org.pytorch.imagesegmentation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 4-connected component labeling of a label map with per-class areas and per-component boxes.
+ *
+ * Bands of rows are labeled in parallel with union-find over a primitive parent array. A
+ * provisional component id is the index of its first pixel, so bands use disjoint ids without
+ * coordination, and unions always link to the smaller root. Band borders are then merged
+ * sequentially, one ascending pass flattens the forest (every parent is smaller than its child)
+ * and assigns compact component indices, and a final pass collects the statistics. All buffers
+ * are owned by the instance and only grow, the result is reused between calls.
+ */
+public class ConnectedComponents {
+    private static final int BAND_MIN_ROWS = 64;
+    private static final int NO_COMPONENT = -1;
+
+    public static class Result {
+        public int width;
+        public int height;
+        public int componentCount;
+        /** Pixels of every label value 0..255, including background. */
+        public final long[] classAreas = new long[256];
+        public int[] componentClass = new int[0];
+        public int[] area = new int[0];
+        public int[] minX = new int[0];
+        public int[] minY = new int[0];
+        public int[] maxX = new int[0];
+        public int[] maxY = new int[0];
+        public long[] sumX = new long[0];
+        public long[] sumY = new long[0];
+
+        public float centroidX(int component) {
+            return (float) sumX[component] / area[component];
+        }
+
+        public float centroidY(int component) {
+            return (float) sumY[component] / area[component];
+        }
+
+        /** Number of components of the given class, e.g. the number of distinct people. */
+        public int countOfClass(int label) {
+            int count = 0;
+            for (int i = 0; i < componentCount; i++) {
+                if (componentClass[i] == label) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        void ensureCapacity(int count) {
+            if (area.length >= count) {
+                return;
+            }
+            final int capacity = Math.max(count, area.length * 2);
+            componentClass = new int[capacity];
+            area = new int[capacity];
+            minX = new int[capacity];
+            minY = new int[capacity];
+            maxX = new int[capacity];
+            maxY = new int[capacity];
+            sumX = new long[capacity];
+            sumY = new long[capacity];
+        }
+    }
+
+    private final ForkJoinPool mPool;
+    private final Result mResult = new Result();
+    private int[] mIds = new int[0];
+    private int[] mParent = new int[0];
+
+    public ConnectedComponents(ForkJoinPool pool) {
+        mPool = pool;
+    }
+
+    /**
+     * @param backgroundLabel pixels with this label are not grouped into components,
+     *                        pass a negative value to label every class
+     * @return result owned by this instance, valid until the next call
+     */
+    public Result label(final byte[] labels, final int width, final int height, final int backgroundLabel) {
+        final int pixels = width * height;
+        if (labels.length < pixels) {
+            throw new IllegalArgumentException("Labels buffer is smaller than height * width");
+        }
+        if (mIds.length < pixels) {
+            mIds = new int[pixels];
+            mParent = new int[pixels];
+        }
+        final int[] ids = mIds;
+        final int[] parent = mParent;
+
+        final int bandRows = Math.max(BAND_MIN_ROWS,
+                (height + mPool.getParallelism() - 1) / mPool.getParallelism());
+        final List<RecursiveAction> tasks = new ArrayList<>();
+        for (int row = 0; row < height; row += bandRows) {
+            final int y0 = row;
+            final int y1 = Math.min(height, row + bandRows);
+            tasks.add(new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute() {
+                    labelBand(labels, width, y0, y1, backgroundLabel, ids, parent);
+                }
+            });
+        }
+        if (tasks.size() == 1) {
+            tasks.get(0).invoke();
+        } else {
+            mPool.invoke(new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute() {
+                    ForkJoinTask.invokeAll(tasks);
+                }
+            });
+        }
+
+        // merge components across band borders
+        for (int y = bandRows; y < height; y += bandRows) {
+            for (int p = y * width, end = p + width; p < end; p++) {
+                if (ids[p] != NO_COMPONENT && labels[p] == labels[p - width]) {
+                    union(parent, ids[p], ids[p - width]);
+                }
+            }
+        }
+
+        // roots are the smallest index of their set, so an ascending pass fully flattens the
+        // forest; roots then store their compact index as -(index + 1)
+        int componentCount = 0;
+        for (int p = 0; p < pixels; p++) {
+            if (ids[p] != p) {
+                continue;
+            }
+            final int root = parent[p];
+            if (root == p) {
+                parent[p] = -(++componentCount);
+            } else {
+                parent[p] = parent[root] < 0 ? root : parent[root];
+            }
+        }
+
+        final Result result = mResult;
+        result.width = width;
+        result.height = height;
+        result.componentCount = componentCount;
+        result.ensureCapacity(componentCount);
+        Arrays.fill(result.classAreas, 0);
+        Arrays.fill(result.area, 0, componentCount, 0);
+        Arrays.fill(result.minX, 0, componentCount, Integer.MAX_VALUE);
+        Arrays.fill(result.minY, 0, componentCount, Integer.MAX_VALUE);
+        Arrays.fill(result.maxX, 0, componentCount, -1);
+        Arrays.fill(result.maxY, 0, componentCount, -1);
+        Arrays.fill(result.sumX, 0, componentCount, 0);
+        Arrays.fill(result.sumY, 0, componentCount, 0);
+        for (int y = 0, p = 0; y < height; y++) {
+            for (int x = 0; x < width; x++, p++) {
+                final int label = labels[p] & 0xFF;
+                result.classAreas[label]++;
+                final int id = ids[p];
+                if (id == NO_COMPONENT) {
+                    continue;
+                }
+                final int seedParent = parent[id];
+                final int c = seedParent < 0 ? -seedParent - 1 : -parent[seedParent] - 1;
+                result.componentClass[c] = label;
+                result.area[c]++;
+                result.minX[c] = Math.min(result.minX[c], x);
+                result.minY[c] = Math.min(result.minY[c], y);
+                result.maxX[c] = Math.max(result.maxX[c], x);
+                result.maxY[c] = Math.max(result.maxY[c], y);
+                result.sumX[c] += x;
+                result.sumY[c] += y;
+            }
+        }
+        return result;
+    }
+
+    private static void labelBand(byte[] labels, int width, int y0, int y1, int backgroundLabel,
+                                  int[] ids, int[] parent) {
+        for (int y = y0; y < y1; y++) {
+            final int rowStart = y * width;
+            for (int x = 0; x < width; x++) {
+                final int p = rowStart + x;
+                final byte label = labels[p];
+                if ((label & 0xFF) == backgroundLabel) {
+                    ids[p] = NO_COMPONENT;
+                    continue;
+                }
+                final boolean joinsLeft = x > 0 && labels[p - 1] == label;
+                final boolean joinsUp = y > y0 && labels[p - width] == label;
+                if (joinsLeft) {
+                    ids[p] = ids[p - 1];
+                    if (joinsUp && ids[p - width] != ids[p - 1]) {
+                        union(parent, ids[p - 1], ids[p - width]);
+                    }
+                } else if (joinsUp) {
+                    ids[p] = ids[p - width];
+                } else {
+                    ids[p] = p;
+                    parent[p] = p;
+                }
+            }
+        }
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        final int rootA = find(parent, a);
+        final int rootB = find(parent, b);
+        if (rootA < rootB) {
+            parent[rootB] = rootA;
+        } else if (rootB < rootA) {
+            parent[rootA] = rootB;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package org.pytorch.imagesegmentation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Turns a label map into closed polygons per class using marching squares.
+ *
+ * Grid corners are pixel centers, the map is padded with one ring of outside pixels so every
+ * contour closes. Segments are oriented with the class on their right, which makes every edge
+ * midpoint the start of exactly one segment and the end of exactly one other, so contours are
+ * traced by following a single "next edge" table without any geometric search. Outer contours
+ * and hole contours come out with opposite winding. Saddle cells keep diagonal corners apart.
+ * Polygons are then simplified with Douglas-Peucker.
+ */
+public class ContourExtractor {
+    private static final int TOP = 0;
+    private static final int RIGHT = 1;
+    private static final int BOTTOM = 2;
+    private static final int LEFT = 3;
+
+    /** Oriented segments per case as {start edge, end edge} pairs, corner bits tl=8 tr=4 br=2 bl=1. */
+    private static final int[][] SEGMENTS = new int[16][];
+
+    static {
+        final int[][] unoriented = {
+                {}, {LEFT, BOTTOM}, {BOTTOM, RIGHT}, {LEFT, RIGHT},
+                {TOP, RIGHT}, {TOP, RIGHT, LEFT, BOTTOM}, {TOP, BOTTOM}, {TOP, LEFT},
+                {TOP, LEFT}, {TOP, BOTTOM}, {TOP, LEFT, BOTTOM, RIGHT}, {TOP, RIGHT},
+                {LEFT, RIGHT}, {RIGHT, BOTTOM}, {LEFT, BOTTOM}, {}};
+        final float[][] edgeMidpoints = {{0.5f, 0.f}, {1.f, 0.5f}, {0.5f, 1.f}, {0.f, 0.5f}};
+        final float[][] corners = {{0.f, 0.f}, {1.f, 0.f}, {1.f, 1.f}, {0.f, 1.f}};
+        final int[] cornerBits = {8, 4, 2, 1};
+        for (int c = 0; c < 16; c++) {
+            final int[] segments = unoriented[c].clone();
+            for (int s = 0; s < segments.length; s += 2) {
+                final float[] a = edgeMidpoints[segments[s]];
+                final float[] b = edgeMidpoints[segments[s + 1]];
+                // corners on the positive side of a->b, y axis pointing down means "right"
+                int positive = 0;
+                int positiveInside = 0;
+                int negativeInside = 0;
+                int negative = 0;
+                for (int k = 0; k < 4; k++) {
+                    final float cross = (b[0] - a[0]) * (corners[k][1] - a[1])
+                            - (b[1] - a[1]) * (corners[k][0] - a[0]);
+                    final boolean inside = (c & cornerBits[k]) != 0;
+                    if (cross > 0) {
+                        positive++;
+                        positiveInside += inside ? 1 : 0;
+                    } else {
+                        negative++;
+                        negativeInside += inside ? 1 : 0;
+                    }
+                }
+                // the side holding a single corner decides, saddles keep the center outside
+                final boolean insideOnPositive = positive == 1 ? positiveInside == 1
+                        : negative == 1 ? negativeInside == 0 : positiveInside > 0;
+                if (!insideOnPositive) {
+                    segments[s] = unoriented[c][s + 1];
+                    segments[s + 1] = unoriented[c][s];
+                }
+            }
+            SEGMENTS[c] = segments;
+        }
+    }
+
+    public static class Contour {
+        public final int label;
+        /** Interleaved x, y of a closed polygon, pixel (x, y) covers [x, x + 1) x [y, y + 1). */
+        public final float[] points;
+        public final int pointCount;
+
+        Contour(int label, float[] points, int pointCount) {
+            this.label = label;
+            this.points = points;
+            this.pointCount = pointCount;
+        }
+    }
+
+    private final float mEpsilon;
+    private int[] mNext = new int[0];
+    private int[] mStarts = new int[0];
+    private float[] mRing = new float[0];
+    private boolean[] mKeep = new boolean[0];
+    private int[] mStack = new int[0];
+
+    /**
+     * @param epsilon maximum distance in pixels between a simplified polygon and the traced one
+     */
+    public ContourExtractor(float epsilon) {
+        mEpsilon = epsilon;
+    }
+
+    /**
+     * @param backgroundLabel label that gets no contours, negative to trace every label
+     */
+    public List<Contour> extract(byte[] labels, int width, int height, int backgroundLabel) {
+        final boolean[] present = new boolean[256];
+        for (int p = 0, pixels = width * height; p < pixels; p++) {
+            present[labels[p] & 0xFF] = true;
+        }
+        final int horizontalEdges = (width + 1) * (height + 2);
+        final int edgeCount = horizontalEdges + (width + 2) * (height + 1);
+        if (mNext.length < edgeCount) {
+            mNext = new int[edgeCount];
+            Arrays.fill(mNext, -1);
+        }
+
+        final List<Contour> contours = new ArrayList<>();
+        for (int label = 0; label < 256; label++) {
+            if (present[label] && label != backgroundLabel) {
+                extractLabel(labels, width, height, label, horizontalEdges, contours);
+            }
+        }
+        return contours;
+    }
+
+    private void extractLabel(byte[] labels, int width, int height, int label, int horizontalEdges,
+                              List<Contour> outContours) {
+        final int[] next = mNext;
+        int startCount = 0;
+        // cell (gx, gy) has pixel (gx - 1, gy - 1) as its top-left corner
+        for (int gy = 0; gy <= height; gy++) {
+            for (int gx = 0; gx <= width; gx++) {
+                final int c = (inside(labels, width, height, gx - 1, gy - 1, label) ? 8 : 0)
+                        | (inside(labels, width, height, gx, gy - 1, label) ? 4 : 0)
+                        | (inside(labels, width, height, gx, gy, label) ? 2 : 0)
+                        | (inside(labels, width, height, gx - 1, gy, label) ? 1 : 0);
+                final int[] segments = SEGMENTS[c];
+                for (int s = 0; s < segments.length; s += 2) {
+                    final int start = edgeId(segments[s], gx, gy, width, horizontalEdges);
+                    next[start] = edgeId(segments[s + 1], gx, gy, width, horizontalEdges);
+                    if (startCount == mStarts.length) {
+                        mStarts = Arrays.copyOf(mStarts, Math.max(16, startCount * 2));
+                    }
+                    mStarts[startCount++] = start;
+                }
+            }
+        }
+
+        for (int i = 0; i < startCount; i++) {
+            final int start = mStarts[i];
+            if (next[start] < 0) {
+                continue;
+            }
+            int pointCount = 0;
+            int edge = start;
+            do {
+                if (2 * pointCount + 2 > mRing.length) {
+                    mRing = Arrays.copyOf(mRing, Math.max(64, mRing.length * 2));
+                }
+                midpoint(edge, width, horizontalEdges, mRing, 2 * pointCount);
+                pointCount++;
+                final int following = next[edge];
+                next[edge] = -1;
+                edge = following;
+            } while (edge != start && edge >= 0);
+            outContours.add(simplify(label, mRing, pointCount));
+        }
+    }
+
+    private static boolean inside(byte[] labels, int width, int height, int x, int y, int label) {
+        return x >= 0 && y >= 0 && x < width && y < height && (labels[y * width + x] & 0xFF) == label;
+    }
+
+    private static int edgeId(int side, int gx, int gy, int width, int horizontalEdges) {
+        switch (side) {
+            case TOP:
+                return gy * (width + 1) + gx;
+            case BOTTOM:
+                return (gy + 1) * (width + 1) + gx;
+            case LEFT:
+                return horizontalEdges + gy * (width + 2) + gx;
+            default:
+                return horizontalEdges + gy * (width + 2) + gx + 1;
+        }
+    }
+
+    /** Midpoint of an edge in pixel coordinates, corner (gx, gy) is the center of pixel (gx - 1, gy - 1). */
+    private static void midpoint(int edge, int width, int horizontalEdges, float[] out, int offset) {
+        if (edge < horizontalEdges) {
+            final int gy = edge / (width + 1);
+            final int gx = edge % (width + 1);
+            out[offset] = gx;
+            out[offset + 1] = gy - 0.5f;
+        } else {
+            final int v = edge - horizontalEdges;
+            final int gy = v / (width + 2);
+            final int gx = v % (width + 2);
+            out[offset] = gx - 0.5f;
+            out[offset + 1] = gy;
+        }
+    }
+
+    /**
+     * Douglas-Peucker on the closed ring, split at point 0 and the point furthest from it.
+     */
+    private Contour simplify(int label, float[] ring, int n) {
+        if (n <= 3) {
+            return new Contour(label, Arrays.copyOf(ring, 2 * n), n);
+        }
+        if (mKeep.length < n + 1) {
+            mKeep = new boolean[n + 1];
+            mStack = new int[2 * (n + 1)];
+        }
+        final boolean[] keep = mKeep;
+        Arrays.fill(keep, 0, n + 1, false);
+        int far = 0;
+        float farDist = -1.f;
+        for (int i = 1; i < n; i++) {
+            final float dx = ring[2 * i] - ring[0];
+            final float dy = ring[2 * i + 1] - ring[1];
+            final float dist = dx * dx + dy * dy;
+            if (dist > farDist) {
+                farDist = dist;
+                far = i;
+            }
+        }
+        keep[0] = true;
+        keep[far] = true;
+        simplifyRange(ring, n, 0, far);
+        simplifyRange(ring, n, far, n);
+
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            kept += keep[i] ? 1 : 0;
+        }
+        final float[] points = new float[2 * kept];
+        for (int i = 0, j = 0; i < n; i++) {
+            if (keep[i]) {
+                points[j++] = ring[2 * i];
+                points[j++] = ring[2 * i + 1];
+            }
+        }
+        return new Contour(label, points, kept);
+    }
+
+    /** Index n stands for point 0 again, closing the ring. */
+    private void simplifyRange(float[] ring, int n, int first, int last) {
+        final float epsilonSquared = mEpsilon * mEpsilon;
+        final int[] stack = mStack;
+        int top = 0;
+        stack[top++] = first;
+        stack[top++] = last;
+        while (top > 0) {
+            final int b = stack[--top];
+            final int a = stack[--top];
+            if (b - a < 2) {
+                continue;
+            }
+            final float ax = ring[2 * a];
+            final float ay = ring[2 * a + 1];
+            final float bx = ring[2 * (b % n)];
+            final float by = ring[2 * (b % n) + 1];
+            final float dx = bx - ax;
+            final float dy = by - ay;
+            final float lengthSquared = dx * dx + dy * dy;
+            int worst = -1;
+            float worstDist = epsilonSquared;
+            for (int i = a + 1; i < b; i++) {
+                final float px = ring[2 * i] - ax;
+                final float py = ring[2 * i + 1] - ay;
+                final float cross = dx * py - dy * px;
+                final float dist = lengthSquared > 0 ? cross * cross / lengthSquared : px * px + py * py;
+                if (dist > worstDist) {
+                    worstDist = dist;
+                    worst = i;
+                }
+            }
+            if (worst >= 0) {
+                mKeep[worst] = true;
+                stack[top++] = a;
+                stack[top++] = worst;
+                stack[top++] = worst;
+                stack[top++] = b;
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.pytorch.imagesegmentation;
+
+/**
+ * ARGB color lookup table indexed by segmentation class label.
+ */
+public class LabelColorMap {
+    // see http://host.robots.ox.ac.uk:8080/pascal/VOC/voc2007/segexamples/index.html for the list of classes with indexes
+    public static final int VOC_CLASS_COUNT = 21;
+
+    private final int[] mColors;
+
+    public LabelColorMap(int[] colors) {
+        mColors = colors.clone();
+    }
+
+    /**
+     * Standard PASCAL VOC palette: background is black, every other class gets a distinct color
+     * built by spreading the bits of the label over the high bits of the R, G and B channels.
+     */
+    public static LabelColorMap voc() {
+        final int[] colors = new int[VOC_CLASS_COUNT];
+        for (int label = 0; label < VOC_CLASS_COUNT; label++) {
+            int r = 0, g = 0, b = 0;
+            int c = label;
+            for (int shift = 7; shift >= 0 && c != 0; shift--, c >>= 3) {
+                r |= (c & 1) << shift;
+                g |= ((c >> 1) & 1) << shift;
+                b |= ((c >> 2) & 1) << shift;
+            }
+            colors[label] = 0xFF000000 | (r << 16) | (g << 8) | b;
+        }
+        return new LabelColorMap(colors);
+    }
+
+    public int size() {
+        return mColors.length;
+    }
+
+    public int getColor(int label) {
+        return mColors[label];
+    }
+
+    public void setColor(int label, int argb) {
+        mColors[label] = argb;
+    }
+
+    /** Colors a run of labels into {@code outArgb}, labels outside the table map to transparent. */
+    public void apply(byte[] labels, int labelsOffset, int[] outArgb, int outOffset, int count) {
+        final int[] colors = mColors;
+        for (int i = 0; i < count; i++) {
+            final int label = labels[labelsOffset + i] & 0xFF;
+            outArgb[outOffset + i] = label < colors.length ? colors[label] : 0;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.pytorch.imagesegmentation;
+
+import android.graphics.Bitmap;
+
+/**
+ * Renders a byte-per-pixel label map into one of two mutable Bitmaps that are reused across runs.
+ *
+ * Pixels are colored one row at a time through the {@link LabelColorMap}, so apart from the
+ * output Bitmaps only one row of ARGB values is held in memory. The Bitmaps are double buffered:
+ * the UI thread reports the one it puts on screen through {@link #markShown} and renders, which
+ * may run on another thread, go to the other one, so a Bitmap is never written or reconfigured
+ * while a view draws it.
+ */
+public class LabelMapRenderer {
+    private final Bitmap[] mBitmaps = new Bitmap[2];
+    private int mShown = -1;
+    private int[] mRowPixels = new int[0];
+
+    /**
+     * @return the Bitmap that is not on screen, valid until the next call to render unless it is
+     * marked shown before
+     */
+    public synchronized Bitmap render(byte[] labels, int width, int height, LabelColorMap colorMap) {
+        if (labels.length < width * height) {
+            throw new IllegalArgumentException("Labels buffer is smaller than height * width");
+        }
+        final Bitmap bitmap = backBitmap(width, height);
+        if (mRowPixels.length < width) {
+            mRowPixels = new int[width];
+        }
+        for (int y = 0; y < height; y++) {
+            colorMap.apply(labels, y * width, mRowPixels, 0, width);
+            bitmap.setPixels(mRowPixels, 0, width, 0, y, width, 1);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Renders a run-length encoded mask, every run is filled into the row buffer directly.
+     *
+     * @return the Bitmap that is not on screen, valid until the next call to render unless it is
+     * marked shown before
+     */
+    public synchronized Bitmap render(RleMask mask, LabelColorMap colorMap) {
+        final int width = mask.getWidth();
+        final int height = mask.getHeight();
+        final Bitmap bitmap = backBitmap(width, height);
+        if (mRowPixels.length < width) {
+            mRowPixels = new int[width];
+        }
+        for (int y = 0; y < height; y++) {
+            mask.decodeRow(y, colorMap, mRowPixels, 0);
+            bitmap.setPixels(mRowPixels, 0, width, 0, y, width, 1);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Call on the UI thread before putting a rendered Bitmap on screen, waits for a render into it
+     * that is still running. Renders then go to the other Bitmap until that one is shown. Bitmaps
+     * the renderer does not own are ignored.
+     */
+    public synchronized void markShown(Bitmap bitmap) {
+        for (int i = 0; i < mBitmaps.length; i++) {
+            if (mBitmaps[i] == bitmap) {
+                mShown = i;
+                return;
+            }
+        }
+    }
+
+    private Bitmap backBitmap(int width, int height) {
+        final int back = mShown == 0 ? 1 : 0;
+        final Bitmap bitmap = mBitmaps[back];
+        if (bitmap != null && bitmap.getWidth() == width && bitmap.getHeight() == height) {
+            return bitmap;
+        }
+        if (bitmap != null && bitmap.getAllocationByteCount() >= width * height * 4) {
+            bitmap.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+            return bitmap;
+        }
+        mBitmaps[back] = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        return mBitmaps[back];
+    }
+}
@@ -1,42 +1,97 @@
 package org.pytorch.imagesegmentation;
 
+import androidx.annotation.WorkerThread;
 import androidx.appcompat.app.AppCompatActivity;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.LayerDrawable;
 import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.SystemClock;
 import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.ProgressBar;
+import android.widget.Toast;
 
-import org.pytorch.IValue;
 import org.pytorch.Module;
-import org.pytorch.Tensor;
-import org.pytorch.torchvision.TensorImageUtils;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 
-public class MainActivity extends AppCompatActivity implements Runnable {
+public class MainActivity extends AppCompatActivity {
     private ImageView mImageView;
+    private TiledMaskView mMaskView;
     private Button mButtonSegment;
     private ProgressBar mProgressBar;
     private Bitmap mBitmap = null;
-    private Module mModule = null;
+    private AssetBitmapLoader mBitmapLoader;
+    private SegmentationModel mModel = null;
+    private TiledSegmenter mTiledSegmenter = null;
+    private ReducedResolutionSegmenter mReducedResolutionSegmenter = null;
+    private ProgressiveSegmenter mProgressiveSegmenter = null;
+    private final SegmentationWorker mWorker = new SegmentationWorker();
     private String mImagename = "deeplab.jpg";
+    private final SegmentationPostProcessor mPostProcessor =
+            new SegmentationPostProcessor(ForkJoinPool.commonPool());
+    private final LabelColorMap mColorMap = LabelColorMap.voc();
+    private final LabelMapRenderer mRenderer = new LabelMapRenderer();
+    private final ConnectedComponents mComponents =
+            new ConnectedComponents(ForkJoinPool.commonPool());
+    private final ContourExtractor mContourExtractor = new ContourExtractor(CONTOUR_EPSILON);
+    // final masks are drawn as contour paths over the original image instead of a label bitmap,
+    // toggled from the options menu and read by the worker
+    private volatile boolean mContourOverlay = false;
+    // final masks are shown in a zoomable view rendering only the visible tiles of the encoded mask
+    private volatile boolean mTiledMaskViewer = false;
+    private byte[] mLabels = new byte[0];
+    private byte[] mSpeculativeLabels = new byte[0];
+    private final SegmentationResultCache mResultCache = new SegmentationResultCache(RESULT_CACHE_BYTES);
 
-    // see http://host.robots.ox.ac.uk:8080/pascal/VOC/voc2007/segexamples/index.html for the list of classes with indexes
-    private static final int CLASSNUM = 21;
+    private static final int CLASSNUM = LabelColorMap.VOC_CLASS_COUNT;
+    private static final int BACKGROUND = 0;
     private static final int DOG = 12;
     private static final int PERSON = 15;
-    private static final int SHEEP = 17;
+    private static final String LOGITS_MODEL_ASSET_NAME = "deeplabv3_scripted.pt";
+    private static final String LABEL_MAP_MODEL_ASSET_NAME = "deeplabv3_labelmap_scripted.pt";
+    // DeepLabV3 is trained on 513x513 crops, larger images are segmented in tiles of that size
+    private static final int MAX_TILE_SIZE = 513;
+    private static final int TILE_OVERLAP = 32;
+    // images are decoded subsampled down to at most twice this short side
+    private static final int DECODE_SHORT_SIDE = MAX_TILE_SIZE;
+    // both sample images stay decoded, switching between them does not decode again
+    private static final int BITMAP_CACHE_BYTES = 16 * 1024 * 1024;
+    // short side of the image fed to the model, 0 runs the model at full resolution
+    private static final int INFERENCE_SHORT_SIDE = 0;
+    private static final int UPSAMPLE_MODE = ReducedResolutionSegmenter.UPSAMPLE_NEAREST;
+    // shows a low resolution mask first when running at full resolution, at most this short side
+    // and shrunk when it would hold back the full resolution mask by more than a fraction of its time
+    private static final boolean PROGRESSIVE = true;
+    private static final int COARSE_SHORT_SIDE = 128;
+    private static final float CONTOUR_EPSILON = 0.75f;
+    private static final int CONTOUR_OVERLAY_ALPHA = 160;
+    // label maps are cached run-length encoded by the size and a SHA-256 digest of the image pixels
+    private static final int RESULT_CACHE_BYTES = 1024 * 1024;
+    // while a result is on screen, decodes and segments the other image at idle priority
+    private static final boolean SPECULATIVE = true;
+    private static final boolean SPECULATIVE_SEGMENT = true;
+    // the options menu segments every image in the app's external files batch_input folder into
+    // batch_output
+    private static final Object BATCH_JOB_KEY = "batch_input";
+    private static final int BATCH_INPUT_SIZE = 513;
+    private static final int BATCH_QUEUE_CAPACITY = 2;
 
     public static String assetFilePath(Context context, String assetName) throws IOException {
         File file = new File(context.getFilesDir(), assetName);
@@ -61,9 +116,10 @@ public class MainActivity extends AppCompatActivity implements Runnable {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+        mBitmapLoader = new AssetBitmapLoader(getAssets(), BITMAP_CACHE_BYTES);
 
         try {
-            mBitmap = BitmapFactory.decodeStream(getAssets().open(mImagename));
+            mBitmap = mBitmapLoader.load(mImagename, DECODE_SHORT_SIDE);
         } catch (IOException e) {
             Log.e("ImageSegmentation", "Error reading assets", e);
             finish();
@@ -71,6 +127,7 @@ public class MainActivity extends AppCompatActivity implements Runnable {
 
         mImageView = findViewById(R.id.imageView);
         mImageView.setImageBitmap(mBitmap);
+        mMaskView = findViewById(R.id.maskView);
 
         final Button buttonRestart = findViewById(R.id.restartButton);
         buttonRestart.setOnClickListener(new View.OnClickListener() {
@@ -79,8 +136,12 @@ public class MainActivity extends AppCompatActivity implements Runnable {
                     mImagename = "dog.jpg";
                 else
                     mImagename = "deeplab.jpg";
+                mWorker.cancel();
+                setSegmentIdleState();
+                mMaskView.setMask(null, null);
+                mMaskView.setVisibility(View.GONE);
                 try {
-                    mBitmap = BitmapFactory.decodeStream(getAssets().open(mImagename));
+                    mBitmap = mBitmapLoader.load(mImagename, DECODE_SHORT_SIDE);
                     mImageView.setImageBitmap(mBitmap);
                 } catch (IOException e) {
                     Log.e("ImageSegmentation", "Error reading assets", e);
@@ -94,17 +155,33 @@ public class MainActivity extends AppCompatActivity implements Runnable {
         mProgressBar = (ProgressBar) findViewById(R.id.progressBar);
         mButtonSegment.setOnClickListener(new View.OnClickListener() {
             public void onClick(View v) {
+                final Bitmap bitmap = mBitmap;
+                if (!mWorker.submit(bitmap, new SegmentationWorker.Job() {
+                    @Override
+                    public void run(CancellationSignal cancellationSignal) {
+                        segment(bitmap, cancellationSignal);
+                    }
+                })) {
+                    return;
+                }
                 mButtonSegment.setEnabled(false);
                 mProgressBar.setVisibility(ProgressBar.VISIBLE);
                 mButtonSegment.setText(getString(R.string.run_model));
-
-                Thread thread = new Thread(MainActivity.this);
-                thread.start();
             }
         });
 
         try {
-            mModule = Module.load(MainActivity.assetFilePath(getApplicationContext(), "deeplabv3_scripted.pt"));
+            final Module module = Module.load(MainActivity.assetFilePath(getApplicationContext(),
+                    hasAsset(LABEL_MAP_MODEL_ASSET_NAME) ? LABEL_MAP_MODEL_ASSET_NAME : LOGITS_MODEL_ASSET_NAME));
+            mModel = new SegmentationModel(module, mPostProcessor, CLASSNUM);
+            mTiledSegmenter = new TiledSegmenter(mModel, MAX_TILE_SIZE, TILE_OVERLAP);
+            if (INFERENCE_SHORT_SIDE > 0) {
+                mReducedResolutionSegmenter =
+                        new ReducedResolutionSegmenter(mModel, INFERENCE_SHORT_SIDE, UPSAMPLE_MODE);
+            } else if (PROGRESSIVE) {
+                mProgressiveSegmenter = new ProgressiveSegmenter(mModel, mTiledSegmenter,
+                        COARSE_SHORT_SIDE);
+            }
         } catch (IOException e) {
             Log.e("ImageSegmentation", "Error reading assets", e);
             finish();
@@ -113,50 +190,301 @@ public class MainActivity extends AppCompatActivity implements Runnable {
     }
 
     @Override
-    public void run() {
-        final Tensor inputTensor = TensorImageUtils.bitmapToFloat32Tensor(mBitmap,
-                TensorImageUtils.TORCHVISION_NORM_MEAN_RGB, TensorImageUtils.TORCHVISION_NORM_STD_RGB);
-        final float[] inputs = inputTensor.getDataAsFloatArray();
-        Map<String, IValue> outTensors = mModule.forward(IValue.from(inputTensor)).toDictStringKey();
-        final Tensor outputTensor = outTensors.get("out").toTensor();
-        final float[] scores = outputTensor.getDataAsFloatArray();
-        int width = mBitmap.getWidth();
-        int height = mBitmap.getHeight();
-        int[] intValues = new int[width * height];
-        for (int j = 0; j < width; j++) {
-            for (int k = 0; k < height; k++) {
-                int maxi = 0, maxj = 0, maxk = 0;
-                double maxnum = -Double.MAX_VALUE;
-                for (int i = 0; i < CLASSNUM; i++) {
-                    if (scores[i * (width * height) + j * width + k] > maxnum) {
-                        maxnum = scores[i * (width * height) + j * width + k];
-                        maxi = i; maxj = j; maxk = k;
-                    }
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.main, menu);
+        menu.findItem(R.id.contourOverlay).setChecked(mContourOverlay);
+        menu.findItem(R.id.tiledMaskViewer).setChecked(mTiledMaskViewer);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        // display options apply from the next result, segmenting again redraws it from the cache
+        if (item.getItemId() == R.id.contourOverlay) {
+            mContourOverlay = !item.isChecked();
+            item.setChecked(mContourOverlay);
+            return true;
+        }
+        if (item.getItemId() == R.id.tiledMaskViewer) {
+            mTiledMaskViewer = !item.isChecked();
+            item.setChecked(mTiledMaskViewer);
+            return true;
+        }
+        if (item.getItemId() == R.id.segmentBatch) {
+            // runs on the worker like any segmentation, the model is not used from two threads
+            if (mWorker.submit(BATCH_JOB_KEY, new SegmentationWorker.Job() {
+                @Override
+                public void run(CancellationSignal cancellationSignal) {
+                    segmentBatch(cancellationSignal);
                 }
-                if (maxi == PERSON)
-                    intValues[maxj * width + maxk] = 0xFFFF0000;
-                else if (maxi == DOG)
-                    intValues[maxj * width + maxk] = 0xFF00FF00;
-                else if (maxi == SHEEP)
-                    intValues[maxj * width + maxk] = 0xFF0000FF;
-                else
-                    intValues[maxj * width + maxk] = 0xFF000000;
+            })) {
+                mButtonSegment.setEnabled(false);
+                mProgressBar.setVisibility(ProgressBar.VISIBLE);
+                mButtonSegment.setText(getString(R.string.run_batch));
             }
+            return true;
         }
+        return super.onOptionsItemSelected(item);
+    }
 
-        Bitmap bmpSegmentation = Bitmap.createScaledBitmap(mBitmap, width, height, true);
-        Bitmap outputBitmap = bmpSegmentation.copy(bmpSegmentation.getConfig(), true);
-        outputBitmap.setPixels(intValues, 0, outputBitmap.getWidth(), 0, 0, outputBitmap.getWidth(), outputBitmap.getHeight());
-        final Bitmap transferredBitmap = Bitmap.createScaledBitmap(outputBitmap, mBitmap.getWidth(), mBitmap.getHeight(), true);
+    private boolean hasAsset(String assetName) throws IOException {
+        final String[] assets = getAssets().list("");
+        if (assets != null) {
+            for (String asset : assets) {
+                if (asset.equals(assetName))
+                    return true;
+            }
+        }
+        return false;
+    }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        final TiledSegmenter tiledSegmenter = mTiledSegmenter;
+        final SegmentationModel model = mModel;
+        // the running job may still be in forward, so the worker releases the model once it stops
+        mWorker.quit(new Runnable() {
+            @Override
+            public void run() {
+                if (tiledSegmenter != null) {
+                    tiledSegmenter.close();
+                }
+                if (model != null) {
+                    model.destroy();
+                }
+            }
+        });
+    }
+
+    private void setSegmentIdleState() {
+        mButtonSegment.setEnabled(true);
+        mButtonSegment.setText(getString(R.string.segment));
+        mProgressBar.setVisibility(ProgressBar.INVISIBLE);
+    }
+
+    @WorkerThread
+    private void segment(final Bitmap bitmap, final CancellationSignal cancellationSignal) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (mLabels.length < width * height) {
+            mLabels = new byte[width * height];
+        }
+        try {
+            final long startTime = SystemClock.elapsedRealtime();
+            final SegmentationResultCache.Key key = mResultCache.key(bitmap);
+            final RleMask cached = mResultCache.get(key);
+            if (cached != null) {
+                Log.i("ImageSegmentation", "Cached result in "
+                        + (SystemClock.elapsedRealtime() - startTime) + " ms");
+                if (mTiledMaskViewer) {
+                    publishMask(cached, cancellationSignal);
+                } else {
+                    cached.decode(mLabels);
+                    publish(finalDrawable(bitmap, mLabels), cancellationSignal, true);
+                }
+                return;
+            }
+            if (mProgressiveSegmenter != null) {
+                mProgressiveSegmenter.segment(bitmap, mLabels, cancellationSignal,
+                        new ProgressiveSegmenter.Listener() {
+                            @Override
+                            public void onLabels(byte[] labels, int width, int height, boolean isFinal) {
+                                cancellationSignal.throwIfCanceled();
+                                if (isFinal) {
+                                    final RleMask mask = mResultCache.put(key, labels, width, height);
+                                    logComponents(labels, width, height);
+                                    publishFinal(bitmap, labels, mask, cancellationSignal);
+                                } else {
+                                    publish(new BitmapDrawable(getResources(),
+                                            mRenderer.render(labels, width, height, mColorMap)),
+                                            cancellationSignal, false);
+                                }
+                            }
+                        });
+                return;
+            }
+            if (mReducedResolutionSegmenter != null) {
+                mReducedResolutionSegmenter.segment(bitmap, mLabels, cancellationSignal);
+            } else {
+                mTiledSegmenter.segment(bitmap, mLabels, cancellationSignal);
+            }
+            cancellationSignal.throwIfCanceled();
+            final RleMask mask = mResultCache.put(key, mLabels, width, height);
+            logComponents(mLabels, width, height);
+            publishFinal(bitmap, mLabels, mask, cancellationSignal);
+        } catch (InterruptedException e) {
+            Log.e("ImageSegmentation", "Segmentation interrupted", e);
+            Thread.currentThread().interrupt();
+            publish(null, cancellationSignal, true);
+        }
+    }
+
+    /**
+     * Decodes the asset into the bitmap cache and, with {@code SPECULATIVE_SEGMENT}, segments it
+     * into the result cache, so picking it next costs neither decode nor forward.
+     */
+    @WorkerThread
+    private void speculate(String assetName, CancellationSignal cancellationSignal) {
+        try {
+            final Bitmap bitmap = mBitmapLoader.load(assetName, DECODE_SHORT_SIDE);
+            cancellationSignal.throwIfCanceled();
+            if (!SPECULATIVE_SEGMENT) {
+                return;
+            }
+            final SegmentationResultCache.Key key = mResultCache.key(bitmap);
+            if (mResultCache.contains(key)) {
+                return;
+            }
+            final int width = bitmap.getWidth();
+            final int height = bitmap.getHeight();
+            if (mSpeculativeLabels.length < width * height) {
+                mSpeculativeLabels = new byte[width * height];
+            }
+            if (mReducedResolutionSegmenter != null) {
+                mReducedResolutionSegmenter.segment(bitmap, mSpeculativeLabels, cancellationSignal);
+            } else {
+                mTiledSegmenter.segment(bitmap, mSpeculativeLabels, cancellationSignal);
+            }
+            cancellationSignal.throwIfCanceled();
+            mResultCache.put(key, mSpeculativeLabels, width, height);
+            Log.i("ImageSegmentation", "Speculatively segmented " + assetName);
+        } catch (InterruptedException e) {
+            Log.e("ImageSegmentation", "Speculative segmentation interrupted", e);
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            Log.e("ImageSegmentation", "Error reading assets", e);
+        }
+    }
+
+    private void scheduleSpeculation() {
+        final String nextImagename = mImagename == "deeplab.jpg" ? "dog.jpg" : "deeplab.jpg";
+        mWorker.submitSpeculative(nextImagename, new SegmentationWorker.Job() {
+            @Override
+            public void run(CancellationSignal cancellationSignal) {
+                speculate(nextImagename, cancellationSignal);
+            }
+        });
+    }
+
+    /**
+     * Segments every image in the external {@code batch_input} folder into {@code batch_output}
+     * and reports the throughput in a toast.
+     */
+    @WorkerThread
+    private void segmentBatch(final CancellationSignal cancellationSignal) {
+        String message;
+        try {
+            final File[] inputs = listBatchInputs();
+            if (inputs.length == 0) {
+                Log.w("ImageSegmentation", "No images to segment in batch_input");
+                message = getString(R.string.batch_empty);
+            } else {
+                final BatchSegmenter batchSegmenter =
+                        new BatchSegmenter(mModel, BATCH_INPUT_SIZE, BATCH_QUEUE_CAPACITY);
+                final BatchPipeline.Report report =
+                        batchSegmenter.run(inputs, getExternalFilesDir("batch_output"), cancellationSignal);
+                Log.i("ImageSegmentation", "Batch: " + report);
+                message = getString(R.string.batch_done, report.items, report.itemsPerSecond());
+            }
+        } catch (InterruptedException e) {
+            Log.e("ImageSegmentation", "Batch segmentation interrupted", e);
+            Thread.currentThread().interrupt();
+            message = getString(R.string.batch_failed);
+        } catch (ExecutionException e) {
+            Log.e("ImageSegmentation", "Batch segmentation failed", e.getCause());
+            message = getString(R.string.batch_failed);
+        }
+        final String text = message;
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (cancellationSignal.isCanceled())
+                    return;
+                Toast.makeText(MainActivity.this, text, Toast.LENGTH_LONG).show();
+                setSegmentIdleState();
+            }
+        });
+    }
+
+    private File[] listBatchInputs() {
+        final File inputDir = getExternalFilesDir("batch_input");
+        final File[] inputs = inputDir != null ? inputDir.listFiles() : null;
+        return inputs != null ? inputs : new File[0];
+    }
+
+    private Drawable finalDrawable(Bitmap bitmap, byte[] labels) {
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        if (!mContourOverlay) {
+            return new BitmapDrawable(getResources(), mRenderer.render(labels, width, height, mColorMap));
+        }
+        final List<ContourExtractor.Contour> contours =
+                mContourExtractor.extract(labels, width, height, BACKGROUND);
+        final MaskOverlayDrawable overlay =
+                new MaskOverlayDrawable(contours, width, height, mColorMap, CONTOUR_OVERLAY_ALPHA);
+        return new LayerDrawable(new Drawable[]{new BitmapDrawable(getResources(), bitmap), overlay});
+    }
+
+
+    /**
+     * Logs person and dog counts and areas of a final mask, only when debug logging is enabled
+     * with {@code adb shell setprop log.tag.ImageSegmentation DEBUG}, labeling is skipped otherwise.
+     */
+    private void logComponents(byte[] labels, int width, int height) {
+        if (!Log.isLoggable("ImageSegmentation", Log.DEBUG)) {
+            return;
+        }
+        final ConnectedComponents.Result components = mComponents.label(labels, width, height, BACKGROUND);
+        Log.d("ImageSegmentation", components.countOfClass(PERSON) + " person(s), "
+                + components.countOfClass(DOG) + " dog(s), person area " + components.classAreas[PERSON]
+                + " px, dog area " + components.classAreas[DOG] + " px");
+    }
+
+    private void publishFinal(Bitmap bitmap, byte[] labels, RleMask mask,
+                              CancellationSignal cancellationSignal) {
+        if (mTiledMaskViewer) {
+            publishMask(mask, cancellationSignal);
+        } else {
+            publish(finalDrawable(bitmap, labels), cancellationSignal, true);
+        }
+    }
+
+    private void publishMask(final RleMask mask, final CancellationSignal cancellationSignal) {
         runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                mImageView.setImageBitmap(transferredBitmap);
-                mButtonSegment.setEnabled(true);
-                mButtonSegment.setText(getString(R.string.segment));
-                mProgressBar.setVisibility(ProgressBar.INVISIBLE);
+                if (cancellationSignal.isCanceled())
+                    return;
+                mMaskView.setMask(mask, mColorMap);
+                mMaskView.setVisibility(View.VISIBLE);
+                setSegmentIdleState();
+                if (SPECULATIVE)
+                    scheduleSpeculation();
+            }
+        });
+    }
 
+    private void publish(final Drawable segmentedDrawable, final CancellationSignal cancellationSignal,
+                         final boolean isFinal) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                // a newer image or run took over while this result was posted
+                if (cancellationSignal.isCanceled())
+                    return;
+                if (segmentedDrawable instanceof BitmapDrawable)
+                    // the next render must not write into the bitmap going on screen
+                    mRenderer.markShown(((BitmapDrawable) segmentedDrawable).getBitmap());
+                if (segmentedDrawable != null) {
+                    mImageView.setImageDrawable(segmentedDrawable);
+                    // a mask of an earlier run in the zoomable view would cover it
+                    mMaskView.setVisibility(View.GONE);
+                }
+                if (isFinal)
+                    setSegmentIdleState();
+                if (isFinal && segmentedDrawable != null && SPECULATIVE)
+                    scheduleSpeculation();
             }
         });
     }
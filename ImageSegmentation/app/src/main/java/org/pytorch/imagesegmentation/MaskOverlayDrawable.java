@@ -0,0 +1,98 @@
+package org.pytorch.imagesegmentation;
+
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+
+import java.util.List;
+
+/**
+ * Draws segmentation contours as filled paths scaled to the drawable bounds.
+ *
+ * One {@link Path} per class is built once from the polygons, drawing is then independent of the
+ * label map size and stays sharp at any zoom, without a full size ARGB bitmap. Holes are kept
+ * by the even-odd fill rule.
+ */
+public class MaskOverlayDrawable extends Drawable {
+    private final int mMaskWidth;
+    private final int mMaskHeight;
+    private final Path[] mPaths;
+    private final int[] mColors;
+    private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private int mAlpha;
+
+    public MaskOverlayDrawable(List<ContourExtractor.Contour> contours, int maskWidth, int maskHeight,
+                               LabelColorMap colorMap, int alpha) {
+        mMaskWidth = maskWidth;
+        mMaskHeight = maskHeight;
+        mAlpha = alpha;
+        mPaths = new Path[colorMap.size()];
+        mColors = new int[colorMap.size()];
+        for (ContourExtractor.Contour contour : contours) {
+            if (contour.label >= mPaths.length || contour.pointCount < 3) {
+                continue;
+            }
+            Path path = mPaths[contour.label];
+            if (path == null) {
+                path = new Path();
+                path.setFillType(Path.FillType.EVEN_ODD);
+                mPaths[contour.label] = path;
+                mColors[contour.label] = colorMap.getColor(contour.label);
+            }
+            final float[] points = contour.points;
+            path.moveTo(points[0], points[1]);
+            for (int i = 1; i < contour.pointCount; i++) {
+                path.lineTo(points[2 * i], points[2 * i + 1]);
+            }
+            path.close();
+        }
+        mPaint.setStyle(Paint.Style.FILL);
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        final Rect bounds = getBounds();
+        final int saveCount = canvas.save();
+        canvas.translate(bounds.left, bounds.top);
+        canvas.scale((float) bounds.width() / mMaskWidth, (float) bounds.height() / mMaskHeight);
+        for (int label = 0; label < mPaths.length; label++) {
+            if (mPaths[label] != null) {
+                mPaint.setColor(mColors[label]);
+                mPaint.setAlpha(mAlpha);
+                canvas.drawPath(mPaths[label], mPaint);
+            }
+        }
+        canvas.restoreToCount(saveCount);
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return mMaskWidth;
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return mMaskHeight;
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        mAlpha = alpha;
+        invalidateSelf();
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter colorFilter) {
+        mPaint.setColorFilter(colorFilter);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+}
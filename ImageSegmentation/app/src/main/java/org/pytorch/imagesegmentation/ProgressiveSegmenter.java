@@ -0,0 +1,137 @@
+package org.pytorch.imagesegmentation;
+
+import android.graphics.Bitmap;
+import android.os.CancellationSignal;
+import android.os.SystemClock;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Publishes a quick low resolution mask first and the full resolution mask when it is ready.
+ *
+ * The coarse pass runs once the fine pass has preprocessed its first tile. When that tile covers
+ * the whole image the coarse input is area averaged from it, so the image is only converted once;
+ * otherwise it is converted from the bitmap while the second tile is preprocessed. Either way it
+ * delays the final mask by its own run time, which is kept within
+ * {@code 1 / MAX_COARSE_LATENCY_FRACTION} of the expected fine pass latency, estimated from the
+ * last fine pass scaled by pixel count.
+ *
+ * The coarse short side is at most the configured one and never more than
+ * {@code 1 / sqrt(MAX_COARSE_PIXEL_FRACTION)} of the image short side, so small images get a
+ * smaller coarse pass rather than none; below {@code MIN_COARSE_SHORT_SIDE} it is skipped. When a
+ * coarse pass overshoots its budget the next one shrinks by the square root of the overshoot, and
+ * when one takes less than half the budget the next one grows back. After
+ * {@code MAX_COARSE_OVERSHOOTS} consecutive overshoots at the smallest size the coarse pass is
+ * skipped for {@code COARSE_BACKOFF_RUNS} images and then tried again, so a device that was only
+ * busy for a while gets it back. Both passes write into the same label buffer, the fine pass only
+ * after the coarse mask has been published, so the coarse mask is replaced in place by the fine one.
+ */
+public class ProgressiveSegmenter {
+    private static final int MAX_COARSE_PIXEL_FRACTION = 8;
+    private static final int MAX_COARSE_LATENCY_FRACTION = 4;
+    private static final int MIN_COARSE_SHORT_SIDE = 64;
+    private static final int MAX_COARSE_OVERSHOOTS = 3;
+    private static final int COARSE_BACKOFF_RUNS = 8;
+
+    public interface Listener {
+        void onLabels(byte[] labels, int width, int height, boolean isFinal);
+    }
+
+    private final ReducedResolutionSegmenter mCoarseSegmenter;
+    private final TiledSegmenter mFineSegmenter;
+    private final int mMaxCoarseShortSide;
+    private int mCoarseShortSide;
+    private int mOvershoots;
+    private int mSkipRuns;
+    private long mCoarseMs;
+    private long mFineMs;
+    private long mFinePixels;
+
+    public ProgressiveSegmenter(SegmentationModel model, TiledSegmenter fineSegmenter,
+                                int maxCoarseShortSide) {
+        mCoarseSegmenter = new ReducedResolutionSegmenter(model, maxCoarseShortSide,
+                ReducedResolutionSegmenter.UPSAMPLE_NEAREST);
+        mFineSegmenter = fineSegmenter;
+        mMaxCoarseShortSide = maxCoarseShortSide;
+        mCoarseShortSide = maxCoarseShortSide;
+    }
+
+    public void segment(final Bitmap bitmap, final byte[] outLabels,
+                        final CancellationSignal cancellationSignal, final Listener listener)
+            throws InterruptedException {
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        final int coarseShortSide = Math.min(mCoarseShortSide,
+                (int) (Math.min(width, height) / Math.sqrt(MAX_COARSE_PIXEL_FRACTION)));
+        final long startTime = SystemClock.elapsedRealtime();
+        if (mSkipRuns > 0 || coarseShortSide < MIN_COARSE_SHORT_SIDE) {
+            if (mSkipRuns > 0) {
+                mSkipRuns--;
+            }
+            mFineSegmenter.segment(bitmap, outLabels, cancellationSignal);
+            recordFine(SystemClock.elapsedRealtime() - startTime, width, height);
+            listener.onLabels(outLabels, width, height, true);
+            return;
+        }
+
+        final long budgetMs = expectedFineMs(width, height) / MAX_COARSE_LATENCY_FRACTION;
+        mCoarseMs = -1;
+        mCoarseSegmenter.setTargetShortSide(coarseShortSide);
+        mFineSegmenter.segment(bitmap, outLabels, cancellationSignal,
+                new TiledSegmenter.FirstTileListener() {
+                    @Override
+                    public void onFirstTile(FloatBuffer input, int tileWidth, int tileHeight,
+                                            int tileCount) {
+                        final long coarseStartTime = SystemClock.elapsedRealtime();
+                        if (tileCount == 1) {
+                            mCoarseSegmenter.segment(input, width, height, outLabels, cancellationSignal);
+                        } else {
+                            mCoarseSegmenter.segment(bitmap, outLabels, cancellationSignal);
+                        }
+                        listener.onLabels(outLabels, width, height, false);
+                        mCoarseMs = SystemClock.elapsedRealtime() - coarseStartTime;
+                    }
+                });
+        final long totalMs = SystemClock.elapsedRealtime() - startTime;
+        if (mCoarseMs >= 0) {
+            recordFine(totalMs - mCoarseMs, width, height);
+            if (budgetMs > 0) {
+                adaptCoarseShortSide(coarseShortSide, mCoarseMs, budgetMs);
+            }
+        }
+        listener.onLabels(outLabels, width, height, true);
+    }
+
+    private void recordFine(long elapsedMs, int width, int height) {
+        mFineMs = elapsedMs;
+        mFinePixels = (long) width * height;
+    }
+
+    /** Last fine pass latency scaled to the pixels of this image, 0 before the first one. */
+    private long expectedFineMs(int width, int height) {
+        if (mFinePixels == 0) {
+            return 0;
+        }
+        return mFineMs * width * height / mFinePixels;
+    }
+
+    private void adaptCoarseShortSide(int shortSide, long elapsedMs, long budgetMs) {
+        if (elapsedMs <= budgetMs) {
+            mOvershoots = 0;
+            if (elapsedMs < budgetMs / 2) {
+                final int grown = (int) (shortSide * Math.sqrt((double) budgetMs / Math.max(1, elapsedMs) / 2));
+                mCoarseShortSide = Math.min(mMaxCoarseShortSide, Math.max(mCoarseShortSide, grown));
+            }
+            return;
+        }
+        if (shortSide <= MIN_COARSE_SHORT_SIDE) {
+            if (++mOvershoots >= MAX_COARSE_OVERSHOOTS) {
+                mOvershoots = 0;
+                mSkipRuns = COARSE_BACKOFF_RUNS;
+            }
+            return;
+        }
+        mCoarseShortSide = Math.max(MIN_COARSE_SHORT_SIDE,
+                (int) (shortSide * Math.sqrt((double) budgetMs / elapsedMs)));
+    }
+}
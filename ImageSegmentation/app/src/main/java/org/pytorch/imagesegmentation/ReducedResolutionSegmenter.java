@@ -0,0 +1,255 @@
+package org.pytorch.imagesegmentation;
+
+import android.graphics.Bitmap;
+import android.os.CancellationSignal;
+
+import org.pytorch.Tensor;
+import org.pytorch.torchvision.TensorImageUtils;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Segments a downscaled copy of the image and upsamples the result back to the image size.
+ *
+ * The image is scaled so that its short side equals the target and letterboxed into the
+ * top-left corner of a canvas whose long side is rounded up to a multiple of
+ * {@link #CANVAS_ALIGNMENT}, padding is zero, the normalized ImageNet mean color. Scaling happens
+ * while converting to the input tensor, no scaled copy of the bitmap is made. An image that is
+ * already normalized into a tensor, such as the single tile of a full resolution pass, is area
+ * averaged from that tensor instead of converting the bitmap again. Labels are brought back
+ * either by nearest neighbour on the label map or, for models that
+ * return logits, by bilinear interpolation of the logits followed by argmax, which gives smoother
+ * class boundaries at the cost of one pass over all class planes per output pixel.
+ */
+public class ReducedResolutionSegmenter {
+    public static final int UPSAMPLE_NEAREST = 0;
+    public static final int UPSAMPLE_BILINEAR_LOGITS = 1;
+
+    private static final int CANVAS_ALIGNMENT = 8;
+
+    private final SegmentationModel mModel;
+    private volatile int mTargetShortSide;
+    private final int mUpsampleMode;
+    private final BitmapTensorConverter mConverter = new BitmapTensorConverter(
+            TensorImageUtils.TORCHVISION_NORM_MEAN_RGB, TensorImageUtils.TORCHVISION_NORM_STD_RGB);
+
+    private int mCanvasWidth;
+    private int mCanvasHeight;
+    private FloatBuffer mInputBuffer;
+    private Tensor mInputTensor;
+    private byte[] mCanvasLabels = new byte[0];
+    private int[] mXIndex = new int[0];
+    private float[] mXWeight = new float[0];
+    private float[] mRowSums = new float[0];
+
+    public ReducedResolutionSegmenter(SegmentationModel model, int targetShortSide, int upsampleMode) {
+        mModel = model;
+        mTargetShortSide = targetShortSide;
+        mUpsampleMode = upsampleMode;
+    }
+
+    public int getTargetShortSide() {
+        return mTargetShortSide;
+    }
+
+    public void setTargetShortSide(int targetShortSide) {
+        mTargetShortSide = targetShortSide;
+    }
+
+    /**
+     * Writes labels of the whole {@code bitmap} into {@code outLabels}, row stride is its width.
+     * Cancellation is checked between preprocessing, forward and upsampling.
+     */
+    public void segment(Bitmap bitmap, byte[] outLabels, CancellationSignal cancellationSignal) {
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        if (outLabels.length < width * height) {
+            throw new IllegalArgumentException("Labels buffer is smaller than height * width");
+        }
+        final float scale = Math.min(1.f, (float) mTargetShortSide / Math.min(width, height));
+        final int scaledWidth = Math.max(1, Math.round(width * scale));
+        final int scaledHeight = Math.max(1, Math.round(height * scale));
+        ensureCanvas(align(scaledWidth), align(scaledHeight));
+
+        mConverter.convertLetterboxed(bitmap, scaledWidth, scaledHeight, mCanvasWidth, mCanvasHeight,
+                mInputBuffer, 0);
+        cancellationSignal.throwIfCanceled();
+        forwardAndUpsample(scaledWidth, scaledHeight, outLabels, width, height, cancellationSignal);
+    }
+
+    /**
+     * Like {@link #segment(Bitmap, byte[], CancellationSignal)} for an image already normalized
+     * into {@code input}, 1 x 3 x height x width tensor data that is read but not changed.
+     */
+    public void segment(FloatBuffer input, int width, int height, byte[] outLabels,
+                        CancellationSignal cancellationSignal) {
+        if (outLabels.length < width * height) {
+            throw new IllegalArgumentException("Labels buffer is smaller than height * width");
+        }
+        if (input.capacity() < 3 * width * height) {
+            throw new IllegalArgumentException("Input buffer is smaller than 3 * height * width");
+        }
+        final float scale = Math.min(1.f, (float) mTargetShortSide / Math.min(width, height));
+        final int scaledWidth = Math.max(1, Math.round(width * scale));
+        final int scaledHeight = Math.max(1, Math.round(height * scale));
+        ensureCanvas(align(scaledWidth), align(scaledHeight));
+
+        if (mRowSums.length < scaledWidth) {
+            mRowSums = new float[scaledWidth];
+        }
+        areaDownsample(input, width, height, mInputBuffer, scaledWidth, scaledHeight,
+                mCanvasWidth, mCanvasHeight, mRowSums);
+        cancellationSignal.throwIfCanceled();
+        forwardAndUpsample(scaledWidth, scaledHeight, outLabels, width, height, cancellationSignal);
+    }
+
+    private void forwardAndUpsample(int scaledWidth, int scaledHeight, byte[] outLabels,
+                                    int width, int height, CancellationSignal cancellationSignal) {
+        final int canvasWidth = mCanvasWidth;
+        final int canvasHeight = mCanvasHeight;
+        if (mUpsampleMode == UPSAMPLE_BILINEAR_LOGITS) {
+            final float[] logits = mModel.forwardLogits(mInputTensor, canvasWidth, canvasHeight, mCanvasLabels);
+            cancellationSignal.throwIfCanceled();
+            if (logits != null) {
+                upsampleLogits(logits, mModel.getClassCount(), canvasWidth, canvasHeight,
+                        scaledWidth, scaledHeight, outLabels, width, height);
+                return;
+            }
+        } else {
+            mModel.segment(mInputTensor, canvasWidth, canvasHeight, mCanvasLabels);
+            cancellationSignal.throwIfCanceled();
+        }
+        upsampleNearest(mCanvasLabels, canvasWidth, scaledWidth, scaledHeight, outLabels, width, height);
+    }
+
+    /**
+     * Averages every channel of {@code src} over the source pixels each output pixel covers, whole
+     * pixels only, into the top-left corner of the {@code canvasWidth x canvasHeight} planes of
+     * {@code dst}. The rest of the canvas is zero, the normalized mean color the converter pads
+     * with. {@code rowSums} holds at least {@code dstWidth} floats.
+     */
+    static void areaDownsample(FloatBuffer src, int srcWidth, int srcHeight, FloatBuffer dst,
+                               int dstWidth, int dstHeight, int canvasWidth, int canvasHeight,
+                               float[] rowSums) {
+        final int srcPlane = srcWidth * srcHeight;
+        final int dstPlane = canvasWidth * canvasHeight;
+        for (int c = 0; c < 3; c++) {
+            for (int y = 0; y < canvasHeight; y++) {
+                final int dstRow = c * dstPlane + y * canvasWidth;
+                if (y >= dstHeight) {
+                    for (int x = 0; x < canvasWidth; x++) {
+                        dst.put(dstRow + x, 0.f);
+                    }
+                    continue;
+                }
+                final int sy0 = (int) ((long) y * srcHeight / dstHeight);
+                final int sy1 = Math.max(sy0 + 1, (int) ((long) (y + 1) * srcHeight / dstHeight));
+                for (int x = 0; x < dstWidth; x++) {
+                    rowSums[x] = 0.f;
+                }
+                for (int sy = sy0; sy < sy1; sy++) {
+                    final int srcRow = c * srcPlane + sy * srcWidth;
+                    for (int x = 0; x < dstWidth; x++) {
+                        final int sx0 = (int) ((long) x * srcWidth / dstWidth);
+                        final int sx1 = Math.max(sx0 + 1, (int) ((long) (x + 1) * srcWidth / dstWidth));
+                        float sum = 0.f;
+                        for (int sx = sx0; sx < sx1; sx++) {
+                            sum += src.get(srcRow + sx);
+                        }
+                        rowSums[x] += sum / (sx1 - sx0);
+                    }
+                }
+                for (int x = 0; x < dstWidth; x++) {
+                    dst.put(dstRow + x, rowSums[x] / (sy1 - sy0));
+                }
+                for (int x = dstWidth; x < canvasWidth; x++) {
+                    dst.put(dstRow + x, 0.f);
+                }
+            }
+        }
+    }
+
+    private static int align(int size) {
+        return (size + CANVAS_ALIGNMENT - 1) / CANVAS_ALIGNMENT * CANVAS_ALIGNMENT;
+    }
+
+    private void ensureCanvas(int canvasWidth, int canvasHeight) {
+        if (mInputBuffer != null && mCanvasWidth == canvasWidth && mCanvasHeight == canvasHeight) {
+            return;
+        }
+        mCanvasWidth = canvasWidth;
+        mCanvasHeight = canvasHeight;
+        mInputBuffer = Tensor.allocateFloatBuffer(3 * canvasWidth * canvasHeight);
+        mInputTensor = Tensor.fromBlob(mInputBuffer, new long[]{1, 3, canvasHeight, canvasWidth});
+        mCanvasLabels = new byte[canvasWidth * canvasHeight];
+    }
+
+    private void upsampleNearest(byte[] src, int srcStride, int srcWidth, int srcHeight,
+                                 byte[] dst, int dstWidth, int dstHeight) {
+        if (mXIndex.length < dstWidth) {
+            mXIndex = new int[dstWidth];
+        }
+        final int[] xIndex = mXIndex;
+        for (int x = 0; x < dstWidth; x++) {
+            xIndex[x] = Math.min(srcWidth - 1, (int) ((long) x * srcWidth / dstWidth));
+        }
+        for (int y = 0; y < dstHeight; y++) {
+            final int srcRow = Math.min(srcHeight - 1, (int) ((long) y * srcHeight / dstHeight)) * srcStride;
+            final int dstRow = y * dstWidth;
+            for (int x = 0; x < dstWidth; x++) {
+                dst[dstRow + x] = src[srcRow + xIndex[x]];
+            }
+        }
+    }
+
+    /**
+     * Interpolates every class plane at pixel centers (half-pixel aligned) and takes the argmax.
+     */
+    private void upsampleLogits(float[] logits, int classCount, int srcStride, int srcPlaneHeight,
+                                int srcWidth, int srcHeight, byte[] dst, int dstWidth, int dstHeight) {
+        if (mXIndex.length < dstWidth) {
+            mXIndex = new int[dstWidth];
+        }
+        if (mXWeight.length < dstWidth) {
+            mXWeight = new float[dstWidth];
+        }
+        final int[] x0s = mXIndex;
+        final float[] wxs = mXWeight;
+        final float xScale = (float) srcWidth / dstWidth;
+        for (int x = 0; x < dstWidth; x++) {
+            final float sx = Math.max(0.f, (x + 0.5f) * xScale - 0.5f);
+            final int x0 = Math.min(srcWidth - 1, (int) sx);
+            x0s[x] = x0;
+            wxs[x] = x0 + 1 < srcWidth ? sx - x0 : 0.f;
+        }
+        final int plane = srcStride * srcPlaneHeight;
+        final float yScale = (float) srcHeight / dstHeight;
+        for (int y = 0; y < dstHeight; y++) {
+            final float sy = Math.max(0.f, (y + 0.5f) * yScale - 0.5f);
+            final int y0 = Math.min(srcHeight - 1, (int) sy);
+            final float wy = y0 + 1 < srcHeight ? sy - y0 : 0.f;
+            final int row0 = y0 * srcStride;
+            final int row1 = wy > 0.f ? row0 + srcStride : row0;
+            final int dstRow = y * dstWidth;
+            for (int x = 0; x < dstWidth; x++) {
+                final int x0 = x0s[x];
+                final float wx = wxs[x];
+                final int x1 = wx > 0.f ? x0 + 1 : x0;
+                float max = Float.NEGATIVE_INFINITY;
+                int label = 0;
+                for (int c = 0, offset = 0; c < classCount; c++, offset += plane) {
+                    final float top = logits[offset + row0 + x0]
+                            + wx * (logits[offset + row0 + x1] - logits[offset + row0 + x0]);
+                    final float bottom = logits[offset + row1 + x0]
+                            + wx * (logits[offset + row1 + x1] - logits[offset + row1 + x0]);
+                    final float v = top + wy * (bottom - top);
+                    if (v > max) {
+                        max = v;
+                        label = c;
+                    }
+                }
+                dst[dstRow + x] = (byte) label;
+            }
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package org.pytorch.imagesegmentation;
+
+import java.util.Arrays;
+
+/**
+ * Run-length encoded label map.
+ *
+ * Every row is a sequence of runs of one label, stored as the exclusive end x of the run and its
+ * label in two parallel arrays, rows are found through a {@code height + 1} offset table. Runs
+ * never span rows, so a mask is filled one row at a time with {@link #appendRow} straight from
+ * the argmax stage and decoded one row at a time into a Bitmap row buffer. Mostly-background
+ * DeepLab masks take a few kilobytes instead of {@code width * height} bytes, small enough to
+ * cache and compare across frames. Buffers only grow, a mask can be refilled without allocating.
+ */
+public class RleMask {
+    /** Label of pixels inside the result of {@link #union} and {@link #intersection}. */
+    public static final int FOREGROUND = 1;
+
+    private int mWidth;
+    private int mHeight;
+    private int mRowCount;
+    private int mRunCount;
+    private int[] mRowStarts = new int[1];
+    private int[] mRunEnds = new int[0];
+    private byte[] mRunLabels = new byte[0];
+    private final long[] mClassAreas = new long[256];
+
+    public RleMask() {
+    }
+
+    public RleMask(int width, int height) {
+        reset(width, height);
+    }
+
+    /** Empties the mask and starts a new one of the given size, rows are appended from the top. */
+    public void reset(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Mask size must be positive");
+        }
+        mWidth = width;
+        mHeight = height;
+        mRowCount = 0;
+        mRunCount = 0;
+        if (mRowStarts.length < height + 1) {
+            mRowStarts = new int[height + 1];
+        }
+        mRowStarts[0] = 0;
+        Arrays.fill(mClassAreas, 0);
+    }
+
+    /** Appends the next row from {@code width} labels starting at {@code offset}. */
+    public void appendRow(byte[] labels, int offset) {
+        if (mRowCount == mHeight) {
+            throw new IllegalStateException("Mask already has " + mHeight + " rows");
+        }
+        final int width = mWidth;
+        byte current = labels[offset];
+        for (int x = 1; x < width; x++) {
+            final byte label = labels[offset + x];
+            if (label != current) {
+                addRun(x, current);
+                current = label;
+            }
+        }
+        addRun(width, current);
+        mRowStarts[++mRowCount] = mRunCount;
+    }
+
+    /** Encodes a whole byte-per-pixel label map with row stride {@code width}. */
+    public void encode(byte[] labels, int width, int height) {
+        if (labels.length < width * height) {
+            throw new IllegalArgumentException("Labels buffer is smaller than height * width");
+        }
+        reset(width, height);
+        for (int y = 0; y < height; y++) {
+            appendRow(labels, y * width);
+        }
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /** True once all {@code height} rows are appended. */
+    public boolean isComplete() {
+        return mRowCount == mHeight;
+    }
+
+    public int getRunCount() {
+        return mRunCount;
+    }
+
+    /** Bytes used by the runs and row table, to compare with {@code width * height}. */
+    public long sizeInBytes() {
+        return (long) mRunCount * 5 + (long) (mRowCount + 1) * 4;
+    }
+
+    /** Pixels with the given label among the rows appended so far. */
+    public long area(int label) {
+        return mClassAreas[label & 0xFF];
+    }
+
+    public boolean contains(int label) {
+        return mClassAreas[label & 0xFF] > 0;
+    }
+
+    public int labelAt(int x, int y) {
+        checkRow(y);
+        return mRunLabels[runAt(y, x)] & 0xFF;
+    }
+
+    /**
+     * Writes the bounding box of a label as {left, top, right, bottom}, right and bottom
+     * exclusive.
+     *
+     * @return false if the label has no pixels, {@code outBounds} is then left unchanged
+     */
+    public boolean bounds(int label, int[] outBounds) {
+        if (!contains(label)) {
+            return false;
+        }
+        final byte target = (byte) label;
+        int left = mWidth;
+        int top = -1;
+        int right = 0;
+        int bottom = 0;
+        for (int y = 0; y < mRowCount; y++) {
+            int start = 0;
+            for (int r = mRowStarts[y], end = mRowStarts[y + 1]; r < end; r++) {
+                if (mRunLabels[r] == target) {
+                    left = Math.min(left, start);
+                    right = Math.max(right, mRunEnds[r]);
+                    if (top < 0) {
+                        top = y;
+                    }
+                    bottom = y + 1;
+                }
+                start = mRunEnds[r];
+            }
+        }
+        outBounds[0] = left;
+        outBounds[1] = top;
+        outBounds[2] = right;
+        outBounds[3] = bottom;
+        return true;
+    }
+
+    /** Decodes the whole mask into a byte-per-pixel label map with row stride {@code width}. */
+    public void decode(byte[] outLabels) {
+        if (outLabels.length < mWidth * mHeight) {
+            throw new IllegalArgumentException("Labels buffer is smaller than height * width");
+        }
+        for (int y = 0; y < mRowCount; y++) {
+            decodeRow(y, outLabels, y * mWidth);
+        }
+    }
+
+    /** Decodes row {@code y} into {@code width} labels starting at {@code offset}. */
+    public void decodeRow(int y, byte[] outLabels, int offset) {
+        checkRow(y);
+        int start = 0;
+        for (int r = mRowStarts[y], end = mRowStarts[y + 1]; r < end; r++) {
+            Arrays.fill(outLabels, offset + start, offset + mRunEnds[r], mRunLabels[r]);
+            start = mRunEnds[r];
+        }
+    }
+
+    /** Decodes row {@code y} as colors, ready for {@link android.graphics.Bitmap#setPixels}. */
+    public void decodeRow(int y, LabelColorMap colorMap, int[] outArgb, int offset) {
+        checkRow(y);
+        int start = 0;
+        for (int r = mRowStarts[y], end = mRowStarts[y + 1]; r < end; r++) {
+            Arrays.fill(outArgb, offset + start, offset + mRunEnds[r], colorMap.getColor(mRunLabels[r] & 0xFF));
+            start = mRunEnds[r];
+        }
+    }
+
+    /**
+     * Decodes {@code count} colors of row {@code y} sampled every {@code step} pixels from
+     * {@code x}, so a zoomed out view reads a subsampled region without decoding whole rows.
+     */
+    public void decodeRow(int y, int x, int step, int count, LabelColorMap colorMap,
+                          int[] outArgb, int offset) {
+        checkRow(y);
+        if (count <= 0) {
+            return;
+        }
+        if (x < 0 || step <= 0 || x + (long) (count - 1) * step >= mWidth) {
+            throw new IndexOutOfBoundsException("Samples outside of row width " + mWidth);
+        }
+        int r = runAt(y, x);
+        for (int i = 0; i < count; i++, x += step) {
+            while (mRunEnds[r] <= x) {
+                r++;
+            }
+            outArgb[offset + i] = colorMap.getColor(mRunLabels[r] & 0xFF);
+        }
+    }
+
+    /**
+     * Writes into {@code out} the pixels labeled {@code labelA} in {@code a} or {@code labelB} in
+     * {@code b} as {@link #FOREGROUND}, all others as 0. {@code out} must not be {@code a} or
+     * {@code b}.
+     */
+    public static RleMask union(RleMask a, int labelA, RleMask b, int labelB, RleMask out) {
+        return combine(a, labelA, b, labelB, true, out);
+    }
+
+    /** Like {@link #union}, keeping pixels with both labels. */
+    public static RleMask intersection(RleMask a, int labelA, RleMask b, int labelB, RleMask out) {
+        return combine(a, labelA, b, labelB, false, out);
+    }
+
+    /** Pixels labeled {@code labelA} in {@code a} and {@code labelB} in {@code b}, without building a mask. */
+    public static long intersectionArea(RleMask a, int labelA, RleMask b, int labelB) {
+        checkSameSize(a, b);
+        final byte targetA = (byte) labelA;
+        final byte targetB = (byte) labelB;
+        long area = 0;
+        for (int y = 0; y < a.mHeight; y++) {
+            int ra = a.mRowStarts[y];
+            int rb = b.mRowStarts[y];
+            int x = 0;
+            while (x < a.mWidth) {
+                final int end = Math.min(a.mRunEnds[ra], b.mRunEnds[rb]);
+                if (a.mRunLabels[ra] == targetA && b.mRunLabels[rb] == targetB) {
+                    area += end - x;
+                }
+                x = end;
+                if (a.mRunEnds[ra] == end) {
+                    ra++;
+                }
+                if (b.mRunEnds[rb] == end) {
+                    rb++;
+                }
+            }
+        }
+        return area;
+    }
+
+    /** Intersection over union of one label between two masks, 1 if neither has it. */
+    public static float iou(RleMask a, RleMask b, int label) {
+        final long intersection = intersectionArea(a, label, b, label);
+        final long union = a.area(label) + b.area(label) - intersection;
+        return union == 0 ? 1.f : (float) intersection / union;
+    }
+
+    private static RleMask combine(RleMask a, int labelA, RleMask b, int labelB, boolean union,
+                                   RleMask out) {
+        checkSameSize(a, b);
+        if (out == a || out == b) {
+            throw new IllegalArgumentException("Output mask must differ from the inputs");
+        }
+        out.reset(a.mWidth, a.mHeight);
+        final byte targetA = (byte) labelA;
+        final byte targetB = (byte) labelB;
+        for (int y = 0; y < a.mHeight; y++) {
+            int ra = a.mRowStarts[y];
+            int rb = b.mRowStarts[y];
+            int x = 0;
+            byte current = -1;
+            while (x < a.mWidth) {
+                final int end = Math.min(a.mRunEnds[ra], b.mRunEnds[rb]);
+                final boolean inA = a.mRunLabels[ra] == targetA;
+                final boolean inB = b.mRunLabels[rb] == targetB;
+                final byte label = (union ? inA || inB : inA && inB) ? (byte) FOREGROUND : 0;
+                if (x > 0 && label != current) {
+                    out.addRun(x, current);
+                }
+                current = label;
+                x = end;
+                if (a.mRunEnds[ra] == end) {
+                    ra++;
+                }
+                if (b.mRunEnds[rb] == end) {
+                    rb++;
+                }
+            }
+            out.addRun(a.mWidth, current);
+            out.mRowStarts[++out.mRowCount] = out.mRunCount;
+        }
+        return out;
+    }
+
+    private void addRun(int end, byte label) {
+        if (mRunCount == mRunEnds.length) {
+            final int capacity = Math.max(64, mRunCount * 2);
+            mRunEnds = Arrays.copyOf(mRunEnds, capacity);
+            mRunLabels = Arrays.copyOf(mRunLabels, capacity);
+        }
+        final int start = mRunCount == mRowStarts[mRowCount] ? 0 : mRunEnds[mRunCount - 1];
+        mClassAreas[label & 0xFF] += end - start;
+        mRunEnds[mRunCount] = end;
+        mRunLabels[mRunCount] = label;
+        mRunCount++;
+    }
+
+    /** Index of the run of row {@code y} covering {@code x}. */
+    private int runAt(int y, int x) {
+        // first run of the row ending after x
+        int lo = mRowStarts[y];
+        int hi = mRowStarts[y + 1] - 1;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (mRunEnds[mid] <= x) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private void checkRow(int y) {
+        if (y < 0 || y >= mRowCount) {
+            throw new IndexOutOfBoundsException("Row " + y + " of " + mRowCount);
+        }
+    }
+
+    private static void checkSameSize(RleMask a, RleMask b) {
+        if (a.mWidth != b.mWidth || a.mHeight != b.mHeight || !a.isComplete() || !b.isComplete()) {
+            throw new IllegalArgumentException("Masks must be complete and of the same size");
+        }
+    }
+}
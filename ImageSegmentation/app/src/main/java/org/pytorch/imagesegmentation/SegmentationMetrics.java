@@ -0,0 +1,35 @@
+package org.pytorch.imagesegmentation;
+
+/**
+ * Agreement measures between two label maps of the same size.
+ */
+public class SegmentationMetrics {
+
+    /**
+     * Mean intersection over union across classes present in either map.
+     */
+    public static float meanIoU(byte[] labels, byte[] reference, int pixels, int classCount) {
+        final int[] intersection = new int[classCount];
+        final int[] union = new int[classCount];
+        for (int i = 0; i < pixels; i++) {
+            final int a = labels[i] & 0xFF;
+            final int b = reference[i] & 0xFF;
+            if (a == b) {
+                intersection[a]++;
+                union[a]++;
+            } else {
+                union[a]++;
+                union[b]++;
+            }
+        }
+        float sum = 0.f;
+        int present = 0;
+        for (int c = 0; c < classCount; c++) {
+            if (union[c] > 0) {
+                sum += (float) intersection[c] / union[c];
+                present++;
+            }
+        }
+        return present == 0 ? 1.f : sum / present;
+    }
+}
@@ -0,0 +1,176 @@
+package org.pytorch.imagesegmentation;
+
+import org.pytorch.DType;
+import org.pytorch.IValue;
+import org.pytorch.Module;
+import org.pytorch.Tensor;
+
+import java.util.Map;
+
+/**
+ * Runs a DeepLabV3 TorchScript module and produces a byte-per-pixel label map.
+ *
+ * Two exported variants are supported and told apart by the output of forward: the scripted
+ * torchvision model returns a dict with 1 x classes x H x W float logits under "out" that are
+ * reduced with {@link SegmentationPostProcessor}, the label map variant from deeplabv3.py returns
+ * an already argmaxed H x W uint8 or int64 tensor.
+ */
+public class SegmentationModel {
+    public static final int OUTPUT_UNKNOWN = 0;
+    public static final int OUTPUT_LOGITS = 1;
+    public static final int OUTPUT_LABEL_MAP = 2;
+
+    /** Forward of the TorchScript module, unit tests replace it with a stub. */
+    interface Forward {
+        IValue forward(IValue input);
+
+        void destroy();
+    }
+
+    private final Forward mForward;
+    private final SegmentationPostProcessor mPostProcessor;
+    private final int mClassCount;
+    private volatile int mOutputKind = OUTPUT_UNKNOWN;
+
+    public SegmentationModel(final Module module, SegmentationPostProcessor postProcessor, int classCount) {
+        this(new Forward() {
+            @Override
+            public IValue forward(IValue input) {
+                return module.forward(input);
+            }
+
+            @Override
+            public void destroy() {
+                module.destroy();
+            }
+        }, postProcessor, classCount);
+    }
+
+    SegmentationModel(Forward forward, SegmentationPostProcessor postProcessor, int classCount) {
+        mForward = forward;
+        mPostProcessor = postProcessor;
+        mClassCount = classCount;
+    }
+
+    /** Output variant detected on the first forward, {@link #OUTPUT_UNKNOWN} before that. */
+    public int getOutputKind() {
+        return mOutputKind;
+    }
+
+    /**
+     * Runs forward on the 1 x 3 x height x width input and writes the labels row by row.
+     */
+    public void segment(Tensor input, int width, int height, byte[] outLabels) {
+        final IValue output = mForward.forward(IValue.from(input));
+        if (output.isDictStringKey()) {
+            mOutputKind = OUTPUT_LOGITS;
+            final Map<String, IValue> outTensors = output.toDictStringKey();
+            final float[] scores = outTensors.get("out").toTensor().getDataAsFloatArray();
+            mPostProcessor.argmax(scores, mClassCount, width, height, outLabels);
+            return;
+        }
+        mOutputKind = OUTPUT_LABEL_MAP;
+        copyLabelMap(output.toTensor(), width * height, outLabels);
+    }
+
+    /**
+     * Runs forward and encodes the labels into {@code outMask} row by row, without a full byte
+     * label map for the logits variant.
+     */
+    public void segment(Tensor input, int width, int height, RleMask outMask) {
+        final IValue output = mForward.forward(IValue.from(input));
+        if (output.isDictStringKey()) {
+            mOutputKind = OUTPUT_LOGITS;
+            final float[] scores = output.toDictStringKey().get("out").toTensor().getDataAsFloatArray();
+            mPostProcessor.argmax(scores, mClassCount, width, height, outMask);
+            return;
+        }
+        mOutputKind = OUTPUT_LABEL_MAP;
+        encodeLabelMap(output.toTensor(), width, height, outMask);
+    }
+
+    /**
+     * Runs forward and returns the 1 x classes x height x width logits, or null after writing
+     * {@code outLabels} when the module is the label map variant and has no logits to return.
+     */
+    public float[] forwardLogits(Tensor input, int width, int height, byte[] outLabels) {
+        final IValue output = mForward.forward(IValue.from(input));
+        if (output.isDictStringKey()) {
+            mOutputKind = OUTPUT_LOGITS;
+            return output.toDictStringKey().get("out").toTensor().getDataAsFloatArray();
+        }
+        mOutputKind = OUTPUT_LABEL_MAP;
+        copyLabelMap(output.toTensor(), width * height, outLabels);
+        return null;
+    }
+
+    public int getClassCount() {
+        return mClassCount;
+    }
+
+    static void copyLabelMap(Tensor labelMap, int pixels, byte[] outLabels) {
+        if (labelMap.numel() != pixels) {
+            throw new IllegalStateException("Label map has " + labelMap.numel()
+                    + " elements, expected " + pixels);
+        }
+        final DType dtype = labelMap.dtype();
+        if (dtype == DType.UINT8) {
+            System.arraycopy(labelMap.getDataAsUnsignedByteArray(), 0, outLabels, 0, pixels);
+        } else if (dtype == DType.INT8) {
+            System.arraycopy(labelMap.getDataAsByteArray(), 0, outLabels, 0, pixels);
+        } else if (dtype == DType.INT64) {
+            final long[] labels = labelMap.getDataAsLongArray();
+            for (int i = 0; i < pixels; i++) {
+                outLabels[i] = (byte) labels[i];
+            }
+        } else if (dtype == DType.INT32) {
+            final int[] labels = labelMap.getDataAsIntArray();
+            for (int i = 0; i < pixels; i++) {
+                outLabels[i] = (byte) labels[i];
+            }
+        } else {
+            throw new IllegalStateException("Unsupported label map dtype " + dtype);
+        }
+    }
+
+    static void encodeLabelMap(Tensor labelMap, int width, int height, RleMask outMask) {
+        if (labelMap.numel() != (long) width * height) {
+            throw new IllegalStateException("Label map has " + labelMap.numel()
+                    + " elements, expected " + width * height);
+        }
+        final DType dtype = labelMap.dtype();
+        if (dtype == DType.UINT8) {
+            outMask.encode(labelMap.getDataAsUnsignedByteArray(), width, height);
+            return;
+        }
+        if (dtype == DType.INT8) {
+            outMask.encode(labelMap.getDataAsByteArray(), width, height);
+            return;
+        }
+        final byte[] row = new byte[width];
+        outMask.reset(width, height);
+        if (dtype == DType.INT64) {
+            final long[] labels = labelMap.getDataAsLongArray();
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    row[x] = (byte) labels[y * width + x];
+                }
+                outMask.appendRow(row, 0);
+            }
+        } else if (dtype == DType.INT32) {
+            final int[] labels = labelMap.getDataAsIntArray();
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    row[x] = (byte) labels[y * width + x];
+                }
+                outMask.appendRow(row, 0);
+            }
+        } else {
+            throw new IllegalStateException("Unsupported label map dtype " + dtype);
+        }
+    }
+
+    public void destroy() {
+        mForward.destroy();
+    }
+}
@@ -0,0 +1,204 @@
+package org.pytorch.imagesegmentation;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Per-pixel argmax over NCHW segmentation logits of shape 1 x classes x height x width.
+ *
+ * The image is split into bands of whole rows processed in parallel. Each band keeps a running
+ * max/argmax for its pixels and streams the class planes one after another, so memory is read
+ * sequentially and the running arrays stay in cache instead of jumping {@code width * height}
+ * floats between classes for every pixel. Ties resolve to the lower class index.
+ *
+ * The {@link RleMask} variant runs one wave of bands per pool thread at a time into small
+ * scratch buffers and appends their rows to the mask in order, so it never holds a full
+ * resolution byte label map. Both variants reuse the running max and band scratch buffers of
+ * the instance, so an instance is not thread safe, use one per thread.
+ */
+public class SegmentationPostProcessor {
+    /** Pixels per band, sized so the band's running max and labels fit in L2 cache. */
+    private static final int BAND_PIXELS = 16 * 1024;
+
+    private final ForkJoinPool mPool;
+    private float[] mMaxScores = new float[0];
+    private byte[] mBandLabels = new byte[0];
+
+    public SegmentationPostProcessor(ForkJoinPool pool) {
+        mPool = pool;
+    }
+
+    public void argmax(float[] scores, int classCount, int width, int height, byte[] outLabels) {
+        argmax(FloatBuffer.wrap(scores), classCount, width, height, outLabels);
+    }
+
+    /**
+     * Reads the logits starting at the position of {@code scores}, the position is not changed.
+     */
+    public void argmax(FloatBuffer scores, int classCount, int width, int height, byte[] outLabels) {
+        final int pixels = width * height;
+        checkArguments(scores, classCount, pixels);
+        if (outLabels.length < pixels) {
+            throw new IllegalArgumentException("Labels buffer is smaller than height * width");
+        }
+        if (mMaxScores.length < pixels) {
+            mMaxScores = new float[pixels];
+        }
+
+        final int bandRows = bandRows(width, height);
+        final List<BandTask> tasks = new ArrayList<>((height + bandRows - 1) / bandRows);
+        for (int row = 0; row < height; row += bandRows) {
+            tasks.add(new BandTask(scores, classCount, pixels, row * width,
+                    Math.min(height, row + bandRows) * width, mMaxScores, outLabels, row * width));
+        }
+        invoke(tasks);
+    }
+
+    public void argmax(float[] scores, int classCount, int width, int height, RleMask outMask) {
+        argmax(FloatBuffer.wrap(scores), classCount, width, height, outMask);
+    }
+
+    /**
+     * Resets {@code outMask} to {@code width x height} and appends the labels row by row.
+     */
+    public void argmax(FloatBuffer scores, int classCount, int width, int height, RleMask outMask) {
+        final int pixels = width * height;
+        checkArguments(scores, classCount, pixels);
+        final int bandRows = bandRows(width, height);
+        final int waveRows = Math.min(height, bandRows * mPool.getParallelism());
+        if (mMaxScores.length < waveRows * width) {
+            mMaxScores = new float[waveRows * width];
+        }
+        if (mBandLabels.length < waveRows * width) {
+            mBandLabels = new byte[waveRows * width];
+        }
+
+        outMask.reset(width, height);
+        final List<BandTask> tasks = new ArrayList<>();
+        for (int waveRow = 0; waveRow < height; waveRow += waveRows) {
+            final int waveEnd = Math.min(height, waveRow + waveRows);
+            tasks.clear();
+            for (int row = waveRow; row < waveEnd; row += bandRows) {
+                tasks.add(new BandTask(scores, classCount, pixels, row * width,
+                        Math.min(waveEnd, row + bandRows) * width, mMaxScores, mBandLabels,
+                        (row - waveRow) * width));
+            }
+            invoke(tasks);
+            for (int row = waveRow; row < waveEnd; row++) {
+                outMask.appendRow(mBandLabels, (row - waveRow) * width);
+            }
+        }
+    }
+
+    private static void checkArguments(FloatBuffer scores, int classCount, int pixels) {
+        if (classCount <= 0 || classCount > 128) {
+            throw new IllegalArgumentException("Unsupported number of classes: " + classCount);
+        }
+        if (scores.remaining() < classCount * pixels) {
+            throw new IllegalArgumentException("Scores buffer is smaller than classes * height * width");
+        }
+    }
+
+    private static int bandRows(int width, int height) {
+        return Math.max(1, Math.min(height, BAND_PIXELS / Math.max(1, width)));
+    }
+
+    private void invoke(final List<BandTask> tasks) {
+        if (tasks.size() == 1) {
+            tasks.get(0).compute();
+            return;
+        }
+        mPool.invoke(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute() {
+                ForkJoinTask.invokeAll(tasks);
+            }
+        });
+    }
+
+    private static class BandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final FloatBuffer mScores;
+        private final int mClassCount;
+        private final int mPlaneSize;
+        private final int mStart;
+        private final int mEnd;
+        private final float[] mMaxScores;
+        private final byte[] mLabels;
+        /** Index of pixel {@code mStart} in {@code mMaxScores} and {@code mLabels}. */
+        private final int mOut;
+
+        BandTask(FloatBuffer scores, int classCount, int planeSize, int start, int end,
+                 float[] maxScores, byte[] labels, int out) {
+            mScores = scores;
+            mClassCount = classCount;
+            mPlaneSize = planeSize;
+            mStart = start;
+            mEnd = end;
+            mMaxScores = maxScores;
+            mLabels = labels;
+            mOut = out;
+        }
+
+        @Override
+        protected void compute() {
+            if (mScores.hasArray()) {
+                computeArray(mScores.array(), mScores.arrayOffset() + mScores.position());
+            } else {
+                computeBuffer(mScores.position());
+            }
+        }
+
+        private void computeArray(float[] scores, int base) {
+            final float[] max = mMaxScores;
+            final byte[] labels = mLabels;
+            final int out = mOut;
+            final int count = mEnd - mStart;
+            System.arraycopy(scores, base + mStart, max, out, count);
+            for (int i = 0; i < count; i++) {
+                labels[out + i] = 0;
+            }
+            for (int c = 1; c < mClassCount; c++) {
+                final int plane = base + c * mPlaneSize + mStart;
+                final byte label = (byte) c;
+                for (int i = 0; i < count; i++) {
+                    final float v = scores[plane + i];
+                    if (v > max[out + i]) {
+                        max[out + i] = v;
+                        labels[out + i] = label;
+                    }
+                }
+            }
+        }
+
+        private void computeBuffer(int base) {
+            final FloatBuffer scores = mScores;
+            final float[] max = mMaxScores;
+            final byte[] labels = mLabels;
+            final int out = mOut;
+            final int count = mEnd - mStart;
+            for (int i = 0; i < count; i++) {
+                max[out + i] = scores.get(base + mStart + i);
+                labels[out + i] = 0;
+            }
+            for (int c = 1; c < mClassCount; c++) {
+                final int plane = base + c * mPlaneSize + mStart;
+                final byte label = (byte) c;
+                for (int i = 0; i < count; i++) {
+                    final float v = scores.get(plane + i);
+                    if (v > max[out + i]) {
+                        max[out + i] = v;
+                        labels[out + i] = label;
+                    }
+                }
+            }
+        }
+    }
+}
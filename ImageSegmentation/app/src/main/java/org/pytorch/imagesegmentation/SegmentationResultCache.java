@@ -0,0 +1,139 @@
+package org.pytorch.imagesegmentation;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * LRU cache of segmentation results keyed by the input pixels.
+ *
+ * A {@link Key} holds the image size and a SHA-256 digest of every ARGB pixel, so the same image
+ * hits the cache no matter which Bitmap instance holds it, and a hit compares the size and the
+ * full digest instead of trusting a short hash. Results are stored run-length encoded and the
+ * budget is counted in encoded bytes, a mostly-background mask takes a few kilobytes.
+ */
+public class SegmentationResultCache {
+
+    public static final class Key {
+        public final int width;
+        public final int height;
+        private final byte[] mDigest;
+        private final int mHashCode;
+
+        Key(int width, int height, byte[] digest) {
+            this.width = width;
+            this.height = height;
+            mDigest = digest;
+            mHashCode = 31 * (31 * width + height) + Arrays.hashCode(digest);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return width == other.width && height == other.height
+                    && MessageDigest.isEqual(mDigest, other.mDigest);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+
+    private final LruCache<Key, RleMask> mCache;
+    // keys currently in mCache, looked up without touching its hit count or LRU order
+    private final Set<Key> mKeys = new HashSet<>();
+    private final MessageDigest mDigest;
+    private int[] mRowPixels = new int[0];
+    private ByteBuffer mRowBytes = ByteBuffer.allocate(0);
+
+    public SegmentationResultCache(int maxBytes) {
+        mCache = new LruCache<Key, RleMask>(maxBytes) {
+            @Override
+            protected int sizeOf(Key key, RleMask value) {
+                return (int) Math.min(Integer.MAX_VALUE, value.sizeInBytes());
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Key key, RleMask oldValue, RleMask newValue) {
+                if (newValue == null) {
+                    synchronized (mKeys) {
+                        mKeys.remove(key);
+                    }
+                }
+            }
+        };
+        try {
+            mDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /** Key of the bitmap content, reads it one row at a time. */
+    public synchronized Key key(Bitmap bitmap) {
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        if (mRowPixels.length < width) {
+            mRowPixels = new int[width];
+            mRowBytes = ByteBuffer.allocate(4 * width);
+        }
+        final int[] row = mRowPixels;
+        final IntBuffer rowInts = mRowBytes.asIntBuffer();
+        mDigest.reset();
+        for (int y = 0; y < height; y++) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            rowInts.clear();
+            rowInts.put(row, 0, width);
+            mDigest.update(mRowBytes.array(), 0, 4 * width);
+        }
+        return new Key(width, height, mDigest.digest());
+    }
+
+    /** @return the cached mask, callers must not modify it */
+    public RleMask get(Key key) {
+        return mCache.get(key);
+    }
+
+    /** Unlike {@link #get}, neither counts a hit nor makes the entry most recently used. */
+    public boolean contains(Key key) {
+        synchronized (mKeys) {
+            return mKeys.contains(key);
+        }
+    }
+
+    /**
+     * Stores an encoded copy of the labels.
+     *
+     * @return the stored mask, callers must not modify it
+     */
+    public RleMask put(Key key, byte[] labels, int width, int height) {
+        if (width != key.width || height != key.height) {
+            throw new IllegalArgumentException("Labels size differs from the image size of the key");
+        }
+        final RleMask mask = new RleMask();
+        mask.encode(labels, width, height);
+        synchronized (mKeys) {
+            mKeys.add(key);
+        }
+        mCache.put(key, mask);
+        return mask;
+    }
+
+    public void clear() {
+        mCache.evictAll();
+    }
+}
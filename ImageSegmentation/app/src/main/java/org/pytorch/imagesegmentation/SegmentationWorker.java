@@ -0,0 +1,182 @@
+package org.pytorch.imagesegmentation;
+
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Single long-lived thread that runs segmentation jobs, the latest submitted job wins.
+ *
+ * At most one job waits while another one runs. Submitting a new job replaces the waiting one
+ * and cancels the running one through its {@link CancellationSignal}; jobs check the signal
+ * between pipeline stages and stop with {@link OperationCanceledException}. A job submitted with
+ * the same key as the running or waiting job is dropped, so repeated requests for the same input
+ * never queue a second run.
+ *
+ * Speculative jobs fill idle time, e.g. segmenting the image the user is likely to pick next.
+ * They only start when no regular job waits, run at the lowest thread priority and are cancelled
+ * by any regular submission, so they never delay work the user asked for.
+ */
+public class SegmentationWorker {
+    private static final String TAG = "ImageSegmentation";
+
+    public interface Job {
+        void run(CancellationSignal cancellationSignal);
+    }
+
+    private final Object mLock = new Object();
+    private final Thread mThread;
+
+    private Object mPendingKey;
+    private Job mPendingJob;
+    private Object mSpeculativeKey;
+    private Job mSpeculativeJob;
+    private Object mRunningKey;
+    private CancellationSignal mRunningSignal;
+    private boolean mRunningSpeculative;
+    private boolean mQuit;
+    private Runnable mOnQuit;
+
+    public SegmentationWorker() {
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    loop();
+                } finally {
+                    final Runnable onQuit;
+                    synchronized (mLock) {
+                        onQuit = mOnQuit;
+                    }
+                    if (onQuit != null) {
+                        onQuit.run();
+                    }
+                }
+            }
+        }, "SegmentationWorker");
+        mThread.start();
+    }
+
+    /**
+     * @return false if a job with an equal key is already running or waiting
+     */
+    public boolean submit(Object key, Job job) {
+        synchronized (mLock) {
+            if (mQuit) {
+                return false;
+            }
+            if (key.equals(mPendingKey) || (key.equals(mRunningKey) && !mRunningSpeculative
+                    && mPendingJob == null && !mRunningSignal.isCanceled())) {
+                return false;
+            }
+            mPendingKey = key;
+            mPendingJob = job;
+            if (mRunningSignal != null) {
+                mRunningSignal.cancel();
+            }
+            mLock.notifyAll();
+            return true;
+        }
+    }
+
+    /**
+     * Queues a job to run once no regular job is waiting, replacing a waiting speculative job.
+     *
+     * @return false if a job with an equal key is already running or waiting
+     */
+    public boolean submitSpeculative(Object key, Job job) {
+        synchronized (mLock) {
+            if (mQuit || key.equals(mPendingKey) || key.equals(mSpeculativeKey)
+                    || (key.equals(mRunningKey) && !mRunningSignal.isCanceled())) {
+                return false;
+            }
+            mSpeculativeKey = key;
+            mSpeculativeJob = job;
+            mLock.notifyAll();
+            return true;
+        }
+    }
+
+    /** Drops the waiting jobs and cancels the running one. */
+    public void cancel() {
+        synchronized (mLock) {
+            mPendingKey = null;
+            mPendingJob = null;
+            mSpeculativeKey = null;
+            mSpeculativeJob = null;
+            if (mRunningSignal != null) {
+                mRunningSignal.cancel();
+            }
+        }
+    }
+
+    /**
+     * Cancels all work and returns without waiting. Once the running job has stopped, the worker
+     * thread runs {@code onQuit}, so resources used by jobs can be released there without blocking
+     * the caller.
+     */
+    public void quit(Runnable onQuit) {
+        synchronized (mLock) {
+            mQuit = true;
+            mOnQuit = onQuit;
+            mPendingKey = null;
+            mPendingJob = null;
+            mSpeculativeKey = null;
+            mSpeculativeJob = null;
+            if (mRunningSignal != null) {
+                mRunningSignal.cancel();
+            }
+            mLock.notifyAll();
+        }
+    }
+
+    private void loop() {
+        while (true) {
+            final Job job;
+            final boolean speculative;
+            final CancellationSignal signal = new CancellationSignal();
+            synchronized (mLock) {
+                while (!mQuit && mPendingJob == null && mSpeculativeJob == null) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (mQuit) {
+                    return;
+                }
+                speculative = mPendingJob == null;
+                if (speculative) {
+                    job = mSpeculativeJob;
+                    mRunningKey = mSpeculativeKey;
+                    mSpeculativeJob = null;
+                    mSpeculativeKey = null;
+                } else {
+                    job = mPendingJob;
+                    mRunningKey = mPendingKey;
+                    mPendingJob = null;
+                    mPendingKey = null;
+                }
+                mRunningSignal = signal;
+                mRunningSpeculative = speculative;
+            }
+            Process.setThreadPriority(speculative
+                    ? Process.THREAD_PRIORITY_LOWEST : Process.THREAD_PRIORITY_DEFAULT);
+            try {
+                job.run(signal);
+            } catch (OperationCanceledException e) {
+                // superseded by a newer job or cancelled by the activity
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error during segmentation", e);
+            } finally {
+                synchronized (mLock) {
+                    mRunningKey = null;
+                    mRunningSignal = null;
+                    mRunningSpeculative = false;
+                }
+            }
+        }
+    }
+}
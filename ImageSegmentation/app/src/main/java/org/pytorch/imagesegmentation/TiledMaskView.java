@@ -0,0 +1,242 @@
+package org.pytorch.imagesegmentation;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.util.LruCache;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Zoomable view of a run-length encoded mask that only renders the tiles on screen.
+ *
+ * The mask stays in its {@link RleMask} form. At a given zoom the view picks the power of two
+ * subsample step that gives at least one screen pixel per tile pixel and decodes the visible
+ * {@code TILE_SIZE} square tiles of that level straight from the runs into tile bitmaps. Tiles
+ * live in an LRU sized from the view, just above the most tiles one frame can show, and evicted
+ * tile bitmaps are reused for the next tiles, so memory depends on the view size only, never on
+ * the mask size. Pinch zooms, drag pans and double tap fits the mask to the view again.
+ */
+public class TiledMaskView extends View {
+    private static final int TILE_SIZE = 256;
+    // screen pixels per mask pixel at the deepest zoom
+    private static final float MAX_SCALE = 8.f;
+
+    private final LruCache<Long, Bitmap> mTiles;
+    private final List<Bitmap> mFreeTiles = new ArrayList<>();
+    private final int[] mTilePixels = new int[TILE_SIZE * TILE_SIZE];
+    private final Paint mPaint = new Paint();
+    private final Rect mSrc = new Rect();
+    private final RectF mDst = new RectF();
+    private final ScaleGestureDetector mScaleDetector;
+    private final GestureDetector mGestureDetector;
+    private RleMask mMask;
+    private LabelColorMap mColorMap;
+    private float mScale = 1.f;
+    private float mMinScale = 1.f;
+    // view position of the mask origin
+    private float mOffsetX;
+    private float mOffsetY;
+
+    public TiledMaskView(Context context) {
+        this(context, null);
+    }
+
+    public TiledMaskView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        mTiles = new LruCache<Long, Bitmap>(1) {
+            @Override
+            protected void entryRemoved(boolean evicted, Long key, Bitmap oldValue, Bitmap newValue) {
+                if (mFreeTiles.size() < maxSize()) {
+                    mFreeTiles.add(oldValue);
+                } else {
+                    oldValue.recycle();
+                }
+            }
+        };
+        // labels are drawn as nearest neighbor blocks
+        mPaint.setFilterBitmap(false);
+        mScaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                zoom(detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+                return true;
+            }
+        });
+        mGestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                return mMask != null;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                mOffsetX -= distanceX;
+                mOffsetY -= distanceY;
+                clampOffsets();
+                invalidate();
+                return true;
+            }
+
+            @Override
+            public boolean onDoubleTap(MotionEvent e) {
+                fit();
+                invalidate();
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Shows a complete mask fitted to the view. The mask is read while drawing and must not be
+     * modified as long as it is shown.
+     */
+    public void setMask(RleMask mask, LabelColorMap colorMap) {
+        if (mask != null && !mask.isComplete()) {
+            throw new IllegalArgumentException("Mask is not complete");
+        }
+        mMask = mask;
+        mColorMap = colorMap;
+        mTiles.evictAll();
+        fit();
+        invalidate();
+    }
+
+    public RleMask getMask() {
+        return mMask;
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        // tiles are at least TILE_SIZE on screen, so a frame shows at most one more per axis
+        final int maxTiles = (ceilDiv(w, TILE_SIZE) + 1) * (ceilDiv(h, TILE_SIZE) + 1);
+        // one spare row and column for tiles that scroll back in
+        mTiles.resize(maxTiles + ceilDiv(w, TILE_SIZE) + ceilDiv(h, TILE_SIZE) + 2);
+        fit();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        mTiles.evictAll();
+        for (Bitmap tile : mFreeTiles) {
+            tile.recycle();
+        }
+        mFreeTiles.clear();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (mMask == null) {
+            return super.onTouchEvent(event);
+        }
+        boolean handled = mScaleDetector.onTouchEvent(event);
+        handled = mGestureDetector.onTouchEvent(event) || handled;
+        return handled || super.onTouchEvent(event);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        final RleMask mask = mMask;
+        if (mask == null) {
+            return;
+        }
+        final int maskWidth = mask.getWidth();
+        final int maskHeight = mask.getHeight();
+        int step = 1;
+        while (step * mScale < 1.f) {
+            step *= 2;
+        }
+        final int level = Integer.numberOfTrailingZeros(step);
+        final int span = TILE_SIZE * step;
+
+        // mask pixels covered by the view
+        final int left = Math.max(0, (int) Math.floor(-mOffsetX / mScale));
+        final int top = Math.max(0, (int) Math.floor(-mOffsetY / mScale));
+        final int right = Math.min(maskWidth, (int) Math.ceil((getWidth() - mOffsetX) / mScale));
+        final int bottom = Math.min(maskHeight, (int) Math.ceil((getHeight() - mOffsetY) / mScale));
+        if (left >= right || top >= bottom) {
+            return;
+        }
+        for (int ty = top / span, lastY = (bottom - 1) / span; ty <= lastY; ty++) {
+            for (int tx = left / span, lastX = (right - 1) / span; tx <= lastX; tx++) {
+                final int x0 = tx * span;
+                final int y0 = ty * span;
+                final int x1 = Math.min(x0 + span, maskWidth);
+                final int y1 = Math.min(y0 + span, maskHeight);
+                final Bitmap tile = tile(mask, level, step, tx, ty);
+                mSrc.set(0, 0, ceilDiv(x1 - x0, step), ceilDiv(y1 - y0, step));
+                mDst.set(mOffsetX + x0 * mScale, mOffsetY + y0 * mScale,
+                        mOffsetX + x1 * mScale, mOffsetY + y1 * mScale);
+                canvas.drawBitmap(tile, mSrc, mDst, mPaint);
+            }
+        }
+    }
+
+    private Bitmap tile(RleMask mask, int level, int step, int tx, int ty) {
+        final long key = ((long) level << 48) | ((long) ty << 24) | tx;
+        Bitmap tile = mTiles.get(key);
+        if (tile != null) {
+            return tile;
+        }
+        final int x0 = tx * TILE_SIZE * step;
+        final int y0 = ty * TILE_SIZE * step;
+        final int columns = Math.min(TILE_SIZE, ceilDiv(mask.getWidth() - x0, step));
+        final int rows = Math.min(TILE_SIZE, ceilDiv(mask.getHeight() - y0, step));
+        for (int r = 0; r < rows; r++) {
+            mask.decodeRow(y0 + r * step, x0, step, columns, mColorMap, mTilePixels, r * TILE_SIZE);
+        }
+        tile = mFreeTiles.isEmpty()
+                ? Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888)
+                : mFreeTiles.remove(mFreeTiles.size() - 1);
+        tile.setPixels(mTilePixels, 0, TILE_SIZE, 0, 0, columns, rows);
+        mTiles.put(key, tile);
+        return tile;
+    }
+
+    private void zoom(float factor, float focusX, float focusY) {
+        final float scale = Math.max(mMinScale, Math.min(MAX_SCALE, mScale * factor));
+        // keeps the mask point under the focus in place
+        mOffsetX = focusX - (focusX - mOffsetX) * scale / mScale;
+        mOffsetY = focusY - (focusY - mOffsetY) * scale / mScale;
+        mScale = scale;
+        clampOffsets();
+        invalidate();
+    }
+
+    private void fit() {
+        if (mMask == null || getWidth() == 0 || getHeight() == 0) {
+            return;
+        }
+        mMinScale = Math.min((float) getWidth() / mMask.getWidth(), (float) getHeight() / mMask.getHeight());
+        mScale = mMinScale;
+        clampOffsets();
+    }
+
+    /** Centers the mask along axes where it is smaller than the view, keeps the view filled otherwise. */
+    private void clampOffsets() {
+        mOffsetX = clampOffset(mOffsetX, mMask.getWidth() * mScale, getWidth());
+        mOffsetY = clampOffset(mOffsetY, mMask.getHeight() * mScale, getHeight());
+    }
+
+    private static float clampOffset(float offset, float content, float view) {
+        if (content <= view) {
+            return (view - content) / 2;
+        }
+        return Math.max(view - content, Math.min(0, offset));
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+}
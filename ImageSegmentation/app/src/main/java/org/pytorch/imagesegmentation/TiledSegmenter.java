@@ -0,0 +1,174 @@
+package org.pytorch.imagesegmentation;
+
+import android.graphics.Bitmap;
+import android.os.CancellationSignal;
+
+import org.pytorch.Tensor;
+import org.pytorch.torchvision.TensorImageUtils;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Segments images of any size by running the model on fixed size overlapping tiles.
+ *
+ * All tiles have the same size, at most {@code maxTileSize} on each side, and consecutive tiles
+ * overlap by at least {@code overlap} pixels. Every output pixel is taken from the tile whose
+ * border is furthest away, the seam between two tiles is the middle of their overlap. Input
+ * tensors are double buffered: while one tile runs forward on the calling thread, the next one
+ * is converted on a preprocessing thread. Memory for tensors and logits is bounded by the tile
+ * size, only the output label map scales with the image.
+ */
+public class TiledSegmenter {
+    /** Sees the preprocessed first tile before it runs forward, on the calling thread. */
+    public interface FirstTileListener {
+        /**
+         * @param input normalized 1 x 3 x tileHeight x tileWidth tensor data of the tile at the
+         *              image origin, only valid during the call and must not be written
+         * @param tileCount number of tiles, 1 means the tile covers the whole image
+         */
+        void onFirstTile(FloatBuffer input, int tileWidth, int tileHeight, int tileCount);
+    }
+
+    private final SegmentationModel mModel;
+    private final int mMaxTileSize;
+    private final int mOverlap;
+    private final ExecutorService mPreprocessExecutor = Executors.newSingleThreadExecutor();
+    // only used on the preprocessing thread
+    private final BitmapTensorConverter mConverter = new BitmapTensorConverter(
+            TensorImageUtils.TORCHVISION_NORM_MEAN_RGB, TensorImageUtils.TORCHVISION_NORM_STD_RGB);
+
+    private int mTileWidth;
+    private int mTileHeight;
+    private final FloatBuffer[] mInputBuffers = new FloatBuffer[2];
+    private final Tensor[] mInputTensors = new Tensor[2];
+    private byte[] mTileLabels = new byte[0];
+
+    public TiledSegmenter(SegmentationModel model, int maxTileSize, int overlap) {
+        if (maxTileSize <= 2 * overlap) {
+            throw new IllegalArgumentException("Tile size must be larger than twice the overlap");
+        }
+        mModel = model;
+        mMaxTileSize = maxTileSize;
+        mOverlap = overlap;
+    }
+
+    /**
+     * Writes labels of the whole {@code bitmap} into {@code outLabels}, row stride is its width.
+     * Cancellation is checked before every tile.
+     */
+    public void segment(Bitmap bitmap, byte[] outLabels, CancellationSignal cancellationSignal)
+            throws InterruptedException {
+        segment(bitmap, outLabels, cancellationSignal, null);
+    }
+
+    /**
+     * Like {@link #segment(Bitmap, byte[], CancellationSignal)}, handing the first tile to
+     * {@code listener} once it is preprocessed, before any label is written. The second tile is
+     * already being preprocessed while the listener runs.
+     */
+    public void segment(final Bitmap bitmap, byte[] outLabels, CancellationSignal cancellationSignal,
+                        FirstTileListener listener) throws InterruptedException {
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        if (outLabels.length < width * height) {
+            throw new IllegalArgumentException("Labels buffer is smaller than height * width");
+        }
+        ensureTileBuffers(Math.min(mMaxTileSize, width), Math.min(mMaxTileSize, height));
+        final int[] tileXs = tileOrigins(width, mTileWidth, mOverlap);
+        final int[] tileYs = tileOrigins(height, mTileHeight, mOverlap);
+        final int tileCount = tileXs.length * tileYs.length;
+
+        Future<?> pending = preprocess(bitmap, tileXs[0], tileYs[0], 0);
+        for (int t = 0; t < tileCount; t++) {
+            await(pending);
+            cancellationSignal.throwIfCanceled();
+            if (t + 1 < tileCount) {
+                pending = preprocess(bitmap, tileXs[(t + 1) % tileXs.length],
+                        tileYs[(t + 1) / tileXs.length], (t + 1) & 1);
+            }
+            if (t == 0 && listener != null) {
+                listener.onFirstTile(mInputBuffers[0], mTileWidth, mTileHeight, tileCount);
+                cancellationSignal.throwIfCanceled();
+            }
+
+            final int col = t % tileXs.length;
+            final int row = t / tileXs.length;
+            mModel.segment(mInputTensors[t & 1], mTileWidth, mTileHeight, mTileLabels);
+
+            final int x0 = seam(tileXs, col, mTileWidth, 0);
+            final int x1 = seam(tileXs, col + 1, mTileWidth, width);
+            final int y0 = seam(tileYs, row, mTileHeight, 0);
+            final int y1 = seam(tileYs, row + 1, mTileHeight, height);
+            for (int y = y0; y < y1; y++) {
+                System.arraycopy(mTileLabels, (y - tileYs[row]) * mTileWidth + (x0 - tileXs[col]),
+                        outLabels, y * width + x0, x1 - x0);
+            }
+        }
+    }
+
+    public void close() {
+        mPreprocessExecutor.shutdownNow();
+    }
+
+    private Future<?> preprocess(final Bitmap bitmap, final int x, final int y, final int slot) {
+        return mPreprocessExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                mConverter.convert(bitmap, x, y, mTileWidth, mTileHeight, mTileWidth, mTileHeight,
+                        mInputBuffers[slot], 0);
+                return null;
+            }
+        });
+    }
+
+    private static void await(Future<?> future) throws InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Tile preprocessing failed", e.getCause());
+        }
+    }
+
+    private void ensureTileBuffers(int tileWidth, int tileHeight) {
+        if (tileWidth == mTileWidth && tileHeight == mTileHeight) {
+            return;
+        }
+        mTileWidth = tileWidth;
+        mTileHeight = tileHeight;
+        for (int i = 0; i < 2; i++) {
+            mInputBuffers[i] = Tensor.allocateFloatBuffer(3 * tileWidth * tileHeight);
+            mInputTensors[i] = Tensor.fromBlob(mInputBuffers[i], new long[]{1, 3, tileHeight, tileWidth});
+        }
+        mTileLabels = new byte[tileWidth * tileHeight];
+    }
+
+    /**
+     * Tile origins along one axis, evenly spread so that neighbours overlap by at least
+     * {@code overlap} and the last tile ends at the image border.
+     */
+    static int[] tileOrigins(int size, int tileSize, int overlap) {
+        if (size <= tileSize) {
+            return new int[]{0};
+        }
+        final int step = tileSize - overlap;
+        final int count = 1 + (size - tileSize + step - 1) / step;
+        final int[] origins = new int[count];
+        for (int i = 0; i < count; i++) {
+            origins[i] = (int) ((long) i * (size - tileSize) / (count - 1));
+        }
+        return origins;
+    }
+
+    /** Boundary between tile {@code i - 1} and tile {@code i}, the middle of their overlap. */
+    private static int seam(int[] origins, int i, int tileSize, int border) {
+        if (i == 0 || i == origins.length) {
+            return border;
+        }
+        return (origins[i] + origins[i - 1] + tileSize) / 2;
+    }
+}
@@ -0,0 +1,136 @@
+package org.pytorch.imagesegmentation;
+
+import org.pytorch.IValue;
+import org.pytorch.Tensor;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures {@link BatchPipeline} throughput on the JVM with a stub forward, no device needed, and
+ * prints images/sec and the utilization of every stage.
+ *
+ * Decode and preprocess are simulated by spinning for fixed durations. Infer runs a
+ * {@link SegmentationModel} whose forward spins and returns fixed synthetic logits, so the output
+ * handling is the one of the app. Post-processing runs the real argmax and the write stage
+ * run-length encodes the labels. Usage from the app module directory, with the classes.jar of the
+ * pytorch_android AAR as {@code $PYTORCH_JAR}:
+ * <pre>
+ * javac -d /tmp/batch -cp $PYTORCH_JAR src/main/java/org/pytorch/imagesegmentation/{BatchPipeline,SegmentationModel,SegmentationPostProcessor,RleMask,LabelColorMap}.java src/test/java/org/pytorch/imagesegmentation/BatchPipelineStub.java
+ * java -cp /tmp/batch:$PYTORCH_JAR org.pytorch.imagesegmentation.BatchPipelineStub [images] [decode ms] [preprocess ms] [forward ms] [infer workers] [decode workers]
+ * </pre>
+ */
+public class BatchPipelineStub {
+    private static final int SIZE = 256;
+    private static final int CLASS_COUNT = 21;
+    private static final int QUEUE_CAPACITY = 2;
+
+    private static class Item {
+        final Tensor input = Tensor.fromBlob(new float[3 * SIZE * SIZE], new long[]{1, 3, SIZE, SIZE});
+        float[] logits;
+        final byte[] labels = new byte[SIZE * SIZE];
+        final RleMask mask = new RleMask();
+    }
+
+    private static class StubForward implements SegmentationModel.Forward {
+        private final IValue mOutput;
+        private final long mForwardNanos;
+
+        StubForward(float[] logits, long forwardNanos) {
+            final Tensor tensor = Tensor.fromBlob(logits, new long[]{1, CLASS_COUNT, SIZE, SIZE});
+            mOutput = IValue.dictStringKeyFrom(Collections.singletonMap("out", IValue.from(tensor)));
+            mForwardNanos = forwardNanos;
+        }
+
+        @Override
+        public IValue forward(IValue input) {
+            spin(mForwardNanos);
+            return mOutput;
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int images = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        final long decodeNanos = (args.length > 1 ? Long.parseLong(args[1]) : 8) * 1000000L;
+        final long preprocessNanos = (args.length > 2 ? Long.parseLong(args[2]) : 4) * 1000000L;
+        final long forwardNanos = (args.length > 3 ? Long.parseLong(args[3]) : 20) * 1000000L;
+        final int inferWorkers = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+        final int decodeWorkers = args.length > 5 ? Integer.parseInt(args[5]) : 2;
+
+        final Random random = new Random(0);
+        final float[] logits = new float[CLASS_COUNT * SIZE * SIZE];
+        for (int i = 0; i < logits.length; i++) {
+            logits[i] = random.nextFloat();
+        }
+        final SegmentationModel model = new SegmentationModel(new StubForward(logits, forwardNanos),
+                new SegmentationPostProcessor(ForkJoinPool.commonPool()), CLASS_COUNT);
+
+        final int poolSize = 5 * QUEUE_CAPACITY + decodeWorkers + inferWorkers + 3 + 1;
+        final BlockingQueue<Item> freeItems = new ArrayBlockingQueue<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            freeItems.add(new Item());
+        }
+        final ThreadLocal<SegmentationPostProcessor> postProcessors =
+                new ThreadLocal<SegmentationPostProcessor>() {
+                    @Override
+                    protected SegmentationPostProcessor initialValue() {
+                        return new SegmentationPostProcessor(ForkJoinPool.commonPool());
+                    }
+                };
+
+        final BatchPipeline<Item> pipeline = new BatchPipeline<>();
+        pipeline.addStage("decode", decodeWorkers, QUEUE_CAPACITY, new BatchPipeline.Stage<Item>() {
+            @Override
+            public void process(Item item) {
+                spin(decodeNanos);
+            }
+        })
+                .addStage("preprocess", 1, QUEUE_CAPACITY, new BatchPipeline.Stage<Item>() {
+                    @Override
+                    public void process(Item item) {
+                        spin(preprocessNanos);
+                    }
+                })
+                .addStage("infer", inferWorkers, QUEUE_CAPACITY, new BatchPipeline.Stage<Item>() {
+                    @Override
+                    public void process(Item item) {
+                        item.logits = model.forwardLogits(item.input, SIZE, SIZE, item.labels);
+                    }
+                })
+                .addStage("postprocess", 1, QUEUE_CAPACITY, new BatchPipeline.Stage<Item>() {
+                    @Override
+                    public void process(Item item) {
+                        postProcessors.get().argmax(item.logits, CLASS_COUNT, SIZE, SIZE, item.labels);
+                        item.logits = null;
+                    }
+                })
+                .addStage("write", 1, QUEUE_CAPACITY, new BatchPipeline.Stage<Item>() {
+                    @Override
+                    public void process(Item item) throws InterruptedException {
+                        item.mask.encode(item.labels, SIZE, SIZE);
+                        freeItems.put(item);
+                    }
+                });
+        pipeline.start();
+        for (int i = 0; i < images; i++) {
+            if (!pipeline.submit(freeItems.take())) {
+                break;
+            }
+        }
+        System.out.println(pipeline.finish());
+    }
+
+    private static void spin(long nanos) {
+        final long end = System.nanoTime() + nanos;
+        while (System.nanoTime() < end) {
+            // busy wait, a stand-in for CPU bound work
+        }
+    }
+}
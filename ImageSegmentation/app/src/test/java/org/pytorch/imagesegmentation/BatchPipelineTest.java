@@ -0,0 +1,168 @@
+package org.pytorch.imagesegmentation;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs {@link BatchPipeline} with stub stages: every item passes every stage in order, a slow
+ * stage bounds the items in flight and shows up as the busiest one, and a failing stage aborts
+ * the pipeline.
+ */
+public class BatchPipelineTest {
+    private static final int QUEUE_CAPACITY = 2;
+
+    private static class Item {
+        final int index;
+        final List<String> stages = Collections.synchronizedList(new ArrayList<String>());
+
+        Item(int index) {
+            this.index = index;
+        }
+    }
+
+    private static class RecordingStage implements BatchPipeline.Stage<Item> {
+        private final String mName;
+        private final long mSleepMs;
+
+        RecordingStage(String name, long sleepMs) {
+            mName = name;
+            mSleepMs = sleepMs;
+        }
+
+        @Override
+        public void process(Item item) throws InterruptedException {
+            if (mSleepMs > 0) {
+                Thread.sleep(mSleepMs);
+            }
+            item.stages.add(mName);
+        }
+    }
+
+    @Test
+    public void everyItemPassesEveryStageInOrder() throws Exception {
+        final List<Item> done = Collections.synchronizedList(new ArrayList<Item>());
+        final BatchPipeline<Item> pipeline = new BatchPipeline<>();
+        pipeline.addStage("decode", 3, QUEUE_CAPACITY, new RecordingStage("decode", 0))
+                .addStage("infer", 2, QUEUE_CAPACITY, new RecordingStage("infer", 0))
+                .addStage("write", 1, QUEUE_CAPACITY, new BatchPipeline.Stage<Item>() {
+                    @Override
+                    public void process(Item item) {
+                        item.stages.add("write");
+                        done.add(item);
+                    }
+                });
+        pipeline.start();
+        final int count = 100;
+        for (int i = 0; i < count; i++) {
+            assertTrue(pipeline.submit(new Item(i)));
+        }
+        final BatchPipeline.Report report = pipeline.finish();
+
+        assertEquals(count, pipeline.getSubmittedCount());
+        assertEquals(count, report.items);
+        assertEquals(count, done.size());
+        final boolean[] seen = new boolean[count];
+        for (Item item : done) {
+            assertFalse(seen[item.index]);
+            seen[item.index] = true;
+            assertEquals(Arrays.asList("decode", "infer", "write"), item.stages);
+        }
+        assertEquals(3, report.stages.size());
+        for (BatchPipeline.StageStats stage : report.stages) {
+            assertEquals(count, stage.items);
+        }
+    }
+
+    @Test
+    public void slowStageBoundsItemsInFlight() throws Exception {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final BatchPipeline<Item> pipeline = new BatchPipeline<>();
+        pipeline.addStage("decode", 1, QUEUE_CAPACITY, new BatchPipeline.Stage<Item>() {
+            @Override
+            public void process(Item item) {
+                final int n = inFlight.incrementAndGet();
+                int max;
+                while (n > (max = maxInFlight.get()) && !maxInFlight.compareAndSet(max, n)) {
+                    // retry
+                }
+            }
+        })
+                .addStage("infer", 1, QUEUE_CAPACITY, new RecordingStage("infer", 5))
+                .addStage("write", 1, QUEUE_CAPACITY, new BatchPipeline.Stage<Item>() {
+                    @Override
+                    public void process(Item item) {
+                        inFlight.decrementAndGet();
+                    }
+                });
+        pipeline.start();
+        for (int i = 0; i < 40; i++) {
+            pipeline.submit(new Item(i));
+        }
+        final BatchPipeline.Report report = pipeline.finish();
+
+        // the decoding item, then worker plus queue with its extra end marker slot per later stage
+        assertTrue("max in flight " + maxInFlight.get(), maxInFlight.get() <= 1 + 2 * (1 + QUEUE_CAPACITY + 1));
+        final BatchPipeline.StageStats decode = report.stages.get(0);
+        final BatchPipeline.StageStats infer = report.stages.get(1);
+        assertTrue(infer.utilization > decode.utilization);
+        assertTrue(infer.utilization > 0.5f);
+        // decode spends its time waiting for room in front of infer
+        assertTrue(decode.blockedNanos > infer.blockedNanos);
+    }
+
+    @Test
+    public void failingStageAbortsPipeline() throws Exception {
+        final IllegalStateException failure = new IllegalStateException("stub failure");
+        final BatchPipeline<Item> pipeline = new BatchPipeline<>();
+        pipeline.addStage("decode", 2, QUEUE_CAPACITY, new RecordingStage("decode", 0))
+                .addStage("infer", 1, QUEUE_CAPACITY, new BatchPipeline.Stage<Item>() {
+                    @Override
+                    public void process(Item item) {
+                        if (item.index == 5) {
+                            throw failure;
+                        }
+                    }
+                });
+        pipeline.start();
+        for (int i = 0; i < 1000 && pipeline.submit(new Item(i)); i++) {
+            // submit stops accepting items once the pipeline failed
+        }
+        assertTrue(pipeline.isFailed());
+        try {
+            pipeline.finish();
+            fail("finish must rethrow the stage failure");
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsStagesAfterStart() {
+        final BatchPipeline<Item> pipeline = new BatchPipeline<>();
+        pipeline.addStage("decode", 1, QUEUE_CAPACITY, new RecordingStage("decode", 0));
+        pipeline.start();
+        try {
+            pipeline.addStage("infer", 1, QUEUE_CAPACITY, new RecordingStage("infer", 0));
+        } finally {
+            pipeline.abort();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsStartWithoutStages() {
+        new BatchPipeline<Item>().start();
+    }
+}
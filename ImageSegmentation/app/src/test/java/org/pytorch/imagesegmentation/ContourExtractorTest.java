@@ -0,0 +1,145 @@
+package org.pytorch.imagesegmentation;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks traced polygons against the masks they come from and how much smaller they are than the
+ * label map and the ARGB bitmap, the size side of the contour overlay trade-off.
+ */
+public class ContourExtractorTest {
+    private static final int BACKGROUND = 0;
+    private static final float EPSILON = 0.75f;
+
+    private final ContourExtractor mExtractor = new ContourExtractor(EPSILON);
+
+    @Test
+    public void rectangleAreaMatchesPixelCount() {
+        final int width = 40;
+        final int height = 30;
+        final byte[] labels = new byte[width * height];
+        fillRect(labels, width, 5, 7, 25, 22, 3);
+        final List<ContourExtractor.Contour> contours = mExtractor.extract(labels, width, height, BACKGROUND);
+        assertEquals(1, contours.size());
+        assertEquals(3, contours.get(0).label);
+        // marching squares cuts each corner by 1/8 pixel, simplification stays within epsilon
+        assertEquals(20 * 15, Math.abs(area(contours.get(0))), 0.5f + perimeter(contours.get(0)) * EPSILON);
+    }
+
+    @Test
+    public void holeHasOppositeWinding() {
+        final int width = 32;
+        final int height = 32;
+        final byte[] labels = new byte[width * height];
+        fillRect(labels, width, 2, 2, 30, 30, 1);
+        fillRect(labels, width, 10, 10, 20, 20, BACKGROUND);
+        final List<ContourExtractor.Contour> contours = mExtractor.extract(labels, width, height, BACKGROUND);
+        assertEquals(2, contours.size());
+        final float a = area(contours.get(0));
+        final float b = area(contours.get(1));
+        assertTrue(a * b < 0);
+        // with even-odd filling the hole is subtracted
+        assertEquals(28 * 28 - 10 * 10, Math.abs(a) - Math.abs(b), 4 * 40 * EPSILON);
+    }
+
+    @Test
+    public void separateComponentsAndClasses() {
+        final int width = 21;
+        final int height = 9;
+        final byte[] labels = new byte[width * height];
+        fillRect(labels, width, 1, 1, 5, 5, 2);
+        fillRect(labels, width, 8, 1, 12, 5, 2);
+        // touching the image border and the other class
+        fillRect(labels, width, 12, 0, 21, 9, 7);
+        final List<ContourExtractor.Contour> contours = mExtractor.extract(labels, width, height, BACKGROUND);
+        assertEquals(3, contours.size());
+        int twos = 0;
+        for (ContourExtractor.Contour contour : contours) {
+            twos += contour.label == 2 ? 1 : 0;
+            for (int i = 0; i < 2 * contour.pointCount; i += 2) {
+                assertTrue(contour.points[i] >= 0 && contour.points[i] <= width);
+                assertTrue(contour.points[i + 1] >= 0 && contour.points[i + 1] <= height);
+            }
+        }
+        assertEquals(2, twos);
+    }
+
+    @Test
+    public void negativeBackgroundTracesEveryLabel() {
+        final byte[] labels = new byte[16];
+        labels[5] = 4;
+        // the background gets an outer contour and a hole around the single pixel
+        assertEquals(3, mExtractor.extract(labels, 4, 4, -1).size());
+        assertEquals(1, mExtractor.extract(labels, 4, 4, BACKGROUND).size());
+    }
+
+    @Test
+    public void compressesSmoothMasks() {
+        // a person sized blob and a smaller object on a DeepLab input sized map
+        final int width = 513;
+        final int height = 513;
+        final byte[] labels = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final float dx = (x - 200) / 120.f;
+                final float dy = (y - 300) / 190.f;
+                final float ex = (x - 400) / 60.f;
+                final float ey = (y - 120) / 45.f;
+                if (dx * dx + dy * dy <= 1.f) {
+                    labels[y * width + x] = 15;
+                } else if (ex * ex + ey * ey <= 1.f) {
+                    labels[y * width + x] = 12;
+                }
+            }
+        }
+        final List<ContourExtractor.Contour> contours = mExtractor.extract(labels, width, height, BACKGROUND);
+        assertEquals(2, contours.size());
+        long points = 0;
+        for (ContourExtractor.Contour contour : contours) {
+            points += contour.pointCount;
+            // both ellipses keep their area within the simplification tolerance
+            final double expectedArea = contour.label == 15 ? Math.PI * 120 * 190 : Math.PI * 60 * 45;
+            assertTrue(contour.label == 15 || contour.label == 12);
+            assertEquals(expectedArea, Math.abs(area(contour)), perimeter(contour) * EPSILON);
+        }
+        // float x, y per point against a byte per pixel, the ARGB bitmap is four times larger still
+        final long polygonBytes = points * 2 * 4;
+        final long labelMapBytes = (long) width * height;
+        assertTrue(polygonBytes + " polygon bytes", polygonBytes * 200 < labelMapBytes);
+    }
+
+    private static void fillRect(byte[] labels, int width, int left, int top, int right, int bottom, int label) {
+        for (int y = top; y < bottom; y++) {
+            for (int x = left; x < right; x++) {
+                labels[y * width + x] = (byte) label;
+            }
+        }
+    }
+
+    /** Signed shoelace area, the sign gives the winding. */
+    private static float area(ContourExtractor.Contour contour) {
+        final float[] p = contour.points;
+        final int n = contour.pointCount;
+        float sum = 0.f;
+        for (int i = 0; i < n; i++) {
+            final int j = (i + 1) % n;
+            sum += p[2 * i] * p[2 * j + 1] - p[2 * j] * p[2 * i + 1];
+        }
+        return sum / 2;
+    }
+
+    private static float perimeter(ContourExtractor.Contour contour) {
+        final float[] p = contour.points;
+        final int n = contour.pointCount;
+        float sum = 0.f;
+        for (int i = 0; i < n; i++) {
+            final int j = (i + 1) % n;
+            sum += (float) Math.hypot(p[2 * j] - p[2 * i], p[2 * j + 1] - p[2 * i + 1]);
+        }
+        return sum;
+    }
+}
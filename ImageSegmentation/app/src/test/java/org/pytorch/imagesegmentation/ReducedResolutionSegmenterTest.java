@@ -0,0 +1,72 @@
+package org.pytorch.imagesegmentation;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the area downsampling the coarse pass uses on an already normalized tensor against
+ * averaging every covered source pixel one by one.
+ */
+public class ReducedResolutionSegmenterTest {
+    private static final int[][] SIZES = {
+            // srcWidth, srcHeight, dstWidth, dstHeight, canvasWidth, canvasHeight
+            {224, 224, 79, 79, 80, 80},
+            {250, 197, 88, 69, 88, 72},
+            {37, 29, 13, 10, 16, 16},
+            {5, 3, 5, 3, 8, 8},
+    };
+
+    @Test
+    public void areaDownsampleAveragesCoveredPixels() {
+        for (int[] size : SIZES) {
+            final int srcWidth = size[0];
+            final int srcHeight = size[1];
+            final int dstWidth = size[2];
+            final int dstHeight = size[3];
+            final int canvasWidth = size[4];
+            final int canvasHeight = size[5];
+            final FloatBuffer src = FloatBuffer.allocate(3 * srcWidth * srcHeight);
+            final Random random = new Random(srcWidth * 31 + srcHeight);
+            for (int i = 0; i < src.capacity(); i++) {
+                src.put(i, random.nextFloat() * 4.f - 2.f);
+            }
+            final FloatBuffer dst = FloatBuffer.allocate(3 * canvasWidth * canvasHeight);
+            for (int i = 0; i < dst.capacity(); i++) {
+                dst.put(i, Float.NaN);
+            }
+
+            ReducedResolutionSegmenter.areaDownsample(src, srcWidth, srcHeight, dst,
+                    dstWidth, dstHeight, canvasWidth, canvasHeight, new float[dstWidth]);
+
+            for (int c = 0; c < 3; c++) {
+                for (int y = 0; y < canvasHeight; y++) {
+                    for (int x = 0; x < canvasWidth; x++) {
+                        final float expected = x < dstWidth && y < dstHeight
+                                ? average(src, srcWidth, srcHeight, c, x, y, dstWidth, dstHeight) : 0.f;
+                        assertEquals(srcWidth + "x" + srcHeight + " c=" + c + " x=" + x + " y=" + y,
+                                expected, dst.get((c * canvasHeight + y) * canvasWidth + x), 1e-5f);
+                    }
+                }
+            }
+        }
+    }
+
+    private static float average(FloatBuffer src, int srcWidth, int srcHeight, int c, int x, int y,
+                                 int dstWidth, int dstHeight) {
+        final int x0 = x * srcWidth / dstWidth;
+        final int x1 = Math.max(x0 + 1, (x + 1) * srcWidth / dstWidth);
+        final int y0 = y * srcHeight / dstHeight;
+        final int y1 = Math.max(y0 + 1, (y + 1) * srcHeight / dstHeight);
+        double sum = 0;
+        for (int sy = y0; sy < y1; sy++) {
+            for (int sx = x0; sx < x1; sx++) {
+                sum += src.get((c * srcHeight + sy) * srcWidth + sx);
+            }
+        }
+        return (float) (sum / ((x1 - x0) * (y1 - y0)));
+    }
+}
@@ -0,0 +1,200 @@
+package org.pytorch.imagesegmentation;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks every RleMask query and set operation against the same computation on dense label maps.
+ */
+public class RleMaskTest {
+    private static final int LABELS = 4;
+    private static final int[][] SIZES = {{1, 1}, {1, 17}, {23, 1}, {37, 29}, {130, 7}};
+
+    @Test
+    public void roundTrip() {
+        for (int[] size : SIZES) {
+            final byte[] labels = blockyLabels(size[0], size[1], size[0] * 31 + size[1]);
+            final RleMask mask = encode(labels, size[0], size[1]);
+            assertTrue(mask.isComplete());
+            final byte[] decoded = new byte[labels.length];
+            mask.decode(decoded);
+            assertArrayEquals(labels, decoded);
+            for (int label = 0; label < LABELS; label++) {
+                assertEquals(count(labels, label), mask.area(label));
+                assertEquals(count(labels, label) > 0, mask.contains(label));
+            }
+        }
+    }
+
+    @Test
+    public void refillReusesMask() {
+        final RleMask mask = new RleMask();
+        final byte[] first = blockyLabels(64, 40, 1);
+        final byte[] second = blockyLabels(9, 11, 2);
+        mask.encode(first, 64, 40);
+        mask.encode(second, 9, 11);
+        final byte[] decoded = new byte[second.length];
+        mask.decode(decoded);
+        assertArrayEquals(second, decoded);
+        assertEquals(count(second, 2), mask.area(2));
+    }
+
+    @Test
+    public void labelAt() {
+        final int width = 37;
+        final int height = 29;
+        final byte[] labels = blockyLabels(width, height, 3);
+        final RleMask mask = encode(labels, width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                assertEquals(labels[y * width + x], mask.labelAt(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void bounds() {
+        final int width = 37;
+        final int height = 29;
+        final byte[] labels = new byte[width * height];
+        labels[5 * width + 30] = 2;
+        labels[20 * width + 3] = 2;
+        labels[12 * width + 36] = 3;
+        final RleMask mask = encode(labels, width, height);
+        final int[] bounds = new int[4];
+        assertTrue(mask.bounds(2, bounds));
+        assertArrayEquals(new int[]{3, 5, 31, 21}, bounds);
+        assertTrue(mask.bounds(3, bounds));
+        assertArrayEquals(new int[]{36, 12, 37, 13}, bounds);
+        assertTrue(mask.bounds(0, bounds));
+        assertArrayEquals(new int[]{0, 0, width, height}, bounds);
+        assertFalse(mask.bounds(1, bounds));
+        assertArrayEquals(new int[]{0, 0, width, height}, bounds);
+    }
+
+    @Test
+    public void setOperations() {
+        for (int[] size : SIZES) {
+            final int width = size[0];
+            final int height = size[1];
+            final byte[] labelsA = blockyLabels(width, height, 10 + width);
+            final byte[] labelsB = blockyLabels(width, height, 20 + height);
+            final RleMask a = encode(labelsA, width, height);
+            final RleMask b = encode(labelsB, width, height);
+            final RleMask out = new RleMask();
+            final byte[] decoded = new byte[width * height];
+            for (int labelA = 0; labelA < LABELS; labelA++) {
+                for (int labelB = 0; labelB < LABELS; labelB++) {
+                    RleMask.union(a, labelA, b, labelB, out);
+                    out.decode(decoded);
+                    assertArrayEquals(combine(labelsA, labelA, labelsB, labelB, true), decoded);
+
+                    RleMask.intersection(a, labelA, b, labelB, out);
+                    out.decode(decoded);
+                    final byte[] intersection = combine(labelsA, labelA, labelsB, labelB, false);
+                    assertArrayEquals(intersection, decoded);
+                    assertEquals(count(intersection, RleMask.FOREGROUND),
+                            RleMask.intersectionArea(a, labelA, b, labelB));
+                }
+                final long intersection = count(combine(labelsA, labelA, labelsB, labelA, false), RleMask.FOREGROUND);
+                final long union = count(combine(labelsA, labelA, labelsB, labelA, true), RleMask.FOREGROUND);
+                assertEquals(union == 0 ? 1.f : (float) intersection / union, RleMask.iou(a, b, labelA), 1e-6f);
+            }
+        }
+    }
+
+    @Test
+    public void iouOfIdenticalAndDisjointMasks() {
+        final byte[] left = new byte[8 * 4];
+        final byte[] right = new byte[8 * 4];
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 4; x++) {
+                left[y * 8 + x] = 1;
+                right[y * 8 + x + 4] = 1;
+            }
+        }
+        final RleMask a = encode(left, 8, 4);
+        final RleMask b = encode(right, 8, 4);
+        assertEquals(1.f, RleMask.iou(a, a, 1), 0.f);
+        assertEquals(0.f, RleMask.iou(a, b, 1), 0.f);
+        // neither mask has the label
+        assertEquals(1.f, RleMask.iou(a, b, 3), 0.f);
+    }
+
+    @Test
+    public void subsampledColorRow() {
+        final int width = 130;
+        final int height = 7;
+        final byte[] labels = blockyLabels(width, height, 4);
+        final RleMask mask = encode(labels, width, height);
+        final LabelColorMap colorMap = LabelColorMap.voc();
+        final int[] row = new int[width];
+        final int[] expected = new int[width];
+        for (int y = 0; y < height; y++) {
+            mask.decodeRow(y, colorMap, row, 0);
+            colorMap.apply(labels, y * width, expected, 0, width);
+            assertArrayEquals(expected, row);
+
+            final int[] samples = new int[14];
+            mask.decodeRow(y, 3, 9, samples.length, colorMap, samples, 0);
+            for (int i = 0; i < samples.length; i++) {
+                assertEquals(expected[3 + 9 * i], samples[i]);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMasksOfDifferentSize() {
+        RleMask.union(encode(new byte[12], 4, 3), 0, encode(new byte[12], 3, 4), 0, new RleMask());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOutputAliasingInput() {
+        final RleMask a = encode(new byte[12], 4, 3);
+        RleMask.intersection(a, 0, encode(new byte[12], 4, 3), 0, a);
+    }
+
+    private static RleMask encode(byte[] labels, int width, int height) {
+        final RleMask mask = new RleMask();
+        mask.encode(labels, width, height);
+        return mask;
+    }
+
+    /** Runs of random length and label, like a segmentation mask rather than per pixel noise. */
+    private static byte[] blockyLabels(int width, int height, long seed) {
+        final Random random = new Random(seed);
+        final byte[] labels = new byte[width * height];
+        byte label = 0;
+        for (int i = 0; i < labels.length; i++) {
+            if (random.nextInt(6) == 0) {
+                label = (byte) random.nextInt(LABELS);
+            }
+            labels[i] = label;
+        }
+        return labels;
+    }
+
+    private static byte[] combine(byte[] a, int labelA, byte[] b, int labelB, boolean union) {
+        final byte[] out = new byte[a.length];
+        for (int i = 0; i < a.length; i++) {
+            final boolean inA = a[i] == labelA;
+            final boolean inB = b[i] == labelB;
+            out[i] = (union ? inA || inB : inA && inB) ? (byte) RleMask.FOREGROUND : 0;
+        }
+        return out;
+    }
+
+    private static long count(byte[] labels, int label) {
+        long count = 0;
+        for (byte l : labels) {
+            count += l == label ? 1 : 0;
+        }
+        return count;
+    }
+}
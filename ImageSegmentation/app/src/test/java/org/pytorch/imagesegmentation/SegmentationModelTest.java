@@ -0,0 +1,156 @@
+package org.pytorch.imagesegmentation;
+
+import org.junit.Test;
+import org.pytorch.IValue;
+import org.pytorch.Tensor;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Runs both exported output variants through stub modules built from the same logits, the label
+ * map variant returning their argmax like deeplabv3.py does, and checks the masks are identical.
+ */
+public class SegmentationModelTest {
+    private static final int CLASS_COUNT = 21;
+    private static final int WIDTH = 37;
+    private static final int HEIGHT = 23;
+    private static final int PIXELS = WIDTH * HEIGHT;
+
+    private final SegmentationPostProcessor mPostProcessor =
+            new SegmentationPostProcessor(ForkJoinPool.commonPool());
+    private final float[] mLogits = randomLogits();
+    private final Tensor mInput = Tensor.fromBlob(new float[3 * PIXELS], new long[]{1, 3, HEIGHT, WIDTH});
+
+    /** Returns the same output for every input, like a module with fixed weights on a fixed image. */
+    private static class StubForward implements SegmentationModel.Forward {
+        private final IValue mOutput;
+        boolean destroyed;
+
+        StubForward(IValue output) {
+            mOutput = output;
+        }
+
+        @Override
+        public IValue forward(IValue input) {
+            return mOutput;
+        }
+
+        @Override
+        public void destroy() {
+            destroyed = true;
+        }
+    }
+
+    @Test
+    public void labelMapMatchesLogits() {
+        final byte[] expected = argmax(mLogits);
+
+        final SegmentationModel logitsModel = logitsModel();
+        final byte[] logitsLabels = new byte[PIXELS];
+        logitsModel.segment(mInput, WIDTH, HEIGHT, logitsLabels);
+        assertEquals(SegmentationModel.OUTPUT_LOGITS, logitsModel.getOutputKind());
+        assertArrayEquals(expected, logitsLabels);
+
+        final SegmentationModel labelMapModel = uint8LabelMapModel();
+        final byte[] labelMapLabels = new byte[PIXELS];
+        labelMapModel.segment(mInput, WIDTH, HEIGHT, labelMapLabels);
+        assertEquals(SegmentationModel.OUTPUT_LABEL_MAP, labelMapModel.getOutputKind());
+        assertArrayEquals(logitsLabels, labelMapLabels);
+    }
+
+    @Test
+    public void int64LabelMapMatchesLogits() {
+        final byte[] expected = argmax(mLogits);
+        final long[] labels = new long[PIXELS];
+        for (int i = 0; i < PIXELS; i++) {
+            labels[i] = expected[i];
+        }
+        final SegmentationModel model = new SegmentationModel(new StubForward(
+                IValue.from(Tensor.fromBlob(labels, new long[]{HEIGHT, WIDTH}))), mPostProcessor, CLASS_COUNT);
+        final byte[] out = new byte[PIXELS];
+        model.segment(mInput, WIDTH, HEIGHT, out);
+        assertArrayEquals(expected, out);
+    }
+
+    @Test
+    public void encodedMasksMatch() {
+        final RleMask logitsMask = new RleMask();
+        logitsModel().segment(mInput, WIDTH, HEIGHT, logitsMask);
+        final RleMask labelMapMask = new RleMask();
+        uint8LabelMapModel().segment(mInput, WIDTH, HEIGHT, labelMapMask);
+
+        final byte[] logitsLabels = new byte[PIXELS];
+        logitsMask.decode(logitsLabels);
+        final byte[] labelMapLabels = new byte[PIXELS];
+        labelMapMask.decode(labelMapLabels);
+        assertArrayEquals(argmax(mLogits), logitsLabels);
+        assertArrayEquals(logitsLabels, labelMapLabels);
+    }
+
+    @Test
+    public void forwardLogitsOnlyReturnsLogitsForTheLogitsVariant() {
+        final byte[] labels = new byte[PIXELS];
+        assertArrayEquals(mLogits, logitsModel().forwardLogits(mInput, WIDTH, HEIGHT, labels), 0);
+        assertNull(uint8LabelMapModel().forwardLogits(mInput, WIDTH, HEIGHT, labels));
+        assertArrayEquals(argmax(mLogits), labels);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsLabelMapOfOtherSize() {
+        final SegmentationModel model = new SegmentationModel(new StubForward(
+                IValue.from(Tensor.fromBlobUnsigned(new byte[PIXELS - 1], new long[]{1, PIXELS - 1}))),
+                mPostProcessor, CLASS_COUNT);
+        model.segment(mInput, WIDTH, HEIGHT, new byte[PIXELS]);
+    }
+
+    @Test
+    public void destroyReachesTheModule() {
+        final StubForward forward = new StubForward(null);
+        new SegmentationModel(forward, mPostProcessor, CLASS_COUNT).destroy();
+        assertEquals(true, forward.destroyed);
+    }
+
+    private SegmentationModel logitsModel() {
+        final Tensor logits = Tensor.fromBlob(mLogits, new long[]{1, CLASS_COUNT, HEIGHT, WIDTH});
+        return new SegmentationModel(new StubForward(
+                IValue.dictStringKeyFrom(Collections.singletonMap("out", IValue.from(logits)))),
+                mPostProcessor, CLASS_COUNT);
+    }
+
+    private SegmentationModel uint8LabelMapModel() {
+        return new SegmentationModel(new StubForward(
+                IValue.from(Tensor.fromBlobUnsigned(argmax(mLogits), new long[]{HEIGHT, WIDTH}))),
+                mPostProcessor, CLASS_COUNT);
+    }
+
+    private static float[] randomLogits() {
+        final Random random = new Random(0);
+        final float[] logits = new float[CLASS_COUNT * PIXELS];
+        for (int i = 0; i < logits.length; i++) {
+            // coarse values, so some pixels have tied classes
+            logits[i] = random.nextInt(8);
+        }
+        return logits;
+    }
+
+    /** Argmax over classes, ties pick the first class like torch.argmax. */
+    private static byte[] argmax(float[] logits) {
+        final byte[] labels = new byte[PIXELS];
+        for (int i = 0; i < PIXELS; i++) {
+            int best = 0;
+            for (int c = 1; c < CLASS_COUNT; c++) {
+                if (logits[c * PIXELS + i] > logits[best * PIXELS + i]) {
+                    best = c;
+                }
+            }
+            labels[i] = (byte) best;
+        }
+        return labels;
+    }
+}
@@ -0,0 +1,127 @@
+package org.pytorch.imagesegmentation;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SegmentationPostProcessorTest {
+    private static final int CLASS_COUNT = 21;
+
+    private final ForkJoinPool mPool = new ForkJoinPool(4);
+    private final SegmentationPostProcessor mPostProcessor = new SegmentationPostProcessor(mPool);
+
+    @Test
+    public void nonSquareOddSize() {
+        // wide enough for several bands
+        checkArgmax(1001, 37, 1);
+        checkArgmax(7, 3, 2);
+        checkArgmax(3, 513, 3);
+    }
+
+    @Test
+    public void singlePixelAndSingleClass() {
+        final byte[] labels = new byte[1];
+        mPostProcessor.argmax(new float[]{0.5f, 2, -1}, 3, 1, 1, labels);
+        assertEquals(1, labels[0]);
+        mPostProcessor.argmax(new float[]{-5, -5, -5, -5}, 1, 2, 2, new byte[4]);
+    }
+
+    @Test
+    public void tiesResolveToLowerClass() {
+        final int width = 5;
+        final int height = 3;
+        final int pixels = width * height;
+        final float[] scores = new float[4 * pixels];
+        for (int i = 0; i < pixels; i++) {
+            // classes 1 and 3 share the max at every pixel, class 2 below them
+            scores[pixels + i] = 2;
+            scores[2 * pixels + i] = 1;
+            scores[3 * pixels + i] = 2;
+        }
+        scores[2 * pixels + 7] = 2;
+        final byte[] labels = new byte[pixels];
+        mPostProcessor.argmax(scores, 4, width, height, labels);
+        final byte[] expected = new byte[pixels];
+        Arrays.fill(expected, (byte) 1);
+        assertArrayEquals(expected, labels);
+
+        // all classes equal keeps the background
+        mPostProcessor.argmax(new float[4 * pixels], 4, width, height, labels);
+        assertArrayEquals(new byte[pixels], labels);
+    }
+
+    @Test
+    public void directBufferWithOffset() {
+        final int width = 33;
+        final int height = 17;
+        final float[] scores = randomScores(width, height, 4);
+        final FloatBuffer buffer = ByteBuffer.allocateDirect(4 * (scores.length + 3))
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        buffer.position(3);
+        buffer.put(scores);
+        buffer.position(3);
+        final byte[] labels = new byte[width * height];
+        mPostProcessor.argmax(buffer, CLASS_COUNT, width, height, labels);
+        assertArrayEquals(referenceArgmax(scores, width, height), labels);
+        assertEquals(3, buffer.position());
+    }
+
+    @Test
+    public void rleMaskMatchesLabels() {
+        final int width = 1001;
+        final int height = 37;
+        final float[] scores = randomScores(width, height, 5);
+        final RleMask mask = new RleMask();
+        mPostProcessor.argmax(scores, CLASS_COUNT, width, height, mask);
+        assertEquals(width, mask.getWidth());
+        assertEquals(height, mask.getHeight());
+        final byte[] decoded = new byte[width * height];
+        mask.decode(decoded);
+        assertArrayEquals(referenceArgmax(scores, width, height), decoded);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsShortScores() {
+        mPostProcessor.argmax(new float[CLASS_COUNT * 4 - 1], CLASS_COUNT, 2, 2, new byte[4]);
+    }
+
+    private void checkArgmax(int width, int height, long seed) {
+        final float[] scores = randomScores(width, height, seed);
+        final byte[] labels = new byte[width * height];
+        mPostProcessor.argmax(scores, CLASS_COUNT, width, height, labels);
+        assertArrayEquals(referenceArgmax(scores, width, height), labels);
+    }
+
+    private static float[] randomScores(int width, int height, long seed) {
+        final Random random = new Random(seed);
+        final float[] scores = new float[CLASS_COUNT * width * height];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = random.nextFloat();
+        }
+        return scores;
+    }
+
+    /** Pixel by pixel argmax, the first of equal scores wins. */
+    private static byte[] referenceArgmax(float[] scores, int width, int height) {
+        final int pixels = width * height;
+        final byte[] labels = new byte[pixels];
+        for (int i = 0; i < pixels; i++) {
+            int best = 0;
+            for (int c = 1; c < CLASS_COUNT; c++) {
+                if (scores[c * pixels + i] > scores[best * pixels + i]) {
+                    best = c;
+                }
+            }
+            labels[i] = (byte) best;
+        }
+        return labels;
+    }
+}
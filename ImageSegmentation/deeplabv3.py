@@ -6,3 +6,19 @@ model.eval()
 scriptedm = torch.jit.script(model)
 torch.jit.save(scriptedm, "deeplabv3_scripted.pt")
 
+
+class DeepLabV3LabelMap(torch.nn.Module):
+    """Returns the per-pixel argmax of the DeepLabV3 logits as a uint8 label map of shape HxW,
+    so the app receives one byte per pixel instead of 21 floats."""
+
+    def __init__(self, model):
+        super(DeepLabV3LabelMap, self).__init__()
+        self.model = model
+
+    def forward(self, x):
+        out = self.model(x)["out"]
+        return out.argmax(1)[0].to(torch.uint8)
+
+
+labelmapm = torch.jit.script(DeepLabV3LabelMap(model))
+torch.jit.save(labelmapm, "deeplabv3_labelmap_scripted.pt")
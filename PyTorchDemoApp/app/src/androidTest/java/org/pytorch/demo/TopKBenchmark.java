@@ -0,0 +1,114 @@
+package org.pytorch.demo;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+/**
+ * Compares {@link TopK} with the insertion loop it replaced and with sorting all indices by
+ * score. Run it with {@code ./gradlew connectedAndroidTest}, results are printed to logcat and
+ * written to the benchmark json report.
+ */
+@RunWith(Parameterized.class)
+public class TopKBenchmark {
+  @Parameterized.Parameters(name = "n={0},k={1}")
+  public static Collection<Object[]> parameters() {
+    return Arrays.asList(new Object[][]{
+        {1000, 3},
+        {1000, 100},
+        {100_000, 10},
+    });
+  }
+
+  @Rule
+  public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+  private final int mN;
+  private final int mK;
+  private float[] mScores;
+
+  public TopKBenchmark(int n, int k) {
+    mN = n;
+    mK = k;
+  }
+
+  @Before
+  public void setUp() {
+    final Random random = new Random(0);
+    mScores = new float[mN];
+    for (int i = 0; i < mN; i++) {
+      mScores[i] = (float) random.nextGaussian();
+    }
+  }
+
+  @Test
+  public void topK() {
+    final TopK topK = new TopK();
+    final int[] ixs = new int[mK];
+    final float[] values = new float[mK];
+    final BenchmarkState state = mBenchmarkRule.getState();
+    while (state.keepRunning()) {
+      topK.select(mScores, mK, ixs, values);
+    }
+  }
+
+  @Test
+  public void insertion() {
+    final BenchmarkState state = mBenchmarkRule.getState();
+    while (state.keepRunning()) {
+      insertionTopK(mScores, mK);
+    }
+  }
+
+  @Test
+  public void sortIndices() {
+    final BenchmarkState state = mBenchmarkRule.getState();
+    while (state.keepRunning()) {
+      sortTopK(mScores, mK);
+    }
+  }
+
+  /** The selection used before {@link TopK}, O(n * k). */
+  static int[] insertionTopK(float[] a, int topk) {
+    final float[] values = new float[topk];
+    Arrays.fill(values, -Float.MAX_VALUE);
+    final int[] ixs = new int[topk];
+    Arrays.fill(ixs, -1);
+    for (int i = 0; i < a.length; i++) {
+      for (int j = 0; j < topk; j++) {
+        if (a[i] > values[j]) {
+          for (int k = topk - 1; k >= j + 1; k--) {
+            values[k] = values[k - 1];
+            ixs[k] = ixs[k - 1];
+          }
+          values[j] = a[i];
+          ixs[j] = i;
+          break;
+        }
+      }
+    }
+    return ixs;
+  }
+
+  static int[] sortTopK(float[] a, int topk) {
+    final Integer[] order = new Integer[a.length];
+    for (int i = 0; i < a.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (lhs, rhs) -> Float.compare(a[rhs], a[lhs]));
+    final int[] ixs = new int[topk];
+    for (int i = 0; i < topk; i++) {
+      ixs[i] = order[i];
+    }
+    return ixs;
+  }
+}
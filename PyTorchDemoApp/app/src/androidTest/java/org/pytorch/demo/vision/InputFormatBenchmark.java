@@ -0,0 +1,147 @@
+package org.pytorch.demo.vision;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.pytorch.IValue;
+import org.pytorch.Module;
+import org.pytorch.Tensor;
+import org.pytorch.demo.Utils;
+import org.pytorch.torchvision.TensorImageUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeNotNull;
+
+/**
+ * Times preprocess and forward of every input format {@link ImageClassificationActivity} accepts,
+ * on a 640x480 frame with interleaved chroma rotated by 90 degrees into a 224x224 tensor.
+ * Forward needs the modules exported by {@code input_formats.py --all-formats} into the
+ * instrumentation test assets and is skipped without them. Run it with
+ * {@code ./gradlew connectedAndroidTest}, results are printed to logcat and written to the
+ * benchmark json report.
+ */
+@RunWith(Parameterized.class)
+public class InputFormatBenchmark {
+  private static final String MODEL_NAME = "mobilenet_v2";
+  private static final int FRAME_WIDTH = 640;
+  private static final int FRAME_HEIGHT = 480;
+  private static final int ROTATION_DEGREES = 90;
+  private static final int TENSOR_SIZE = 224;
+
+  @Parameterized.Parameters(name = "{1}")
+  public static Collection<Object[]> parameters() {
+    return Arrays.asList(new Object[][]{
+        {Yuv420TensorConverter.FORMAT_FLOAT32_NCHW, "float32_nchw"},
+        {Yuv420TensorConverter.FORMAT_FLOAT32_NHWC, "float32_nhwc"},
+        {Yuv420TensorConverter.FORMAT_UINT8_NHWC, "uint8_nhwc"},
+    });
+  }
+
+  @Rule
+  public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+  private final int mFormat;
+  private final String mFormatName;
+  private final ByteBuffer mYBuffer = ByteBuffer.allocateDirect(FRAME_WIDTH * FRAME_HEIGHT);
+  private ByteBuffer mUBuffer;
+  private ByteBuffer mVBuffer;
+  private Yuv420TensorConverter mConverter;
+  private FloatBuffer mFloatBuffer;
+  private ByteBuffer mByteBuffer;
+  private Tensor mTensor;
+  private Module mModule;
+
+  public InputFormatBenchmark(int format, String formatName) {
+    mFormat = format;
+    mFormatName = formatName;
+  }
+
+  @Before
+  public void setUp() {
+    final Random random = new Random(0);
+    final byte[] y = new byte[FRAME_WIDTH * FRAME_HEIGHT];
+    random.nextBytes(y);
+    mYBuffer.put(y);
+    mYBuffer.rewind();
+    // V and U interleaved in one buffer with a pixel stride of 2, as most cameras deliver them
+    final byte[] chroma = new byte[FRAME_WIDTH * FRAME_HEIGHT / 2];
+    random.nextBytes(chroma);
+    final ByteBuffer chromaBuffer = ByteBuffer.allocateDirect(chroma.length);
+    chromaBuffer.put(chroma);
+    chromaBuffer.position(0).limit(chroma.length - 1);
+    mVBuffer = chromaBuffer.slice();
+    chromaBuffer.position(1).limit(chroma.length);
+    mUBuffer = chromaBuffer.slice();
+
+    mConverter = new Yuv420TensorConverter(TENSOR_SIZE, TENSOR_SIZE, mFormat,
+        TensorImageUtils.TORCHVISION_NORM_MEAN_RGB,
+        TensorImageUtils.TORCHVISION_NORM_STD_RGB,
+        ForkJoinPool.commonPool());
+    // same tensors as the input slots of ImageClassificationActivity
+    final long[] shape = mFormat == Yuv420TensorConverter.FORMAT_FLOAT32_NCHW
+        ? new long[]{1, 3, TENSOR_SIZE, TENSOR_SIZE}
+        : new long[]{1, TENSOR_SIZE, TENSOR_SIZE, 3};
+    if (mFormat == Yuv420TensorConverter.FORMAT_UINT8_NHWC) {
+      mByteBuffer = Tensor.allocateByteBuffer(3 * TENSOR_SIZE * TENSOR_SIZE);
+      mTensor = Tensor.fromBlobUnsigned(mByteBuffer, shape);
+    } else {
+      mFloatBuffer = Tensor.allocateFloatBuffer(3 * TENSOR_SIZE * TENSOR_SIZE);
+      mTensor = Tensor.fromBlob(mFloatBuffer, shape);
+    }
+  }
+
+  @After
+  public void tearDown() {
+    if (mModule != null) {
+      mModule.destroy();
+    }
+  }
+
+  @Test
+  public void preprocess() {
+    final BenchmarkState state = mBenchmarkRule.getState();
+    while (state.keepRunning()) {
+      convert();
+    }
+  }
+
+  @Test
+  public void forward() {
+    final String modulePath = Utils.assetFilePath(
+        InstrumentationRegistry.getInstrumentation().getContext(),
+        MODEL_NAME + "_" + mFormatName + ".pt");
+    assumeNotNull(modulePath);
+    mModule = Module.load(modulePath);
+    assertEquals(mFormatName, mModule.runMethod("input_format").toStr());
+    convert();
+    final IValue input = IValue.from(mTensor);
+    final BenchmarkState state = mBenchmarkRule.getState();
+    while (state.keepRunning()) {
+      mModule.forward(input);
+    }
+  }
+
+  private void convert() {
+    if (mFormat == Yuv420TensorConverter.FORMAT_UINT8_NHWC) {
+      mConverter.convert(FRAME_WIDTH, FRAME_HEIGHT, ROTATION_DEGREES,
+          mYBuffer, FRAME_WIDTH, 1, mUBuffer, mVBuffer, FRAME_WIDTH, 2, mByteBuffer, 0);
+    } else {
+      mConverter.convert(FRAME_WIDTH, FRAME_HEIGHT, ROTATION_DEGREES,
+          mYBuffer, FRAME_WIDTH, 1, mUBuffer, mVBuffer, FRAME_WIDTH, 2, mFloatBuffer, 0);
+    }
+  }
+}
@@ -0,0 +1,154 @@
+package org.pytorch.demo.vision;
+
+import android.annotation.TargetApi;
+import android.graphics.ImageFormat;
+import android.media.Image;
+import android.media.ImageReader;
+import android.media.ImageWriter;
+import android.os.Build;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.pytorch.Tensor;
+import org.pytorch.torchvision.TensorImageUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compares {@link Yuv420TensorConverter} with
+ * {@code TensorImageUtils.imageYUV420CenterCropToFloatBuffer} on a 640x480 YUV_420_888 frame in
+ * the layout of the device camera, rotated by 90 degrees into a 224x224 tensor as in
+ * {@link ImageClassificationActivity}. Frames come from an {@link ImageWriter}, so it needs API 23
+ * and is skipped below. Run it with {@code ./gradlew connectedAndroidTest}, results are printed to
+ * logcat and written to the benchmark json report.
+ */
+@RunWith(AndroidJUnit4.class)
+@TargetApi(Build.VERSION_CODES.M)
+public class Yuv420TensorConverterBenchmark {
+  private static final int FRAME_WIDTH = 640;
+  private static final int FRAME_HEIGHT = 480;
+  private static final int ROTATION_DEGREES = 90;
+  private static final int TENSOR_SIZE = 224;
+
+  @Rule
+  public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+  private ImageReader mImageReader;
+  private ImageWriter mImageWriter;
+  private Image mImage;
+  private final FloatBuffer mFloatBuffer = Tensor.allocateFloatBuffer(3 * TENSOR_SIZE * TENSOR_SIZE);
+
+  @Before
+  public void setUp() {
+    assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.M);
+    mImageReader = ImageReader.newInstance(FRAME_WIDTH, FRAME_HEIGHT, ImageFormat.YUV_420_888, 2);
+    mImageWriter = ImageWriter.newInstance(mImageReader.getSurface(), 2);
+    mImage = mImageWriter.dequeueInputImage();
+    final Random random = new Random(0);
+    for (Image.Plane plane : mImage.getPlanes()) {
+      final ByteBuffer buffer = plane.getBuffer();
+      final byte[] bytes = new byte[buffer.remaining()];
+      random.nextBytes(bytes);
+      buffer.put(bytes);
+      buffer.rewind();
+    }
+  }
+
+  @After
+  public void tearDown() {
+    if (mImage != null) {
+      mImage.close();
+    }
+    if (mImageWriter != null) {
+      mImageWriter.close();
+    }
+    if (mImageReader != null) {
+      mImageReader.close();
+    }
+  }
+
+  @Test
+  public void torchvisionHelper() {
+    final BenchmarkState state = mBenchmarkRule.getState();
+    while (state.keepRunning()) {
+      TensorImageUtils.imageYUV420CenterCropToFloatBuffer(mImage, ROTATION_DEGREES,
+          TENSOR_SIZE, TENSOR_SIZE,
+          TensorImageUtils.TORCHVISION_NORM_MEAN_RGB,
+          TensorImageUtils.TORCHVISION_NORM_STD_RGB,
+          mFloatBuffer, 0);
+    }
+  }
+
+  @Test
+  public void converterFloat32Nchw() {
+    final Yuv420TensorConverter converter = converter(Yuv420TensorConverter.FORMAT_FLOAT32_NCHW,
+        ForkJoinPool.commonPool());
+    final BenchmarkState state = mBenchmarkRule.getState();
+    while (state.keepRunning()) {
+      converter.convert(mImage, ROTATION_DEGREES, mFloatBuffer, 0);
+    }
+  }
+
+  @Test
+  public void converterFloat32NchwOneThread() {
+    final ForkJoinPool pool = new ForkJoinPool(1);
+    try {
+      final Yuv420TensorConverter converter =
+          converter(Yuv420TensorConverter.FORMAT_FLOAT32_NCHW, pool);
+      final BenchmarkState state = mBenchmarkRule.getState();
+      while (state.keepRunning()) {
+        converter.convert(mImage, ROTATION_DEGREES, mFloatBuffer, 0);
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void converterUint8Nhwc() {
+    final Yuv420TensorConverter converter = converter(Yuv420TensorConverter.FORMAT_UINT8_NHWC,
+        ForkJoinPool.commonPool());
+    final ByteBuffer byteBuffer = Tensor.allocateByteBuffer(3 * TENSOR_SIZE * TENSOR_SIZE);
+    final BenchmarkState state = mBenchmarkRule.getState();
+    while (state.keepRunning()) {
+      converter.convert(mImage, ROTATION_DEGREES, byteBuffer, 0);
+    }
+  }
+
+  @Test
+  public void converterMatchesTorchvisionHelper() {
+    TensorImageUtils.imageYUV420CenterCropToFloatBuffer(mImage, ROTATION_DEGREES,
+        TENSOR_SIZE, TENSOR_SIZE,
+        TensorImageUtils.TORCHVISION_NORM_MEAN_RGB,
+        TensorImageUtils.TORCHVISION_NORM_STD_RGB,
+        mFloatBuffer, 0);
+    final FloatBuffer converted = Tensor.allocateFloatBuffer(3 * TENSOR_SIZE * TENSOR_SIZE);
+    converter(Yuv420TensorConverter.FORMAT_FLOAT32_NCHW, ForkJoinPool.commonPool())
+        .convert(mImage, ROTATION_DEGREES, converted, 0);
+    // one 8-bit level after normalization by the smallest std
+    final float tolerance = 1.f / 255 / 0.224f;
+    for (int i = 0; i < converted.capacity(); i++) {
+      assertEquals("element " + i, mFloatBuffer.get(i), converted.get(i), tolerance);
+    }
+  }
+
+  private static Yuv420TensorConverter converter(int format, ForkJoinPool pool) {
+    return new Yuv420TensorConverter(TENSOR_SIZE, TENSOR_SIZE, format,
+        TensorImageUtils.TORCHVISION_NORM_MEAN_RGB,
+        TensorImageUtils.TORCHVISION_NORM_STD_RGB,
+        pool);
+  }
+}
@@ -11,6 +11,7 @@ public class InfoViewFactory {
   public static final int INFO_VIEW_TYPE_IMAGE_CLASSIFICATION_RESNET = 1;
   public static final int INFO_VIEW_TYPE_IMAGE_CLASSIFICATION_QMOBILENET = 2;
   public static final int INFO_VIEW_TYPE_TEXT_CLASSIFICATION = 3;
+  public static final int INFO_VIEW_TYPE_IMAGE_SEGMENTATION_DEEPLAB = 4;
 
   public static View newInfoView(Context context, int infoViewType, @Nullable String additionalText) {
     LayoutInflater inflater = LayoutInflater.from(context);
@@ -46,6 +47,18 @@ public class InfoViewFactory {
       infoTextView.setText(R.string.nlp_card_lstm_title);
       descriptionTextView.setText(R.string.nlp_card_lstm_description);
       return view;
+    } else if (INFO_VIEW_TYPE_IMAGE_SEGMENTATION_DEEPLAB == infoViewType) {
+      View view = inflater.inflate(R.layout.info, null, false);
+      TextView infoTextView = view.findViewById(R.id.info_title);
+      TextView descriptionTextView = view.findViewById(R.id.info_description);
+
+      infoTextView.setText(R.string.vision_card_deeplab_title);
+      StringBuilder sb = new StringBuilder(context.getString(R.string.vision_card_deeplab_description));
+      if (additionalText != null) {
+        sb.append('\n').append(additionalText);
+      }
+      descriptionTextView.setText(sb.toString());
+      return view;
     }
     throw new IllegalArgumentException("Unknown info view type");
   }
@@ -0,0 +1,132 @@
+package org.pytorch.demo;
+
+import java.util.Arrays;
+
+/**
+ * Per-stage latency statistics over a sliding window of the most recent samples.
+ *
+ * Every stage keeps a ring buffer of raw nanosecond samples and a log-bucketed histogram of the
+ * same window: each power of two is split into {@code 2^SUB_BUCKET_BITS} linear sub-buckets, so
+ * reported percentiles are within 12.5% of the true value. Overwriting the oldest sample
+ * decrements its bucket, all storage is allocated in the constructor and recording never
+ * allocates.
+ */
+public class LatencyRecorder {
+  public static final int STAGE_PREPROCESS = 0;
+  public static final int STAGE_FORWARD = 1;
+  public static final int STAGE_TOP_K = 2;
+  /** Output processing of models without top-K, such as mask smoothing. */
+  public static final int STAGE_POSTPROCESS = 3;
+  public static final int STAGE_UI_APPLY = 4;
+  /** Whole analysis of a frame, from the start of preprocessing to the end of output processing. */
+  public static final int STAGE_ANALYSIS = 5;
+  /** Time between consecutive results, shorter than the analysis when frames overlap. */
+  public static final int STAGE_RESULT_INTERVAL = 6;
+  public static final int STAGE_COUNT = 7;
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) << SUB_BUCKET_BITS;
+
+  private final int mWindowSize;
+  private final long[][] mSamples;
+  private final int[][] mHistograms;
+  private final int[] mNext;
+  private final int[] mCount;
+
+  public LatencyRecorder(int windowSize) {
+    if (windowSize <= 0) {
+      throw new IllegalArgumentException("Window size must be positive");
+    }
+    mWindowSize = windowSize;
+    mSamples = new long[STAGE_COUNT][windowSize];
+    mHistograms = new int[STAGE_COUNT][BUCKET_COUNT];
+    mNext = new int[STAGE_COUNT];
+    mCount = new int[STAGE_COUNT];
+  }
+
+  public synchronized void record(int stage, long durationNanos) {
+    final long value = Math.max(0, durationNanos);
+    final long[] samples = mSamples[stage];
+    final int[] histogram = mHistograms[stage];
+    final int slot = mNext[stage];
+    if (mCount[stage] == mWindowSize) {
+      histogram[bucketIndex(samples[slot])]--;
+    } else {
+      mCount[stage]++;
+    }
+    samples[slot] = value;
+    histogram[bucketIndex(value)]++;
+    mNext[stage] = slot + 1 == mWindowSize ? 0 : slot + 1;
+  }
+
+  /** Number of samples currently in the window of the stage. */
+  public synchronized int count(int stage) {
+    return mCount[stage];
+  }
+
+  /** @return the most recent sample, 0 if nothing was recorded */
+  public synchronized long lastNanos(int stage) {
+    if (mCount[stage] == 0) {
+      return 0;
+    }
+    final int slot = mNext[stage] == 0 ? mWindowSize - 1 : mNext[stage] - 1;
+    return mSamples[stage][slot];
+  }
+
+  public synchronized long maxNanos(int stage) {
+    final long[] samples = mSamples[stage];
+    long max = 0;
+    for (int i = 0, count = mCount[stage]; i < count; i++) {
+      max = Math.max(max, samples[i]);
+    }
+    return max;
+  }
+
+  /**
+   * @param percentile in range (0, 100]
+   * @return upper bound of the bucket holding the percentile, capped by the window maximum
+   */
+  public synchronized long percentileNanos(int stage, double percentile) {
+    final int count = mCount[stage];
+    if (count == 0) {
+      return 0;
+    }
+    final long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+    final int[] histogram = mHistograms[stage];
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += histogram[i];
+      if (seen >= rank) {
+        return Math.min(bucketUpperBound(i), maxNanos(stage));
+      }
+    }
+    return maxNanos(stage);
+  }
+
+  public synchronized void reset() {
+    for (int stage = 0; stage < STAGE_COUNT; stage++) {
+      Arrays.fill(mHistograms[stage], 0);
+      mNext[stage] = 0;
+      mCount[stage] = 0;
+    }
+  }
+
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    final int exponent = 63 - Long.numberOfLeadingZeros(value);
+    final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+    return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + subBucket;
+  }
+
+  static long bucketUpperBound(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+    final long lower = ((long) (SUB_BUCKET_COUNT + (index & (SUB_BUCKET_COUNT - 1)))) << shift;
+    return lower + (1L << shift) - 1;
+  }
+}
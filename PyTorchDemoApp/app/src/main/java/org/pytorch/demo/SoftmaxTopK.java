@@ -0,0 +1,113 @@
+package org.pytorch.demo;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Softmax probabilities of the top-K logits computed in a single streaming pass.
+ *
+ * The pass keeps an online log-sum-exp (running max and a sum rescaled whenever the max grows)
+ * next to the bounded min-heap of {@link TopK}, so only the k selected logits are exponentiated
+ * a second time and no array of the input size is needed. {@code -Infinity} logits get
+ * probability 0, k of 0 only computes the log-sum-exp.
+ */
+public class SoftmaxTopK {
+
+  /**
+   * @return log-sum-exp of all logits, {@code probability = exp(logit - logSumExp)}
+   */
+  public static float select(float[] logits, int k, int[] outIxs, float[] outLogits,
+                             float[] outProbabilities) {
+    final int n = logits.length;
+    final int count = checkArgs(n, k, outIxs, outLogits, outProbabilities);
+
+    float max = Float.NEGATIVE_INFINITY;
+    double sum = 0.0;
+    for (int i = 0; i < n; i++) {
+      final float v = logits[i];
+      if (v > max) {
+        // -Infinity logits add nothing, so the sum is still 0 while the max is -Infinity
+        sum = max == Float.NEGATIVE_INFINITY ? 1.0 : sum * Math.exp(max - v) + 1.0;
+        max = v;
+      } else if (v != Float.NEGATIVE_INFINITY) {
+        sum += Math.exp(v - max);
+      }
+
+      if (i < count) {
+        outIxs[i] = i;
+        outLogits[i] = v;
+        if (i == count - 1) {
+          TopK.heapify(outIxs, outLogits, count);
+        }
+      } else if (count > 0 && TopK.ranksAbove(v, i, outLogits[0], outIxs[0])) {
+        outIxs[0] = i;
+        outLogits[0] = v;
+        TopK.siftDown(outIxs, outLogits, 0, count);
+      }
+    }
+    return finish(count, max, sum, outIxs, outLogits, outProbabilities);
+  }
+
+  /**
+   * Streams over the remaining elements of {@code logits}, indices are relative to its position.
+   * The buffer position is not changed.
+   *
+   * @return log-sum-exp of all logits, {@code probability = exp(logit - logSumExp)}
+   */
+  public static float select(FloatBuffer logits, int k, int[] outIxs, float[] outLogits,
+                             float[] outProbabilities) {
+    final int base = logits.position();
+    final int n = logits.remaining();
+    final int count = checkArgs(n, k, outIxs, outLogits, outProbabilities);
+
+    float max = Float.NEGATIVE_INFINITY;
+    double sum = 0.0;
+    for (int i = 0; i < n; i++) {
+      final float v = logits.get(base + i);
+      if (v > max) {
+        // -Infinity logits add nothing, so the sum is still 0 while the max is -Infinity
+        sum = max == Float.NEGATIVE_INFINITY ? 1.0 : sum * Math.exp(max - v) + 1.0;
+        max = v;
+      } else if (v != Float.NEGATIVE_INFINITY) {
+        sum += Math.exp(v - max);
+      }
+
+      if (i < count) {
+        outIxs[i] = i;
+        outLogits[i] = v;
+        if (i == count - 1) {
+          TopK.heapify(outIxs, outLogits, count);
+        }
+      } else if (count > 0 && TopK.ranksAbove(v, i, outLogits[0], outIxs[0])) {
+        outIxs[0] = i;
+        outLogits[0] = v;
+        TopK.siftDown(outIxs, outLogits, 0, count);
+      }
+    }
+    return finish(count, max, sum, outIxs, outLogits, outProbabilities);
+  }
+
+  private static int checkArgs(int n, int k, int[] outIxs, float[] outLogits,
+                               float[] outProbabilities) {
+    if (n == 0) {
+      throw new IllegalArgumentException("Softmax of empty logits");
+    }
+    if (k < 0) {
+      throw new IllegalArgumentException("k must be non-negative");
+    }
+    final int count = Math.min(k, n);
+    if (outIxs.length < count || outLogits.length < count || outProbabilities.length < count) {
+      throw new IllegalArgumentException("Output buffers are smaller than " + count);
+    }
+    return count;
+  }
+
+  private static float finish(int count, float max, double sum, int[] outIxs, float[] outLogits,
+                              float[] outProbabilities) {
+    TopK.heapSortDescending(outIxs, outLogits, count);
+    final double logSumExp = max + Math.log(sum);
+    for (int i = 0; i < count; i++) {
+      outProbabilities[i] = (float) Math.exp(outLogits[i] - logSumExp);
+    }
+    return (float) logSumExp;
+  }
+}
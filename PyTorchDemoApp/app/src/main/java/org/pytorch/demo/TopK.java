@@ -0,0 +1,424 @@
+package org.pytorch.demo;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Top-K selection that writes results into caller-supplied index/value buffers.
+ *
+ * Results are ordered by descending value, equal values by ascending index, NaN ranks below
+ * everything else. Small k relative to n uses a bounded min-heap kept directly in the output
+ * buffers (O(n log k)), larger k uses quickselect over an index scratch array (O(n + k log k)).
+ * Scratch arrays are owned by the instance and only grow, so repeated calls with the same
+ * sizes do not allocate. Instances are not thread safe.
+ */
+public class TopK {
+  /** Heap is used while {@code k * HEAP_SELECTION_RATIO <= n}. */
+  private static final int HEAP_SELECTION_RATIO = 32;
+
+  private int[] mIxsScratch = new int[0];
+  private float[] mFloatScratch = new float[0];
+
+  /**
+   * @return number of written results, {@code min(k, a.length)}
+   */
+  public int select(float[] a, int k, int[] outIxs, float[] outValues) {
+    final int n = a.length;
+    final int count = checkArgs(n, k, outIxs.length, outValues.length);
+    if (count == 0) {
+      return 0;
+    }
+    if (count * HEAP_SELECTION_RATIO <= n) {
+      heapSelect(a, count, outIxs, outValues);
+    } else {
+      final int[] ixs = ixsScratch(n);
+      quickSelect(a, ixs, n, count);
+      sortPrefix(a, ixs, count);
+      for (int i = 0; i < count; i++) {
+        outIxs[i] = ixs[i];
+        outValues[i] = a[ixs[i]];
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Selects over the remaining elements of {@code buffer}, indices are relative to its position.
+   * The buffer position is not changed.
+   *
+   * @return number of written results, {@code min(k, buffer.remaining())}
+   */
+  public int select(FloatBuffer buffer, int k, int[] outIxs, float[] outValues) {
+    final int n = buffer.remaining();
+    final int count = checkArgs(n, k, outIxs.length, outValues.length);
+    if (count == 0) {
+      return 0;
+    }
+    if (count * HEAP_SELECTION_RATIO <= n) {
+      heapSelect(buffer, count, outIxs, outValues);
+      return count;
+    }
+    if (mFloatScratch.length < n) {
+      mFloatScratch = new float[n];
+    }
+    final float[] a = mFloatScratch;
+    buffer.duplicate().get(a, 0, n);
+    final int[] ixs = ixsScratch(n);
+    quickSelect(a, ixs, n, count);
+    sortPrefix(a, ixs, count);
+    for (int i = 0; i < count; i++) {
+      outIxs[i] = ixs[i];
+      outValues[i] = a[ixs[i]];
+    }
+    return count;
+  }
+
+  /**
+   * @return number of written results, {@code min(k, a.length)}
+   */
+  public int select(double[] a, int k, int[] outIxs, double[] outValues) {
+    final int n = a.length;
+    final int count = checkArgs(n, k, outIxs.length, outValues.length);
+    if (count == 0) {
+      return 0;
+    }
+    if (count * HEAP_SELECTION_RATIO <= n) {
+      heapSelect(a, count, outIxs, outValues);
+    } else {
+      final int[] ixs = ixsScratch(n);
+      quickSelect(a, ixs, n, count);
+      sortPrefix(a, ixs, count);
+      for (int i = 0; i < count; i++) {
+        outIxs[i] = ixs[i];
+        outValues[i] = a[ixs[i]];
+      }
+    }
+    return count;
+  }
+
+  private static int checkArgs(int n, int k, int ixsLength, int valuesLength) {
+    if (k < 0) {
+      throw new IllegalArgumentException("k must be non-negative");
+    }
+    final int count = Math.min(k, n);
+    if (ixsLength < count || valuesLength < count) {
+      throw new IllegalArgumentException("Output buffers are smaller than " + count);
+    }
+    return count;
+  }
+
+  private int[] ixsScratch(int n) {
+    if (mIxsScratch.length < n) {
+      mIxsScratch = new int[n];
+    }
+    final int[] ixs = mIxsScratch;
+    for (int i = 0; i < n; i++) {
+      ixs[i] = i;
+    }
+    return ixs;
+  }
+
+  /** Total order used for ranking: higher value first, then lower index, NaN last. */
+  static boolean ranksAbove(float va, int ia, float vb, int ib) {
+    if (va > vb) {
+      return true;
+    }
+    if (va < vb) {
+      return false;
+    }
+    if (va == vb) {
+      return ia < ib;
+    }
+    final boolean aNaN = va != va;
+    final boolean bNaN = vb != vb;
+    if (aNaN != bNaN) {
+      return bNaN;
+    }
+    return ia < ib;
+  }
+
+  static boolean ranksAbove(double va, int ia, double vb, int ib) {
+    if (va > vb) {
+      return true;
+    }
+    if (va < vb) {
+      return false;
+    }
+    if (va == vb) {
+      return ia < ib;
+    }
+    final boolean aNaN = va != va;
+    final boolean bNaN = vb != vb;
+    if (aNaN != bNaN) {
+      return bNaN;
+    }
+    return ia < ib;
+  }
+
+  // Bounded min-heap: the lowest ranked of the current top-k sits at the root.
+
+  private static void heapSelect(float[] a, int k, int[] hIxs, float[] hValues) {
+    for (int i = 0; i < k; i++) {
+      hIxs[i] = i;
+      hValues[i] = a[i];
+    }
+    heapify(hIxs, hValues, k);
+    for (int i = k, n = a.length; i < n; i++) {
+      final float v = a[i];
+      if (ranksAbove(v, i, hValues[0], hIxs[0])) {
+        hIxs[0] = i;
+        hValues[0] = v;
+        siftDown(hIxs, hValues, 0, k);
+      }
+    }
+    heapSortDescending(hIxs, hValues, k);
+  }
+
+  private static void heapSelect(FloatBuffer buffer, int k, int[] hIxs, float[] hValues) {
+    final int base = buffer.position();
+    final int n = buffer.remaining();
+    for (int i = 0; i < k; i++) {
+      hIxs[i] = i;
+      hValues[i] = buffer.get(base + i);
+    }
+    heapify(hIxs, hValues, k);
+    for (int i = k; i < n; i++) {
+      final float v = buffer.get(base + i);
+      if (ranksAbove(v, i, hValues[0], hIxs[0])) {
+        hIxs[0] = i;
+        hValues[0] = v;
+        siftDown(hIxs, hValues, 0, k);
+      }
+    }
+    heapSortDescending(hIxs, hValues, k);
+  }
+
+  static void heapify(int[] hIxs, float[] hValues, int size) {
+    for (int i = (size >>> 1) - 1; i >= 0; i--) {
+      siftDown(hIxs, hValues, i, size);
+    }
+  }
+
+  static void siftDown(int[] hIxs, float[] hValues, int i, int size) {
+    final int ix = hIxs[i];
+    final float v = hValues[i];
+    int child;
+    while ((child = 2 * i + 1) < size) {
+      final int right = child + 1;
+      if (right < size && ranksAbove(hValues[child], hIxs[child], hValues[right], hIxs[right])) {
+        child = right;
+      }
+      if (!ranksAbove(v, ix, hValues[child], hIxs[child])) {
+        break;
+      }
+      hIxs[i] = hIxs[child];
+      hValues[i] = hValues[child];
+      i = child;
+    }
+    hIxs[i] = ix;
+    hValues[i] = v;
+  }
+
+  /** Repeatedly moves the root to the end, leaving the best element at index 0. */
+  static void heapSortDescending(int[] hIxs, float[] hValues, int size) {
+    for (int end = size - 1; end > 0; end--) {
+      final int ix = hIxs[0];
+      final float v = hValues[0];
+      hIxs[0] = hIxs[end];
+      hValues[0] = hValues[end];
+      hIxs[end] = ix;
+      hValues[end] = v;
+      siftDown(hIxs, hValues, 0, end);
+    }
+  }
+
+  private static void heapSelect(double[] a, int k, int[] hIxs, double[] hValues) {
+    for (int i = 0; i < k; i++) {
+      hIxs[i] = i;
+      hValues[i] = a[i];
+    }
+    for (int i = (k >>> 1) - 1; i >= 0; i--) {
+      siftDown(hIxs, hValues, i, k);
+    }
+    for (int i = k, n = a.length; i < n; i++) {
+      final double v = a[i];
+      if (ranksAbove(v, i, hValues[0], hIxs[0])) {
+        hIxs[0] = i;
+        hValues[0] = v;
+        siftDown(hIxs, hValues, 0, k);
+      }
+    }
+    for (int end = k - 1; end > 0; end--) {
+      final int ix = hIxs[0];
+      final double v = hValues[0];
+      hIxs[0] = hIxs[end];
+      hValues[0] = hValues[end];
+      hIxs[end] = ix;
+      hValues[end] = v;
+      siftDown(hIxs, hValues, 0, end);
+    }
+  }
+
+  private static void siftDown(int[] hIxs, double[] hValues, int i, int size) {
+    final int ix = hIxs[i];
+    final double v = hValues[i];
+    int child;
+    while ((child = 2 * i + 1) < size) {
+      final int right = child + 1;
+      if (right < size && ranksAbove(hValues[child], hIxs[child], hValues[right], hIxs[right])) {
+        child = right;
+      }
+      if (!ranksAbove(v, ix, hValues[child], hIxs[child])) {
+        break;
+      }
+      hIxs[i] = hIxs[child];
+      hValues[i] = hValues[child];
+      i = child;
+    }
+    hIxs[i] = ix;
+    hValues[i] = v;
+  }
+
+  // Quickselect over indices: after the call ixs[0, k) hold the k best indices in no order.
+
+  private static void quickSelect(float[] a, int[] ixs, int n, int k) {
+    int lo = 0;
+    int hi = n - 1;
+    while (lo < hi) {
+      final int p = partition(a, ixs, lo, hi);
+      if (p == k - 1 || p == k) {
+        return;
+      }
+      if (p < k) {
+        lo = p + 1;
+      } else {
+        hi = p - 1;
+      }
+    }
+  }
+
+  /** Median-of-three Lomuto partition, returns the final pivot position. */
+  private static int partition(float[] a, int[] ixs, int lo, int hi) {
+    final int mid = (lo + hi) >>> 1;
+    if (ranksAbove(a[ixs[mid]], ixs[mid], a[ixs[lo]], ixs[lo])) {
+      swap(ixs, lo, mid);
+    }
+    if (ranksAbove(a[ixs[hi]], ixs[hi], a[ixs[lo]], ixs[lo])) {
+      swap(ixs, lo, hi);
+    }
+    if (ranksAbove(a[ixs[mid]], ixs[mid], a[ixs[hi]], ixs[hi])) {
+      swap(ixs, mid, hi);
+    }
+    final int pivotIx = ixs[hi];
+    final float pivot = a[pivotIx];
+    int store = lo;
+    for (int i = lo; i < hi; i++) {
+      final int ix = ixs[i];
+      if (ranksAbove(a[ix], ix, pivot, pivotIx)) {
+        swap(ixs, store++, i);
+      }
+    }
+    swap(ixs, store, hi);
+    return store;
+  }
+
+  /** In-place heapsort of ixs[0, k) into ranking order. */
+  private static void sortPrefix(float[] a, int[] ixs, int k) {
+    for (int i = (k >>> 1) - 1; i >= 0; i--) {
+      siftDownIxs(a, ixs, i, k);
+    }
+    for (int end = k - 1; end > 0; end--) {
+      swap(ixs, 0, end);
+      siftDownIxs(a, ixs, 0, end);
+    }
+  }
+
+  private static void siftDownIxs(float[] a, int[] ixs, int i, int size) {
+    final int ix = ixs[i];
+    int child;
+    while ((child = 2 * i + 1) < size) {
+      final int right = child + 1;
+      if (right < size && ranksAbove(a[ixs[child]], ixs[child], a[ixs[right]], ixs[right])) {
+        child = right;
+      }
+      if (!ranksAbove(a[ix], ix, a[ixs[child]], ixs[child])) {
+        break;
+      }
+      ixs[i] = ixs[child];
+      i = child;
+    }
+    ixs[i] = ix;
+  }
+
+  private static void quickSelect(double[] a, int[] ixs, int n, int k) {
+    int lo = 0;
+    int hi = n - 1;
+    while (lo < hi) {
+      final int p = partition(a, ixs, lo, hi);
+      if (p == k - 1 || p == k) {
+        return;
+      }
+      if (p < k) {
+        lo = p + 1;
+      } else {
+        hi = p - 1;
+      }
+    }
+  }
+
+  private static int partition(double[] a, int[] ixs, int lo, int hi) {
+    final int mid = (lo + hi) >>> 1;
+    if (ranksAbove(a[ixs[mid]], ixs[mid], a[ixs[lo]], ixs[lo])) {
+      swap(ixs, lo, mid);
+    }
+    if (ranksAbove(a[ixs[hi]], ixs[hi], a[ixs[lo]], ixs[lo])) {
+      swap(ixs, lo, hi);
+    }
+    if (ranksAbove(a[ixs[mid]], ixs[mid], a[ixs[hi]], ixs[hi])) {
+      swap(ixs, mid, hi);
+    }
+    final int pivotIx = ixs[hi];
+    final double pivot = a[pivotIx];
+    int store = lo;
+    for (int i = lo; i < hi; i++) {
+      final int ix = ixs[i];
+      if (ranksAbove(a[ix], ix, pivot, pivotIx)) {
+        swap(ixs, store++, i);
+      }
+    }
+    swap(ixs, store, hi);
+    return store;
+  }
+
+  private static void sortPrefix(double[] a, int[] ixs, int k) {
+    for (int i = (k >>> 1) - 1; i >= 0; i--) {
+      siftDownIxs(a, ixs, i, k);
+    }
+    for (int end = k - 1; end > 0; end--) {
+      swap(ixs, 0, end);
+      siftDownIxs(a, ixs, 0, end);
+    }
+  }
+
+  private static void siftDownIxs(double[] a, int[] ixs, int i, int size) {
+    final int ix = ixs[i];
+    int child;
+    while ((child = 2 * i + 1) < size) {
+      final int right = child + 1;
+      if (right < size && ranksAbove(a[ixs[child]], ixs[child], a[ixs[right]], ixs[right])) {
+        child = right;
+      }
+      if (!ranksAbove(a[ix], ix, a[ixs[child]], ixs[child])) {
+        break;
+      }
+      ixs[i] = ixs[child];
+      i = child;
+    }
+    ixs[i] = ix;
+  }
+
+  private static void swap(int[] a, int i, int j) {
+    final int t = a[i];
+    a[i] = a[j];
+    a[j] = t;
+  }
+}
@@ -13,6 +13,7 @@ import org.pytorch.Tensor;
 import org.pytorch.demo.BaseModuleActivity;
 import org.pytorch.demo.InfoViewFactory;
 import org.pytorch.demo.R;
+import org.pytorch.demo.SoftmaxTopK;
 import org.pytorch.demo.Utils;
 import org.pytorch.demo.vision.view.ResultRowView;
 
@@ -40,14 +41,19 @@ public class TextClassificationActivity extends BaseModuleActivity {
 
   private String mLastBgHandledText;
   private String[] mModuleClasses;
+  private final int[] mTopKIxs = new int[TOP_K];
+  private final float[] mTopKScores = new float[TOP_K];
+  private final float[] mTopKProbabilities = new float[TOP_K];
 
   private static class AnalysisResult {
     private final String[] topKClassNames;
     private final float[] topKScores;
+    private final float[] topKProbabilities;
 
-    public AnalysisResult(String[] topKClassNames, float[] topKScores) {
+    public AnalysisResult(String[] topKClassNames, float[] topKScores, float[] topKProbabilities) {
       this.topKClassNames = topKClassNames;
       this.topKScores = topKScores;
+      this.topKProbabilities = topKProbabilities;
     }
   }
 
@@ -130,17 +136,18 @@ public class TextClassificationActivity extends BaseModuleActivity {
 
     final Tensor outputTensor = mModule.forward(IValue.from(inputTensor)).toTensor();
     final float[] scores = outputTensor.getDataAsFloatArray();
-    final int[] ixs = Utils.topK(scores, TOP_K);
+    SoftmaxTopK.select(scores, TOP_K, mTopKIxs, mTopKScores, mTopKProbabilities);
 
     final String[] topKClassNames = new String[TOP_K];
     final float[] topKScores = new float[TOP_K];
+    final float[] topKProbabilities = new float[TOP_K];
     for (int i = 0; i < TOP_K; i++) {
-      final int ix = ixs[i];
-      topKClassNames[i] = mModuleClasses[ix];
-      topKScores[i] = scores[ix];
+      topKClassNames[i] = mModuleClasses[mTopKIxs[i]];
+      topKScores[i] = mTopKScores[i];
+      topKProbabilities[i] = mTopKProbabilities[i];
     }
 
-    return new AnalysisResult(topKClassNames, topKScores);
+    return new AnalysisResult(topKClassNames, topKScores, topKProbabilities);
   }
 
   private void applyUIAnalysisResult(AnalysisResult result) {
@@ -148,7 +155,7 @@ public class TextClassificationActivity extends BaseModuleActivity {
       setUiResultRowView(
           mResultRowViews[i],
           result.topKClassNames[i],
-          String.format(Locale.US, SCORES_FORMAT, result.topKScores[i]));
+          String.format(Locale.US, SCORES_FORMAT, result.topKProbabilities[i]));
     }
 
     mResultContent.setVisibility(View.VISIBLE);
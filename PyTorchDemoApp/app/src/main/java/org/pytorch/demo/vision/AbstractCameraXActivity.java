@@ -4,13 +4,17 @@ import android.Manifest;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.os.SystemClock;
+import android.util.Log;
 import android.util.Size;
 import android.view.TextureView;
 import android.widget.Toast;
 
 import org.pytorch.demo.BaseModuleActivity;
+import org.pytorch.demo.Constants;
 import org.pytorch.demo.StatusBarUtils;
 
+import java.util.Locale;
+
 import androidx.annotation.Nullable;
 import androidx.annotation.UiThread;
 import androidx.annotation.WorkerThread;
@@ -22,11 +26,29 @@ import androidx.camera.core.Preview;
 import androidx.camera.core.PreviewConfig;
 import androidx.core.app.ActivityCompat;
 
+/**
+ * Camera preview with analysis of the camera frames on a thread of their own.
+ *
+ * The camera analyzer only asks the {@link FrameScheduler} whether to analyze a frame, copies
+ * admitted frames into a {@link FrameRing} and returns, so the camera image is released right
+ * away. The analysis thread runs {@link #analyzeFrame} on the newest copy and gives it back to
+ * the ring afterwards.
+ */
 public abstract class AbstractCameraXActivity<R> extends BaseModuleActivity {
   private static final int REQUEST_CODE_CAMERA_PERMISSION = 200;
   private static final String[] PERMISSIONS = {Manifest.permission.CAMERA};
-
-  private long mLastAnalysisResultTime;
+  private static final float DEFAULT_TARGET_FPS = 30.f;
+  private static final float DEFAULT_CPU_BUDGET = 0.75f;
+  private static final long DEFAULT_MAX_LATENCY_MS = 250;
+  // frame timestamps further from now are not in the elapsedRealtimeNanos time base
+  private static final long MAX_FRAME_AGE_NANOS = 1_000_000_000L;
+  private static final int SCHEDULER_LOG_INTERVAL = 256;
+  // one frame being analyzed, one ready and one being copied by the camera analyzer
+  private static final int FRAME_RING_CAPACITY = 3;
+
+  private FrameScheduler mFrameScheduler;
+  private final FrameRing mFrameRing = new FrameRing(FRAME_RING_CAPACITY);
+  private Thread mAnalysisThread;
 
   protected abstract int getContentViewLayoutId();
 
@@ -37,6 +59,9 @@ public abstract class AbstractCameraXActivity<R> extends BaseModuleActivity {
     super.onCreate(savedInstanceState);
     StatusBarUtils.setStatusBarOverlay(getWindow(), true);
     setContentView(getContentViewLayoutId());
+    mFrameScheduler = createFrameScheduler();
+    mAnalysisThread = new Thread(this::runAnalysisLoop, "FrameAnalysis");
+    mAnalysisThread.start();
 
     startBackgroundThread();
 
@@ -83,24 +108,127 @@ public abstract class AbstractCameraXActivity<R> extends BaseModuleActivity {
     final ImageAnalysis imageAnalysis = new ImageAnalysis(imageAnalysisConfig);
     imageAnalysis.setAnalyzer(
         (image, rotationDegrees) -> {
-          if (SystemClock.elapsedRealtime() - mLastAnalysisResultTime < 500) {
+          final long startTime = SystemClock.elapsedRealtimeNanos();
+          if (!mFrameScheduler.admit(frameTimeNanos(image, startTime), startTime)) {
             return;
           }
-
-          final R result = analyzeImage(image, rotationDegrees);
-          if (result != null) {
-            mLastAnalysisResultTime = SystemClock.elapsedRealtime();
-            runOnUiThread(() -> applyToUiAnalyzeImageResult(result));
+          if (mFrameScheduler.getAdmittedFrameCount() % SCHEDULER_LOG_INTERVAL == 0) {
+            logFrameSchedulerMetrics();
           }
+
+          // the camera image is released when this returns, analysis works on the copy
+          mFrameRing.put(image.getImage(), rotationDegrees, startTime);
         });
 
     CameraX.bindToLifecycle(this, preview, imageAnalysis);
   }
 
+  /**
+   * Scheduler deciding which frames are analyzed, created in {@link #onCreate}.
+   * The default one targets {@link #DEFAULT_TARGET_FPS} with the analysis busy at most
+   * {@link #DEFAULT_CPU_BUDGET} of the time.
+   */
+  protected FrameScheduler createFrameScheduler() {
+    return new AdaptiveFrameScheduler(DEFAULT_TARGET_FPS, DEFAULT_CPU_BUDGET, DEFAULT_MAX_LATENCY_MS);
+  }
+
+  protected FrameScheduler getFrameScheduler() {
+    return mFrameScheduler;
+  }
+
+  /** Sensor timestamp of the frame, the current time if the camera uses another time base. */
+  private static long frameTimeNanos(ImageProxy image, long nowNanos) {
+    final long timestamp = image.getTimestamp();
+    final long age = nowNanos - timestamp;
+    return age >= 0 && age < MAX_FRAME_AGE_NANOS ? timestamp : nowNanos;
+  }
+
+  private void logFrameSchedulerMetrics() {
+    Log.i(Constants.TAG, String.format(Locale.US,
+        "Frame scheduler: %.1f FPS, %d analyzed, %d dropped for rate, %d dropped late, "
+            + "%d overwritten in the frame ring",
+        mFrameScheduler.getRateFps(),
+        mFrameScheduler.getAdmittedFrameCount(),
+        mFrameScheduler.getPacedFrameCount(),
+        mFrameScheduler.getLateFrameCount(),
+        mFrameRing.getOverwrittenFrameCount()));
+  }
+
+  /**
+   * Analyzes the newest frame of the ring until the activity is destroyed. A returned result is
+   * posted with the time the camera analyzer received the frame, so waiting in the ring counts
+   * towards its latency.
+   */
+  @WorkerThread
+  private void runAnalysisLoop() {
+    try {
+      while (true) {
+        final FrameRing.Frame frame = mFrameRing.take();
+        final long startTime = SystemClock.elapsedRealtimeNanos();
+        final long frameTime = frame.timeNanos;
+        final R result;
+        try {
+          result = analyzeFrame(frame);
+        } finally {
+          mFrameRing.release(frame);
+        }
+        if (result != null) {
+          postAnalysisResult(result, frameTime, SystemClock.elapsedRealtimeNanos() - startTime);
+        }
+      }
+    } catch (InterruptedException e) {
+      // stopped by onDestroy
+    } finally {
+      onAnalysisStopped();
+    }
+  }
+
+  /**
+   * Analyzes a frame copy on the analysis thread. The frame goes back to the ring when this
+   * returns and must not be read afterwards.
+   *
+   * @return result to show, or null if there is none or it is posted later
+   */
   @WorkerThread
   @Nullable
-  protected abstract R analyzeImage(ImageProxy image, int rotationDegrees);
+  protected abstract R analyzeFrame(FrameRing.Frame frame);
+
+  /**
+   * Called on the analysis thread after its last {@link #analyzeFrame}, the place to release what
+   * analysis holds, such as the module, without blocking the UI thread.
+   */
+  @WorkerThread
+  protected void onAnalysisStopped() {
+  }
 
   @UiThread
   protected abstract void applyToUiAnalyzeImageResult(R result);
+
+  /**
+   * Delivers a result to the UI as if {@link #analyzeFrame} had returned it, for activities that
+   * finish analysis on a thread of their own.
+   *
+   * @param startNanos {@code SystemClock.elapsedRealtimeNanos()} when the camera analyzer received
+   *                   the frame, {@link FrameRing.Frame#timeNanos}
+   * @param busyNanos sum of the analysis stage latencies of the frame
+   */
+  protected void postAnalysisResult(R result, long startNanos, long busyNanos) {
+    mFrameScheduler.onFrameAnalyzed(startNanos, busyNanos, SystemClock.elapsedRealtimeNanos());
+    runOnUiThread(() -> applyToUiAnalyzeImageResult(result));
+  }
+
+  /**
+   * Shows an earlier result again for a frame that was not analyzed, without reporting the frame
+   * to the {@link FrameScheduler}.
+   */
+  protected void postReusedResult(R result) {
+    runOnUiThread(() -> applyToUiAnalyzeImageResult(result));
+  }
+
+  @Override
+  protected void onDestroy() {
+    super.onDestroy();
+    // the thread releases what analysis holds in onAnalysisStopped
+    mAnalysisThread.interrupt();
+  }
 }
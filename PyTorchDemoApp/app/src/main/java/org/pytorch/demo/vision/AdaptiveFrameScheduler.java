@@ -0,0 +1,105 @@
+package org.pytorch.demo.vision;
+
+/**
+ * Paces analysis to a target rate and CPU budget measured from the latencies of recent frames.
+ *
+ * The admission interval is the larger of {@code 1 / targetFps} and the average busy time of a
+ * frame divided by the CPU budget, so a budget of 0.5 keeps the analysis stages idle half of the
+ * time and a fast device runs up to the target rate instead of a fixed interval. Every frame gets
+ * the deadline {@code capture time + max latency}, a frame is dropped if the average latency from
+ * admission to result would take it past the deadline. The deadline never gets tighter than
+ * {@link #MIN_LATENCY_SLACK} times the average latency, so a device slower than the max latency
+ * shows late results rather than none.
+ */
+public class AdaptiveFrameScheduler implements FrameScheduler {
+  private static final long NANOS_PER_SECOND = 1_000_000_000L;
+  private static final long NANOS_PER_MS = 1_000_000L;
+  // weight of the newest frame in the latency moving averages
+  private static final float AVERAGE_ALPHA = 0.2f;
+  private static final float MIN_LATENCY_SLACK = 1.5f;
+
+  private final long mMinIntervalNanos;
+  private final float mCpuBudget;
+  private final long mMaxLatencyNanos;
+
+  private long mLatencyNanos;
+  private long mBusyNanos;
+  private long mIntervalNanos;
+  private long mNextFrameTime;
+  private long mAdmittedFrameCount;
+  private long mPacedFrameCount;
+  private long mLateFrameCount;
+
+  /**
+   * @param targetFps most frames per second to analyze, 0 for no limit
+   * @param cpuBudget fraction of the time the analysis stages may be busy, above 1 when stages of
+   *                  consecutive frames overlap
+   * @param maxLatencyMs longest time from capture to result
+   */
+  public AdaptiveFrameScheduler(float targetFps, float cpuBudget, long maxLatencyMs) {
+    if (targetFps < 0 || cpuBudget <= 0 || maxLatencyMs <= 0) {
+      throw new IllegalArgumentException("Target FPS must not be negative, CPU budget and max latency must be positive");
+    }
+    mMinIntervalNanos = targetFps == 0 ? 0 : (long) (NANOS_PER_SECOND / targetFps);
+    mCpuBudget = cpuBudget;
+    mMaxLatencyNanos = maxLatencyMs * NANOS_PER_MS;
+    mIntervalNanos = mMinIntervalNanos;
+  }
+
+  @Override
+  public synchronized boolean admit(long frameTimeNanos, long nowNanos) {
+    // a quarter interval of tolerance, camera frames do not arrive exactly on the interval
+    if (nowNanos < mNextFrameTime - mIntervalNanos / 4) {
+      mPacedFrameCount++;
+      return false;
+    }
+    final long deadline = frameTimeNanos
+        + Math.max(mMaxLatencyNanos, (long) (MIN_LATENCY_SLACK * mLatencyNanos));
+    if (nowNanos + mLatencyNanos > deadline) {
+      mLateFrameCount++;
+      return false;
+    }
+    mAdmittedFrameCount++;
+    mNextFrameTime = nowNanos + mIntervalNanos;
+    return true;
+  }
+
+  @Override
+  public synchronized void onFrameAnalyzed(long startNanos, long busyNanos, long nowNanos) {
+    mLatencyNanos = average(mLatencyNanos, nowNanos - startNanos);
+    mBusyNanos = average(mBusyNanos, busyNanos);
+    mIntervalNanos = Math.max(mMinIntervalNanos, (long) (mBusyNanos / mCpuBudget));
+  }
+
+  private static long average(long average, long sample) {
+    if (average == 0) {
+      return Math.max(0, sample);
+    }
+    return average + (long) (AVERAGE_ALPHA * (Math.max(0, sample) - average));
+  }
+
+  @Override
+  public synchronized float getRateFps() {
+    return mIntervalNanos == 0 ? 0 : (float) NANOS_PER_SECOND / mIntervalNanos;
+  }
+
+  /** Average time from admission to result. */
+  public synchronized long getLatencyNanos() {
+    return mLatencyNanos;
+  }
+
+  @Override
+  public synchronized long getAdmittedFrameCount() {
+    return mAdmittedFrameCount;
+  }
+
+  @Override
+  public synchronized long getPacedFrameCount() {
+    return mPacedFrameCount;
+  }
+
+  @Override
+  public synchronized long getLateFrameCount() {
+    return mLateFrameCount;
+  }
+}
@@ -0,0 +1,108 @@
+package org.pytorch.demo.vision;
+
+import android.graphics.ImageFormat;
+import android.media.Image;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Fixed ring of YUV_420_888 frame copies handed from the camera analyzer thread to one analysis
+ * thread, so the analyzer can release the camera image as soon as its planes are copied.
+ *
+ * Frames move between a free and a ready queue, both sized to the ring and never allocating. At
+ * most one frame waits on the ready queue: a frame the consumer has not taken yet is overwritten
+ * by the next one, so the consumer always gets the newest frame, and overwritten frames are
+ * counted.
+ * Plane buffers are direct and reused, they only grow while the camera size is still changing.
+ * One producer and one consumer only.
+ */
+public class FrameRing {
+
+  /** A frame copy, owned by the consumer from {@link #take} until {@link #release}. */
+  public static class Frame {
+    public int width;
+    public int height;
+    public int rotationDegrees;
+    /** {@code SystemClock.elapsedRealtimeNanos()} when the analyzer received the frame. */
+    public long timeNanos;
+    public ByteBuffer yBuffer;
+    public int yRowStride;
+    public int yPixelStride;
+    public ByteBuffer uBuffer;
+    public ByteBuffer vBuffer;
+    public int uvRowStride;
+    public int uvPixelStride;
+  }
+
+  private final BlockingQueue<Frame> mFreeFrames;
+  private final BlockingQueue<Frame> mReadyFrames;
+  private volatile long mOverwrittenFrameCount;
+
+  public FrameRing(int capacity) {
+    // with one frame held by the consumer and one ready, a free one is left for the producer
+    if (capacity < 3) {
+      throw new IllegalArgumentException("Capacity must be at least 3");
+    }
+    mFreeFrames = new ArrayBlockingQueue<>(capacity);
+    mReadyFrames = new ArrayBlockingQueue<>(capacity);
+    for (int i = 0; i < capacity; i++) {
+      mFreeFrames.add(new Frame());
+    }
+  }
+
+  /** Copies the planes of the image into the ring, producer thread only. */
+  public void put(Image image, int rotationDegrees, long timeNanos) {
+    if (image.getFormat() != ImageFormat.YUV_420_888) {
+      throw new IllegalArgumentException("Image format " + image.getFormat() + " is not YUV_420_888");
+    }
+    Frame frame = mReadyFrames.poll();
+    if (frame != null) {
+      mOverwrittenFrameCount++;
+    } else {
+      frame = mFreeFrames.poll();
+    }
+    final Image.Plane[] planes = image.getPlanes();
+    frame.width = image.getWidth();
+    frame.height = image.getHeight();
+    frame.rotationDegrees = rotationDegrees;
+    frame.timeNanos = timeNanos;
+    frame.yBuffer = copy(planes[0].getBuffer(), frame.yBuffer);
+    frame.yRowStride = planes[0].getRowStride();
+    frame.yPixelStride = planes[0].getPixelStride();
+    frame.uBuffer = copy(planes[1].getBuffer(), frame.uBuffer);
+    frame.vBuffer = copy(planes[2].getBuffer(), frame.vBuffer);
+    frame.uvRowStride = planes[1].getRowStride();
+    frame.uvPixelStride = planes[1].getPixelStride();
+    mReadyFrames.add(frame);
+  }
+
+  /** Copies from the source position, which is left unchanged, into a buffer ready to read. */
+  private static ByteBuffer copy(ByteBuffer src, ByteBuffer dst) {
+    if (dst == null || dst.capacity() < src.remaining()) {
+      dst = ByteBuffer.allocateDirect(src.remaining());
+    }
+    final int position = src.position();
+    dst.clear();
+    dst.put(src);
+    dst.flip();
+    src.position(position);
+    return dst;
+  }
+
+  /** Waits for the newest frame, consumer thread only. */
+  public Frame take() throws InterruptedException {
+    return mReadyFrames.take();
+  }
+
+  /** Gives a frame back to the producer, it must not be read afterwards. */
+  public void release(Frame frame) {
+    mFreeFrames.add(frame);
+  }
+
+  /** Frames the consumer never took because a newer frame replaced them. */
+  public long getOverwrittenFrameCount() {
+    return mOverwrittenFrameCount;
+  }
+}
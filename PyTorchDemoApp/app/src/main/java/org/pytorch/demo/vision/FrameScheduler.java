@@ -0,0 +1,38 @@
+package org.pytorch.demo.vision;
+
+/**
+ * Decides which camera frames {@link AbstractCameraXActivity} analyzes.
+ *
+ * Times are {@code SystemClock.elapsedRealtimeNanos()} values. {@link #admit} runs on the analyzer
+ * thread, {@link #onFrameAnalyzed} on whichever thread finishes the analysis, implementations must
+ * be thread safe.
+ */
+public interface FrameScheduler {
+
+  /**
+   * Called for every camera frame before it is copied for analysis.
+   *
+   * @param frameTimeNanos capture time of the frame, the deadline of its result is relative to it
+   * @return false to drop the frame without analyzing it
+   */
+  boolean admit(long frameTimeNanos, long nowNanos);
+
+  /**
+   * Called when the result of an admitted frame was posted.
+   *
+   * @param startNanos time the frame was admitted
+   * @param busyNanos sum of the analysis stage latencies of the frame, without waits between them
+   */
+  void onFrameAnalyzed(long startNanos, long busyNanos, long nowNanos);
+
+  /** Rate frames are currently admitted at, 0 while not limited. */
+  float getRateFps();
+
+  long getAdmittedFrameCount();
+
+  /** Frames dropped to keep the rate. */
+  long getPacedFrameCount();
+
+  /** Frames dropped because their result would have missed the deadline. */
+  long getLateFrameCount();
+}
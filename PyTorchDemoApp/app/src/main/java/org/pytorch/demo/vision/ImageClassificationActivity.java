@@ -13,20 +13,23 @@ import org.pytorch.IValue;
 import org.pytorch.Module;
 import org.pytorch.Tensor;
 import org.pytorch.demo.Constants;
+import org.pytorch.demo.LatencyRecorder;
 import org.pytorch.demo.R;
+import org.pytorch.demo.SoftmaxTopK;
 import org.pytorch.demo.Utils;
 import org.pytorch.demo.vision.view.ResultRowView;
 import org.pytorch.torchvision.TensorImageUtils;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
-import java.util.LinkedList;
 import java.util.Locale;
-import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
 
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
-import androidx.camera.core.ImageProxy;
 
 public class ImageClassificationActivity extends AbstractCameraXActivity<ImageClassificationActivity.AnalysisResult> {
 
@@ -36,40 +39,90 @@ public class ImageClassificationActivity extends AbstractCameraXActivity<ImageCl
   private static final int INPUT_TENSOR_WIDTH = 224;
   private static final int INPUT_TENSOR_HEIGHT = 224;
   private static final int TOP_K = 3;
-  private static final int MOVING_AVG_PERIOD = 10;
-  private static final String FORMAT_MS = "%dms";
-  private static final String FORMAT_AVG_MS = "avg:%.0fms";
+  private static final int LATENCY_WINDOW_SIZE = 128;
+  private static final int LATENCY_PERCENTILES_MIN_SAMPLES = 10;
+  private static final long NANOS_PER_MS = 1_000_000L;
+  private static final int INPUT_SLOT_COUNT = 2;
+  private static final float TARGET_FPS = 30.f;
+  private static final long MAX_LATENCY_MS = 250;
+  // frames of a static scene show the last result again instead of running the model
+  private static final boolean SKIP_UNCHANGED_SCENES = true;
+  // mean absolute luma difference in 0-255 levels from which the scene counts as changed
+  private static final float SCENE_CHANGE_THRESHOLD = 4.f;
+  private static final long SCENE_REFRESH_INTERVAL_MS = 2000;
+  // modules declare their input layout by exporting a method returning one of the names below,
+  // indexed by the Yuv420TensorConverter.FORMAT_* constants, see PyTorchDemoApp/input_formats.py
+  private static final String INPUT_FORMAT_METHOD = "input_format";
+  private static final String[] INPUT_FORMAT_NAMES = {"float32_nchw", "float32_nhwc", "uint8_nhwc"};
 
-  private static final String FORMAT_FPS = "%.1fFPS";
   public static final String SCORES_FORMAT = "%.2f";
 
   static class AnalysisResult {
 
     private final String[] topNClassNames;
     private final float[] topNScores;
-    private final long analysisDuration;
-    private final long moduleForwardDuration;
+    private final float[] topNProbabilities;
 
-    public AnalysisResult(String[] topNClassNames, float[] topNScores,
-                          long moduleForwardDuration, long analysisDuration) {
+    public AnalysisResult(String[] topNClassNames, float[] topNScores, float[] topNProbabilities) {
       this.topNClassNames = topNClassNames;
       this.topNScores = topNScores;
-      this.moduleForwardDuration = moduleForwardDuration;
-      this.analysisDuration = analysisDuration;
+      this.topNProbabilities = topNProbabilities;
     }
   }
 
-  private boolean mAnalyzeImageErrorState;
+  /** A preallocated input tensor and its buffer, owned by one thread at a time. */
+  private static class InputSlot {
+    final FloatBuffer floatBuffer;
+    final ByteBuffer byteBuffer;
+    final Tensor tensor;
+    long startTime;
+    long preprocessNanos;
+    int sceneGeneration;
+
+    InputSlot(int inputFormat) {
+      // channels-last inputs are passed as 1 x H x W x 3, the module permutes them to NCHW
+      final long[] shape = inputFormat == Yuv420TensorConverter.FORMAT_FLOAT32_NCHW
+          ? new long[]{1, 3, INPUT_TENSOR_HEIGHT, INPUT_TENSOR_WIDTH}
+          : new long[]{1, INPUT_TENSOR_HEIGHT, INPUT_TENSOR_WIDTH, 3};
+      if (inputFormat == Yuv420TensorConverter.FORMAT_UINT8_NHWC) {
+        floatBuffer = null;
+        byteBuffer = Tensor.allocateByteBuffer(3 * INPUT_TENSOR_WIDTH * INPUT_TENSOR_HEIGHT);
+        tensor = Tensor.fromBlobUnsigned(byteBuffer, shape);
+      } else {
+        floatBuffer = Tensor.allocateFloatBuffer(3 * INPUT_TENSOR_WIDTH * INPUT_TENSOR_HEIGHT);
+        byteBuffer = null;
+        tensor = Tensor.fromBlob(floatBuffer, shape);
+      }
+    }
+  }
+
+  private volatile boolean mAnalyzeImageErrorState;
   private ResultRowView[] mResultRowViews = new ResultRowView[TOP_K];
   private TextView mFpsText;
   private TextView mMsText;
   private TextView mMsAvgText;
   private Module mModule;
   private String mModuleAssetName;
-  private FloatBuffer mInputTensorBuffer;
-  private Tensor mInputTensor;
-  private long mMovingAvgSum = 0;
-  private Queue<Long> mMovingAvgQueue = new LinkedList<>();
+  private int mInputFormat;
+  // one slot is converted on the analysis thread while the other runs forward
+  private final BlockingQueue<InputSlot> mFreeSlots = new ArrayBlockingQueue<>(INPUT_SLOT_COUNT);
+  private final BlockingQueue<InputSlot> mReadySlots = new ArrayBlockingQueue<>(INPUT_SLOT_COUNT);
+  private volatile Thread mForwardThread;
+  private long mLastResultTime;
+  private long mAnalyzedFrameCount;
+  private long mReusedFrameCount;
+  private volatile AnalysisResult mLastResult;
+  // bumped on every scene change, results of frames from before the change are not reused
+  private volatile int mSceneGeneration;
+  private final SceneChangeDetector mSceneChangeDetector =
+      new SceneChangeDetector(SCENE_CHANGE_THRESHOLD, SCENE_REFRESH_INTERVAL_MS);
+  private Yuv420TensorConverter mInputConverter;
+  private final LatencyRecorder mLatencyRecorder = new LatencyRecorder(LATENCY_WINDOW_SIZE);
+  private final StringBuilder mOverlayTextBuilder = new StringBuilder(64);
+  private final char[] mOverlayTextChars = new char[64];
+  private final int[] mTopKIxs = new int[TOP_K];
+  private final float[] mTopKScores = new float[TOP_K];
+  private final float[] mTopKProbabilities = new float[TOP_K];
 
   @Override
   protected int getContentViewLayoutId() {
@@ -102,35 +155,60 @@ public class ImageClassificationActivity extends AbstractCameraXActivity<ImageCl
 
   @Override
   protected void applyToUiAnalyzeImageResult(AnalysisResult result) {
-    mMovingAvgSum += result.moduleForwardDuration;
-    mMovingAvgQueue.add(result.moduleForwardDuration);
-    if (mMovingAvgQueue.size() > MOVING_AVG_PERIOD) {
-      mMovingAvgSum -= mMovingAvgQueue.remove();
-    }
-
+    final long startTime = SystemClock.elapsedRealtimeNanos();
     for (int i = 0; i < TOP_K; i++) {
       final ResultRowView rowView = mResultRowViews[i];
       rowView.nameTextView.setText(result.topNClassNames[i]);
       rowView.scoreTextView.setText(String.format(Locale.US, SCORES_FORMAT,
-          result.topNScores[i]));
+          result.topNProbabilities[i]));
       rowView.setProgressState(false);
     }
 
-    mMsText.setText(String.format(Locale.US, FORMAT_MS, result.moduleForwardDuration));
-    if (mMsText.getVisibility() != View.VISIBLE) {
-      mMsText.setVisibility(View.VISIBLE);
+    final StringBuilder sb = mOverlayTextBuilder;
+    sb.setLength(0);
+    appendMs(sb, mLatencyRecorder.lastNanos(LatencyRecorder.STAGE_FORWARD)).append("ms");
+    setOverlayText(mMsText, sb);
+
+    // frames per second with one decimal digit from the median interval between results, frames
+    // overlap in the pipeline so it is shorter than the analysis duration
+    final long intervalNanos = mLatencyRecorder.percentileNanos(LatencyRecorder.STAGE_RESULT_INTERVAL, 50);
+    if (intervalNanos > 0) {
+      final long fpsTenths = 10_000_000_000L / intervalNanos;
+      sb.setLength(0);
+      sb.append(fpsTenths / 10).append('.').append(fpsTenths % 10).append("FPS");
+      setOverlayText(mFpsText, sb);
     }
-    mFpsText.setText(String.format(Locale.US, FORMAT_FPS, (1000.f / result.analysisDuration)));
-    if (mFpsText.getVisibility() != View.VISIBLE) {
-      mFpsText.setVisibility(View.VISIBLE);
+
+    if (mLatencyRecorder.count(LatencyRecorder.STAGE_FORWARD) >= LATENCY_PERCENTILES_MIN_SAMPLES) {
+      sb.setLength(0);
+      sb.append("p50:");
+      appendMs(sb, mLatencyRecorder.percentileNanos(LatencyRecorder.STAGE_FORWARD, 50));
+      sb.append(" p90:");
+      appendMs(sb, mLatencyRecorder.percentileNanos(LatencyRecorder.STAGE_FORWARD, 90));
+      sb.append(" p99:");
+      appendMs(sb, mLatencyRecorder.percentileNanos(LatencyRecorder.STAGE_FORWARD, 99));
+      sb.append(" max:");
+      appendMs(sb, mLatencyRecorder.maxNanos(LatencyRecorder.STAGE_FORWARD)).append("ms");
+      setOverlayText(mMsAvgText, sb);
     }
+    mLatencyRecorder.record(LatencyRecorder.STAGE_UI_APPLY,
+        SystemClock.elapsedRealtimeNanos() - startTime);
+  }
 
-    if (mMovingAvgQueue.size() == MOVING_AVG_PERIOD) {
-      float avgMs = (float) mMovingAvgSum / MOVING_AVG_PERIOD;
-      mMsAvgText.setText(String.format(Locale.US, FORMAT_AVG_MS, avgMs));
-      if (mMsAvgText.getVisibility() != View.VISIBLE) {
-        mMsAvgText.setVisibility(View.VISIBLE);
-      }
+  private static StringBuilder appendMs(StringBuilder sb, long nanos) {
+    return sb.append((nanos + NANOS_PER_MS / 2) / NANOS_PER_MS);
+  }
+
+  /**
+   * Sets text through the char[] overload, TextView reuses its wrapper for it, so updating the
+   * overlay does not allocate a String per frame.
+   */
+  private void setOverlayText(TextView textView, StringBuilder sb) {
+    final int length = Math.min(sb.length(), mOverlayTextChars.length);
+    sb.getChars(0, length, mOverlayTextChars, 0);
+    textView.setText(mOverlayTextChars, 0, length);
+    if (textView.getVisibility() != View.VISIBLE) {
+      textView.setVisibility(View.VISIBLE);
     }
   }
 
@@ -154,7 +232,7 @@ public class ImageClassificationActivity extends AbstractCameraXActivity<ImageCl
   @Override
   @WorkerThread
   @Nullable
-  protected AnalysisResult analyzeImage(ImageProxy image, int rotationDegrees) {
+  protected AnalysisResult analyzeFrame(FrameRing.Frame frame) {
     if (mAnalyzeImageErrorState) {
       return null;
     }
@@ -164,46 +242,176 @@ public class ImageClassificationActivity extends AbstractCameraXActivity<ImageCl
         final String moduleFileAbsoluteFilePath = new File(
             Utils.assetFilePath(this, getModuleAssetName())).getAbsolutePath();
         mModule = Module.load(moduleFileAbsoluteFilePath);
+        mInputFormat = readInputFormat(mModule);
+        mInputConverter = new Yuv420TensorConverter(INPUT_TENSOR_WIDTH, INPUT_TENSOR_HEIGHT,
+            mInputFormat,
+            TensorImageUtils.TORCHVISION_NORM_MEAN_RGB,
+            TensorImageUtils.TORCHVISION_NORM_STD_RGB,
+            ForkJoinPool.commonPool());
+        for (int i = 0; i < INPUT_SLOT_COUNT; i++) {
+          mFreeSlots.add(new InputSlot(mInputFormat));
+        }
+        mForwardThread = new Thread(this::runForwardLoop, "ModuleForward");
+        mForwardThread.start();
+      }
 
-        mInputTensorBuffer =
-            Tensor.allocateFloatBuffer(3 * INPUT_TENSOR_WIDTH * INPUT_TENSOR_HEIGHT);
-        mInputTensor = Tensor.fromBlob(mInputTensorBuffer, new long[]{1, 3, INPUT_TENSOR_HEIGHT, INPUT_TENSOR_WIDTH});
+      // both slots busy means one frame already waits for forward, newer frames are dropped
+      final InputSlot slot = mFreeSlots.poll();
+      if (slot == null) {
+        return null;
       }
 
-      final long startTime = SystemClock.elapsedRealtime();
-      TensorImageUtils.imageYUV420CenterCropToFloatBuffer(
-          image.getImage(), rotationDegrees,
-          INPUT_TENSOR_WIDTH, INPUT_TENSOR_HEIGHT,
-          TensorImageUtils.TORCHVISION_NORM_MEAN_RGB,
-          TensorImageUtils.TORCHVISION_NORM_STD_RGB,
-          mInputTensorBuffer, 0);
-
-      final long moduleForwardStartTime = SystemClock.elapsedRealtime();
-      final Tensor outputTensor = mModule.forward(IValue.from(mInputTensor)).toTensor();
-      final long moduleForwardDuration = SystemClock.elapsedRealtime() - moduleForwardStartTime;
-
-      final float[] scores = outputTensor.getDataAsFloatArray();
-      final int[] ixs = Utils.topK(scores, TOP_K);
-
-      final String[] topKClassNames = new String[TOP_K];
-      final float[] topKScores = new float[TOP_K];
-      for (int i = 0; i < TOP_K; i++) {
-        final int ix = ixs[i];
-        topKClassNames[i] = Constants.IMAGENET_CLASSES[ix];
-        topKScores[i] = scores[ix];
+      final long startTime = SystemClock.elapsedRealtimeNanos();
+      final AnalysisResult lastResult = mLastResult;
+      if (SKIP_UNCHANGED_SCENES && lastResult != null) {
+        if (mSceneChangeDetector.isSceneUnchanged(frame.width, frame.height,
+            frame.yBuffer, frame.yRowStride, frame.yPixelStride, startTime)) {
+          mFreeSlots.add(slot);
+          if (++mReusedFrameCount % LATENCY_WINDOW_SIZE == 0) {
+            logReusedFrameSavings();
+          }
+          // not an analysis, its near zero latency must not feed the frame scheduler
+          postReusedResult(lastResult);
+          return null;
+        }
+        // after a cut the labels of the old scene must not be shown again
+        mLastResult = null;
+        mSceneGeneration++;
+      }
+      // latency is counted from when the camera analyzer received the frame
+      slot.startTime = frame.timeNanos;
+      slot.sceneGeneration = mSceneGeneration;
+      if (mInputFormat == Yuv420TensorConverter.FORMAT_UINT8_NHWC) {
+        mInputConverter.convert(frame.width, frame.height, frame.rotationDegrees,
+            frame.yBuffer, frame.yRowStride, frame.yPixelStride,
+            frame.uBuffer, frame.vBuffer, frame.uvRowStride, frame.uvPixelStride,
+            slot.byteBuffer, 0);
+      } else {
+        mInputConverter.convert(frame.width, frame.height, frame.rotationDegrees,
+            frame.yBuffer, frame.yRowStride, frame.yPixelStride,
+            frame.uBuffer, frame.vBuffer, frame.uvRowStride, frame.uvPixelStride,
+            slot.floatBuffer, 0);
       }
-      final long analysisDuration = SystemClock.elapsedRealtime() - startTime;
-      return new AnalysisResult(topKClassNames, topKScores, moduleForwardDuration, analysisDuration);
+      slot.preprocessNanos = SystemClock.elapsedRealtimeNanos() - startTime;
+      mLatencyRecorder.record(LatencyRecorder.STAGE_PREPROCESS, slot.preprocessNanos);
+      mReadySlots.add(slot);
     } catch (Exception e) {
-      Log.e(Constants.TAG, "Error during image analysis", e);
-      mAnalyzeImageErrorState = true;
-      runOnUiThread(() -> {
-        if (!isFinishing()) {
-          showErrorDialog(v -> ImageClassificationActivity.this.finish());
+      onAnalysisError(e);
+    }
+    // results are posted by the forward thread
+    return null;
+  }
+
+  /**
+   * Runs forward on converted slots while the analysis thread converts the next frame into the
+   * other one. A slot is owned by exactly one thread at a time: the analysis thread from taking it
+   * off the free queue until putting it on the ready queue, the forward thread from taking it off the
+   * ready queue until forward returned and it went back to the free queue.
+   */
+  @WorkerThread
+  private void runForwardLoop() {
+    try {
+      while (!mAnalyzeImageErrorState) {
+        final InputSlot slot = mReadySlots.take();
+        final long moduleForwardStartTime = SystemClock.elapsedRealtimeNanos();
+        final Tensor outputTensor = mModule.forward(IValue.from(slot.tensor)).toTensor();
+        final long frameStartTime = slot.startTime;
+        final long preprocessNanos = slot.preprocessNanos;
+        final int sceneGeneration = slot.sceneGeneration;
+        mFreeSlots.add(slot);
+        final long topKStartTime = SystemClock.elapsedRealtimeNanos();
+        mLatencyRecorder.record(LatencyRecorder.STAGE_FORWARD, topKStartTime - moduleForwardStartTime);
+
+        final float[] scores = outputTensor.getDataAsFloatArray();
+        SoftmaxTopK.select(scores, TOP_K, mTopKIxs, mTopKScores, mTopKProbabilities);
+
+        final String[] topKClassNames = new String[TOP_K];
+        final float[] topKScores = new float[TOP_K];
+        final float[] topKProbabilities = new float[TOP_K];
+        for (int i = 0; i < TOP_K; i++) {
+          topKClassNames[i] = Constants.IMAGENET_CLASSES[mTopKIxs[i]];
+          topKScores[i] = mTopKScores[i];
+          topKProbabilities[i] = mTopKProbabilities[i];
         }
-      });
-      return null;
+        final long endTime = SystemClock.elapsedRealtimeNanos();
+        mLatencyRecorder.record(LatencyRecorder.STAGE_TOP_K, endTime - topKStartTime);
+        mLatencyRecorder.record(LatencyRecorder.STAGE_ANALYSIS, endTime - frameStartTime);
+        if (mLastResultTime != 0) {
+          mLatencyRecorder.record(LatencyRecorder.STAGE_RESULT_INTERVAL, endTime - mLastResultTime);
+        }
+        mLastResultTime = endTime;
+        if (++mAnalyzedFrameCount % LATENCY_WINDOW_SIZE == 0) {
+          logInputFormatLatency();
+        }
+        final AnalysisResult result = new AnalysisResult(topKClassNames, topKScores, topKProbabilities);
+        if (sceneGeneration == mSceneGeneration) {
+          mLastResult = result;
+        }
+        postAnalysisResult(result, frameStartTime, preprocessNanos + endTime - moduleForwardStartTime);
+      }
+    } catch (InterruptedException e) {
+      // stopped by onAnalysisStopped
+    } catch (Exception e) {
+      onAnalysisError(e);
+    }
+  }
+
+  private void onAnalysisError(Exception e) {
+    Log.e(Constants.TAG, "Error during image analysis", e);
+    mAnalyzeImageErrorState = true;
+    runOnUiThread(() -> {
+      if (!isFinishing()) {
+        showErrorDialog(v -> ImageClassificationActivity.this.finish());
+      }
+    });
+  }
+
+  /** Format declared by the module, float32 NCHW for modules without the method. */
+  private static int readInputFormat(Module module) {
+    final String name;
+    try {
+      name = module.runMethod(INPUT_FORMAT_METHOD).toStr();
+    } catch (RuntimeException e) {
+      // the native side reports a missing method as an exception
+      return Yuv420TensorConverter.FORMAT_FLOAT32_NCHW;
+    }
+    for (int format = 0; format < INPUT_FORMAT_NAMES.length; format++) {
+      if (INPUT_FORMAT_NAMES[format].equals(name)) {
+        return format;
+      }
     }
+    throw new IllegalArgumentException("Unknown input format " + name);
+  }
+
+  /** Preprocess and forward latency of the current input format, to compare formats in logcat. */
+  private void logInputFormatLatency() {
+    Log.i(Constants.TAG, String.format(Locale.US,
+        "%s %s input: preprocess p50 %.2f ms, forward p50 %.2f ms p90 %.2f ms",
+        getModuleAssetName(), INPUT_FORMAT_NAMES[mInputFormat],
+        mLatencyRecorder.percentileNanos(LatencyRecorder.STAGE_PREPROCESS, 50) / 1e6f,
+        mLatencyRecorder.percentileNanos(LatencyRecorder.STAGE_FORWARD, 50) / 1e6f,
+        mLatencyRecorder.percentileNanos(LatencyRecorder.STAGE_FORWARD, 90) / 1e6f));
+  }
+
+  /**
+   * Frames of a static scene that reused the last result and an estimate of the work they
+   * saved, from the median preprocess and forward latency of analyzed frames.
+   */
+  private void logReusedFrameSavings() {
+    final long savedNanos = mReusedFrameCount
+        * (mLatencyRecorder.percentileNanos(LatencyRecorder.STAGE_PREPROCESS, 50)
+        + mLatencyRecorder.percentileNanos(LatencyRecorder.STAGE_FORWARD, 50));
+    Log.i(Constants.TAG, String.format(Locale.US,
+        "Unchanged scene: %d of %d frames reused a result, about %d ms of preprocess and forward saved, last difference %.2f",
+        mReusedFrameCount, mReusedFrameCount + mAnalyzedFrameCount, savedNanos / NANOS_PER_MS,
+        mSceneChangeDetector.getLastDifference()));
+  }
+
+  @Override
+  protected FrameScheduler createFrameScheduler() {
+    // preprocess of one frame overlaps forward of the previous one, the stages may be busy for
+    // up to one frame interval per slot
+    return new AdaptiveFrameScheduler(TARGET_FPS, INPUT_SLOT_COUNT, MAX_LATENCY_MS);
   }
 
   @Override
@@ -212,8 +420,18 @@ public class ImageClassificationActivity extends AbstractCameraXActivity<ImageCl
   }
 
   @Override
-  protected void onDestroy() {
-    super.onDestroy();
+  @WorkerThread
+  protected void onAnalysisStopped() {
+    final Thread forwardThread = mForwardThread;
+    if (forwardThread != null) {
+      forwardThread.interrupt();
+      try {
+        // the module must not be destroyed while forward runs on it
+        forwardThread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
     if (mModule != null) {
       mModule.destroy();
     }
@@ -0,0 +1,263 @@
+package org.pytorch.demo.vision;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+import android.view.TextureView;
+import android.view.View;
+import android.view.ViewStub;
+import android.widget.TextView;
+
+import org.pytorch.IValue;
+import org.pytorch.Module;
+import org.pytorch.Tensor;
+import org.pytorch.demo.Constants;
+import org.pytorch.demo.LatencyRecorder;
+import org.pytorch.demo.R;
+import org.pytorch.demo.Utils;
+import org.pytorch.demo.vision.view.SegmentationOverlayView;
+import org.pytorch.torchvision.TensorImageUtils;
+
+import java.io.File;
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+/**
+ * Live semantic segmentation of the camera preview with a reduced resolution DeepLabV3 model.
+ *
+ * The input tensor, the smoothed logits and the label map are allocated once for the model input
+ * size, every frame reuses them. Masks are stabilized over time by {@link TemporalMaskSmoother}
+ * and only the rectangle of labels that changed is recolored in the overlay. Frames are segmented
+ * from the copies in the {@link FrameRing} of {@link AbstractCameraXActivity}, the camera image is
+ * already released when inference runs.
+ */
+public class ImageSegmentationActivity extends AbstractCameraXActivity<ImageSegmentationActivity.AnalysisResult> {
+
+  public static final String INTENT_MODULE_ASSET_NAME = "INTENT_MODULE_ASSET_NAME";
+  public static final String INTENT_INFO_VIEW_TYPE = "INTENT_INFO_VIEW_TYPE";
+
+  private static final int INPUT_TENSOR_WIDTH = 224;
+  private static final int INPUT_TENSOR_HEIGHT = 224;
+  private static final int CLASS_COUNT = 21;
+  // weight of the newest frame in the logits moving average
+  private static final float SMOOTHING_ALPHA = 0.5f;
+  // logit margin a new class needs over the current one before a pixel switches
+  private static final float LABEL_HYSTERESIS = 0.5f;
+  private static final int OVERLAY_ALPHA = 0x80;
+  private static final int LATENCY_WINDOW_SIZE = 128;
+  private static final long NANOS_PER_MS = 1_000_000L;
+
+  static class AnalysisResult {
+
+    private final boolean maskChanged;
+
+    public AnalysisResult(boolean maskChanged) {
+      this.maskChanged = maskChanged;
+    }
+  }
+
+  private volatile boolean mAnalyzeImageErrorState;
+  private SegmentationOverlayView mOverlayView;
+  private TextView mFpsText;
+  private TextView mMsText;
+  private Module mModule;
+  private String mModuleAssetName;
+  private FloatBuffer mInputTensorBuffer;
+  private Tensor mInputTensor;
+  private Yuv420TensorConverter mInputConverter;
+  private final TemporalMaskSmoother mMaskSmoother = new TemporalMaskSmoother(CLASS_COUNT,
+      INPUT_TENSOR_WIDTH, INPUT_TENSOR_HEIGHT, SMOOTHING_ALPHA, LABEL_HYSTERESIS);
+  private final int[] mDirty = new int[4];
+  private final int[] mColors = vocColors(CLASS_COUNT, OVERLAY_ALPHA);
+  private final LatencyRecorder mLatencyRecorder = new LatencyRecorder(LATENCY_WINDOW_SIZE);
+  private long mLastResultTime;
+  private final StringBuilder mOverlayTextBuilder = new StringBuilder(32);
+  private final char[] mOverlayTextChars = new char[32];
+
+  @Override
+  protected int getContentViewLayoutId() {
+    return R.layout.activity_image_segmentation;
+  }
+
+  @Override
+  protected TextureView getCameraPreviewTextureView() {
+    return ((ViewStub) findViewById(R.id.image_segmentation_texture_view_stub))
+        .inflate()
+        .findViewById(R.id.image_classification_texture_view);
+  }
+
+  @Override
+  protected void onCreate(Bundle savedInstanceState) {
+    super.onCreate(savedInstanceState);
+    mOverlayView = findViewById(R.id.image_segmentation_overlay_view);
+    mFpsText = findViewById(R.id.image_segmentation_fps_text);
+    mMsText = findViewById(R.id.image_segmentation_ms_text);
+  }
+
+  @Override
+  protected void applyToUiAnalyzeImageResult(AnalysisResult result) {
+    final long startTime = SystemClock.elapsedRealtimeNanos();
+    if (result.maskChanged) {
+      mOverlayView.applyPendingUpdate();
+    }
+
+    final StringBuilder sb = mOverlayTextBuilder;
+    sb.setLength(0);
+    appendMs(sb, mLatencyRecorder.lastNanos(LatencyRecorder.STAGE_FORWARD)).append("ms");
+    setOverlayText(mMsText, sb);
+
+    // frames per second with one decimal digit from the median interval between results, the rate
+    // the overlay updates at, which also counts time spent waiting for camera frames
+    final long intervalNanos = mLatencyRecorder.percentileNanos(LatencyRecorder.STAGE_RESULT_INTERVAL, 50);
+    if (intervalNanos > 0) {
+      final long fpsTenths = 10_000_000_000L / intervalNanos;
+      sb.setLength(0);
+      sb.append(fpsTenths / 10).append('.').append(fpsTenths % 10).append("FPS");
+      setOverlayText(mFpsText, sb);
+    }
+    mLatencyRecorder.record(LatencyRecorder.STAGE_UI_APPLY,
+        SystemClock.elapsedRealtimeNanos() - startTime);
+  }
+
+  private static StringBuilder appendMs(StringBuilder sb, long nanos) {
+    return sb.append((nanos + NANOS_PER_MS / 2) / NANOS_PER_MS);
+  }
+
+  private void setOverlayText(TextView textView, StringBuilder sb) {
+    final int length = Math.min(sb.length(), mOverlayTextChars.length);
+    sb.getChars(0, length, mOverlayTextChars, 0);
+    textView.setText(mOverlayTextChars, 0, length);
+    if (textView.getVisibility() != View.VISIBLE) {
+      textView.setVisibility(View.VISIBLE);
+    }
+  }
+
+  protected String getModuleAssetName() {
+    if (!TextUtils.isEmpty(mModuleAssetName)) {
+      return mModuleAssetName;
+    }
+    final String moduleAssetNameFromIntent = getIntent().getStringExtra(INTENT_MODULE_ASSET_NAME);
+    mModuleAssetName = !TextUtils.isEmpty(moduleAssetNameFromIntent)
+        ? moduleAssetNameFromIntent
+        : "deeplabv3_mobilenet.pt";
+
+    return mModuleAssetName;
+  }
+
+  @Override
+  protected String getInfoViewAdditionalText() {
+    return getModuleAssetName();
+  }
+
+  /**
+   * Converts and segments a frame copy. The tensor and the smoothed labels are only touched by the
+   * analysis thread.
+   */
+  @Override
+  @WorkerThread
+  @Nullable
+  protected AnalysisResult analyzeFrame(FrameRing.Frame frame) {
+    if (mAnalyzeImageErrorState) {
+      return null;
+    }
+
+    try {
+      if (mModule == null) {
+        final String moduleFileAbsoluteFilePath = new File(
+            Utils.assetFilePath(this, getModuleAssetName())).getAbsolutePath();
+        mModule = Module.load(moduleFileAbsoluteFilePath);
+        mInputTensorBuffer =
+            Tensor.allocateFloatBuffer(3 * INPUT_TENSOR_WIDTH * INPUT_TENSOR_HEIGHT);
+        mInputTensor = Tensor.fromBlob(mInputTensorBuffer, new long[]{1, 3, INPUT_TENSOR_HEIGHT, INPUT_TENSOR_WIDTH});
+        mInputConverter = new Yuv420TensorConverter(
+            INPUT_TENSOR_WIDTH, INPUT_TENSOR_HEIGHT, Yuv420TensorConverter.FORMAT_FLOAT32_NCHW,
+            TensorImageUtils.TORCHVISION_NORM_MEAN_RGB,
+            TensorImageUtils.TORCHVISION_NORM_STD_RGB,
+            ForkJoinPool.commonPool());
+      }
+
+      final long startTime = SystemClock.elapsedRealtimeNanos();
+      final boolean rotated = frame.rotationDegrees == 90 || frame.rotationDegrees == 270;
+      final int overlayWidth = rotated ? frame.height : frame.width;
+      final int overlayHeight = rotated ? frame.width : frame.height;
+      mInputConverter.convert(frame.width, frame.height, frame.rotationDegrees,
+          frame.yBuffer, frame.yRowStride, frame.yPixelStride,
+          frame.uBuffer, frame.vBuffer, frame.uvRowStride, frame.uvPixelStride,
+          mInputTensorBuffer, 0);
+
+      final long moduleForwardStartTime = SystemClock.elapsedRealtimeNanos();
+      mLatencyRecorder.record(LatencyRecorder.STAGE_PREPROCESS, moduleForwardStartTime - startTime);
+      final IValue output = mModule.forward(IValue.from(mInputTensor));
+      final Tensor logitsTensor = output.isDictStringKey()
+          ? output.toDictStringKey().get("out").toTensor()
+          : output.toTensor();
+      final float[] logits = logitsTensor.getDataAsFloatArray();
+      final long postprocessStartTime = SystemClock.elapsedRealtimeNanos();
+      mLatencyRecorder.record(LatencyRecorder.STAGE_FORWARD, postprocessStartTime - moduleForwardStartTime);
+
+      final boolean maskChanged = mMaskSmoother.update(logits, mDirty);
+      if (maskChanged) {
+        mOverlayView.updateLabels(mMaskSmoother.getLabels(), INPUT_TENSOR_WIDTH, INPUT_TENSOR_HEIGHT,
+            mDirty, mColors, overlayWidth, overlayHeight);
+      }
+      final long endTime = SystemClock.elapsedRealtimeNanos();
+      mLatencyRecorder.record(LatencyRecorder.STAGE_POSTPROCESS, endTime - postprocessStartTime);
+      mLatencyRecorder.record(LatencyRecorder.STAGE_ANALYSIS, endTime - startTime);
+      if (mLastResultTime != 0) {
+        mLatencyRecorder.record(LatencyRecorder.STAGE_RESULT_INTERVAL, endTime - mLastResultTime);
+      }
+      mLastResultTime = endTime;
+      return new AnalysisResult(maskChanged);
+    } catch (Exception e) {
+      onAnalysisError(e);
+    }
+    return null;
+  }
+
+  private void onAnalysisError(Exception e) {
+    Log.e(Constants.TAG, "Error during image analysis", e);
+    mAnalyzeImageErrorState = true;
+    runOnUiThread(() -> {
+      if (!isFinishing()) {
+        showErrorDialog(v -> ImageSegmentationActivity.this.finish());
+      }
+    });
+  }
+
+  /**
+   * Pascal VOC palette, background is transparent so the preview shows through.
+   */
+  static int[] vocColors(int classCount, int alpha) {
+    final int[] colors = new int[256];
+    for (int label = 1; label < classCount; label++) {
+      int r = 0;
+      int g = 0;
+      int b = 0;
+      for (int bit = 7, c = label; c != 0; bit--, c >>= 3) {
+        r |= (c & 1) << bit;
+        g |= ((c >> 1) & 1) << bit;
+        b |= ((c >> 2) & 1) << bit;
+      }
+      colors[label] = (alpha << 24) | (r << 16) | (g << 8) | b;
+    }
+    return colors;
+  }
+
+  @Override
+  protected int getInfoViewCode() {
+    return getIntent().getIntExtra(INTENT_INFO_VIEW_TYPE, -1);
+  }
+
+  @Override
+  @WorkerThread
+  protected void onAnalysisStopped() {
+    // the module is only used on the analysis thread, forward has returned
+    if (mModule != null) {
+      mModule.destroy();
+    }
+  }
+}
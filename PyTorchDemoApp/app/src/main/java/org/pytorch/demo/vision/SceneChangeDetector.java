@@ -0,0 +1,107 @@
+package org.pytorch.demo.vision;
+
+import android.media.Image;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Tells whether a camera frame shows the same scene as the last frame that was analyzed, so the
+ * result of that frame can be shown again without preprocessing and forward.
+ *
+ * Frames are reduced to a {@code THUMBNAIL_SIZE x THUMBNAIL_SIZE} luma thumbnail read straight
+ * from the Y plane, every cell the average of {@code SAMPLES_PER_CELL^2} pixels spread over it,
+ * a few thousand reads whatever the frame size. The scene changed when the mean absolute
+ * difference to the thumbnail of the last analyzed frame reaches the threshold. Comparing with
+ * the analyzed frame rather than the previous one keeps slow pans from drifting unnoticed.
+ * After the refresh interval a frame counts as changed anyway, so results of a scene that
+ * changed below the threshold recover.
+ */
+public class SceneChangeDetector {
+  private static final int THUMBNAIL_SIZE = 16;
+  private static final int SAMPLES_PER_CELL = 4;
+  private static final long NANOS_PER_MS = 1_000_000L;
+
+  private final float mThreshold;
+  private final long mRefreshIntervalNanos;
+  private final int[] mThumbnail = new int[THUMBNAIL_SIZE * THUMBNAIL_SIZE];
+  private final int[] mReference = new int[THUMBNAIL_SIZE * THUMBNAIL_SIZE];
+  private boolean mHasReference;
+  private long mReferenceTime;
+  private float mLastDifference;
+
+  /**
+   * @param threshold mean absolute luma difference, in 0-255 levels, from which a frame counts as
+   *                  a new scene, lower is more sensitive
+   * @param refreshIntervalMs longest time a result is reused
+   */
+  public SceneChangeDetector(float threshold, long refreshIntervalMs) {
+    if (threshold < 0 || refreshIntervalMs <= 0) {
+      throw new IllegalArgumentException("Threshold must not be negative, refresh interval must be positive");
+    }
+    mThreshold = threshold;
+    mRefreshIntervalNanos = refreshIntervalMs * NANOS_PER_MS;
+  }
+
+  /** @see #isSceneUnchanged(int, int, ByteBuffer, int, int, long) */
+  public boolean isSceneUnchanged(Image image, long nowNanos) {
+    final Image.Plane yPlane = image.getPlanes()[0];
+    return isSceneUnchanged(image.getWidth(), image.getHeight(), yPlane.getBuffer(),
+        yPlane.getRowStride(), yPlane.getPixelStride(), nowNanos);
+  }
+
+  /**
+   * Compares the frame with the last analyzed one. A changed frame becomes the new reference,
+   * callers must analyze every frame this returns false for. The Y plane is read from the buffer
+   * position, which is left unchanged.
+   *
+   * @return true if the result of the last analyzed frame can be reused
+   */
+  public synchronized boolean isSceneUnchanged(int width, int height, ByteBuffer yBuffer,
+                                               int yRowStride, int yPixelStride, long nowNanos) {
+    thumbnail(width, height, yBuffer, yRowStride, yPixelStride);
+    if (mHasReference && nowNanos - mReferenceTime < mRefreshIntervalNanos) {
+      long sum = 0;
+      for (int i = 0; i < mThumbnail.length; i++) {
+        sum += Math.abs(mThumbnail[i] - mReference[i]);
+      }
+      mLastDifference = (float) sum / mThumbnail.length;
+      if (mLastDifference < mThreshold) {
+        return true;
+      }
+    }
+    System.arraycopy(mThumbnail, 0, mReference, 0, mThumbnail.length);
+    mHasReference = true;
+    mReferenceTime = nowNanos;
+    return false;
+  }
+
+  /** Difference of the last compared frame to the reference, to tune the threshold. */
+  public synchronized float getLastDifference() {
+    return mLastDifference;
+  }
+
+  /** Makes the next frame count as changed, for example after the model changed. */
+  public synchronized void reset() {
+    mHasReference = false;
+  }
+
+  private void thumbnail(int width, int height, ByteBuffer yBuffer, int yRowStride, int yPixelStride) {
+    final int position = yBuffer.position();
+    final int gridSize = THUMBNAIL_SIZE * SAMPLES_PER_CELL;
+    for (int cellY = 0; cellY < THUMBNAIL_SIZE; cellY++) {
+      for (int cellX = 0; cellX < THUMBNAIL_SIZE; cellX++) {
+        int sum = 0;
+        for (int sy = 0; sy < SAMPLES_PER_CELL; sy++) {
+          // sample centers of a gridSize x gridSize grid over the frame
+          final int y = ((cellY * SAMPLES_PER_CELL + sy) * 2 + 1) * height / (2 * gridSize);
+          final int rowStart = position + y * yRowStride;
+          for (int sx = 0; sx < SAMPLES_PER_CELL; sx++) {
+            final int x = ((cellX * SAMPLES_PER_CELL + sx) * 2 + 1) * width / (2 * gridSize);
+            sum += yBuffer.get(rowStart + x * yPixelStride) & 0xFF;
+          }
+        }
+        mThumbnail[cellY * THUMBNAIL_SIZE + cellX] = sum / (SAMPLES_PER_CELL * SAMPLES_PER_CELL);
+      }
+    }
+  }
+}
@@ -0,0 +1,132 @@
+package org.pytorch.demo.vision;
+
+import java.util.Arrays;
+
+/**
+ * Stabilizes per-frame segmentation logits into a label map that does not flicker.
+ *
+ * Logits are smoothed with an exponential moving average, then a pixel only switches to a new
+ * class when that class beats the smoothed logit of the current one by the hysteresis margin.
+ * Both passes stream the class planes one after another like the argmax in ImageSegmentation.
+ * The bounding box of pixels whose label changed is reported so only that part of the overlay
+ * has to be repainted. All buffers are allocated in the constructor.
+ */
+public class TemporalMaskSmoother {
+  private final int mClassCount;
+  private final int mWidth;
+  private final int mHeight;
+  private final int mPlaneSize;
+  private final float mAlpha;
+  private final float mHysteresis;
+  private final float[] mSmoothed;
+  private final float[] mMax;
+  private final byte[] mBest;
+  private final byte[] mLabels;
+  private boolean mHasHistory;
+
+  /**
+   * @param alpha      weight of the newest frame in (0, 1], 1 disables smoothing
+   * @param hysteresis logit margin a new class needs over the current one to take a pixel over
+   */
+  public TemporalMaskSmoother(int classCount, int width, int height, float alpha, float hysteresis) {
+    if (alpha <= 0 || alpha > 1) {
+      throw new IllegalArgumentException("Alpha must be in (0, 1]");
+    }
+    mClassCount = classCount;
+    mWidth = width;
+    mHeight = height;
+    mPlaneSize = width * height;
+    mAlpha = alpha;
+    mHysteresis = hysteresis;
+    mSmoothed = new float[classCount * mPlaneSize];
+    mMax = new float[mPlaneSize];
+    mBest = new byte[mPlaneSize];
+    mLabels = new byte[mPlaneSize];
+  }
+
+  /** Current labels, row stride is the width, updated in place by {@link #update}. */
+  public byte[] getLabels() {
+    return mLabels;
+  }
+
+  /**
+   * Folds a 1 x classes x height x width logits frame into the smoothed state.
+   *
+   * @param outDirty receives {left, top, right, bottom} of changed labels, right and bottom
+   *                 exclusive, when the method returns true
+   * @return false if no label changed
+   */
+  public boolean update(float[] logits, int[] outDirty) {
+    if (logits.length < mSmoothed.length) {
+      throw new IllegalArgumentException("Logits are smaller than classes * height * width");
+    }
+    final float[] smoothed = mSmoothed;
+    if (mHasHistory) {
+      final float alpha = mAlpha;
+      for (int i = 0, n = smoothed.length; i < n; i++) {
+        smoothed[i] += alpha * (logits[i] - smoothed[i]);
+      }
+    } else {
+      System.arraycopy(logits, 0, smoothed, 0, smoothed.length);
+    }
+
+    final int planeSize = mPlaneSize;
+    final float[] max = mMax;
+    final byte[] best = mBest;
+    System.arraycopy(smoothed, 0, max, 0, planeSize);
+    Arrays.fill(best, (byte) 0);
+    for (int c = 1; c < mClassCount; c++) {
+      final int plane = c * planeSize;
+      final byte label = (byte) c;
+      for (int p = 0; p < planeSize; p++) {
+        final float v = smoothed[plane + p];
+        if (v > max[p]) {
+          max[p] = v;
+          best[p] = label;
+        }
+      }
+    }
+
+    final byte[] labels = mLabels;
+    final float margin = mHasHistory ? mHysteresis : Float.NEGATIVE_INFINITY;
+    int left = mWidth;
+    int top = mHeight;
+    int right = 0;
+    int bottom = 0;
+    for (int y = 0, p = 0; y < mHeight; y++) {
+      for (int x = 0; x < mWidth; x++, p++) {
+        final byte current = labels[p];
+        final byte candidate = best[p];
+        if (candidate != current
+            && (!mHasHistory || max[p] > smoothed[(current & 0xFF) * planeSize + p] + margin)) {
+          labels[p] = candidate;
+          left = Math.min(left, x);
+          right = Math.max(right, x + 1);
+          top = Math.min(top, y);
+          bottom = y + 1;
+        }
+      }
+    }
+    // the first frame repaints everything, labels start as all zeros
+    if (!mHasHistory) {
+      left = 0;
+      top = 0;
+      right = mWidth;
+      bottom = mHeight;
+      mHasHistory = true;
+    }
+    if (right <= left) {
+      return false;
+    }
+    outDirty[0] = left;
+    outDirty[1] = top;
+    outDirty[2] = right;
+    outDirty[3] = bottom;
+    return true;
+  }
+
+  public void reset() {
+    mHasHistory = false;
+    Arrays.fill(mLabels, (byte) 0);
+  }
+}
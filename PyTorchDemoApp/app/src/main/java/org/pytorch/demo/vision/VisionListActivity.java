@@ -27,6 +27,13 @@ public class VisionListActivity extends AbstractListActivity {
           InfoViewFactory.INFO_VIEW_TYPE_IMAGE_CLASSIFICATION_RESNET);
       startActivity(intent);
     });
+    findViewById(R.id.vision_card_deeplab_click_area).setOnClickListener(v -> {
+      final Intent intent = new Intent(VisionListActivity.this, ImageSegmentationActivity.class);
+      intent.putExtra(ImageSegmentationActivity.INTENT_MODULE_ASSET_NAME, "deeplabv3_mobilenet.pt");
+      intent.putExtra(ImageSegmentationActivity.INTENT_INFO_VIEW_TYPE,
+          InfoViewFactory.INFO_VIEW_TYPE_IMAGE_SEGMENTATION_DEEPLAB);
+      startActivity(intent);
+    });
   }
 
   @Override
@@ -0,0 +1,426 @@
+package org.pytorch.demo.vision;
+
+import android.graphics.ImageFormat;
+import android.media.Image;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Converts YUV_420_888 frames into a rotated, center-cropped input tensor in one pass, a tunable
+ * replacement for {@code TensorImageUtils.imageYUV420CenterCropToFloatBuffer} with the same
+ * nearest neighbor sampling and fixed-point color conversion.
+ *
+ * The output is one of the {@code FORMAT_*} layouts: normalized float32 1 x 3 x H x W, the same
+ * values channels-last as 1 x H x W x 3, or raw uint8 RGB 1 x H x W x 3 for models that take
+ * bytes and normalize themselves, a quarter of the float size and no normalization pass here.
+ *
+ * For every frame geometry (size, rotation and plane strides) the Y and UV source index of each
+ * output pixel is computed once and cached, the per-pixel loop is then table lookups only: the
+ * YUV to RGB products come from 256-entry tables and the {@code (x / 255 - mean) / std}
+ * normalization of every channel from a 256-entry float table. Planes are copied into arrays
+ * first, as array reads are much cheaper than ByteBuffer reads, and output rows are split into
+ * bands over the pool. All buffers and tasks are reused, converting a frame of a known geometry
+ * does not allocate.
+ */
+public class Yuv420TensorConverter {
+  public static final int FORMAT_FLOAT32_NCHW = 0;
+  public static final int FORMAT_FLOAT32_NHWC = 1;
+  public static final int FORMAT_UINT8_NHWC = 2;
+
+  private static final int MAX_CACHED_GEOMETRIES = 4;
+
+  // fixed-point BT.601 video range coefficients, scaled by 1024
+  private static final int[] Y_TABLE = new int[256];
+  private static final int[] V_R_TABLE = new int[256];
+  private static final int[] V_G_TABLE = new int[256];
+  private static final int[] U_G_TABLE = new int[256];
+  private static final int[] U_B_TABLE = new int[256];
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      Y_TABLE[i] = 1192 * (i - 16);
+      V_R_TABLE[i] = 1634 * (i - 128);
+      V_G_TABLE[i] = 832 * (i - 128);
+      U_G_TABLE[i] = 400 * (i - 128);
+      U_B_TABLE[i] = 2066 * (i - 128);
+    }
+  }
+
+  private final int mTensorWidth;
+  private final int mTensorHeight;
+  private final int mPlaneSize;
+  private final int mFormat;
+  private final ForkJoinPool mPool;
+  private final float[] mNormR = new float[256];
+  private final float[] mNormG = new float[256];
+  private final float[] mNormB = new float[256];
+  private final float[] mOut;
+  private final byte[] mOutBytes;
+  private final List<IndexMap> mIndexMaps = new ArrayList<>(MAX_CACHED_GEOMETRIES);
+  private final List<BandTask> mBands = new ArrayList<>();
+  private final RecursiveAction mInvokeBands = new RecursiveAction() {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void compute() {
+      ForkJoinTask.invokeAll(mBands);
+    }
+  };
+  private byte[] mY = new byte[0];
+  private byte[] mU = new byte[0];
+  private byte[] mV = new byte[0];
+  private IndexMap mIndexMap;
+
+  /**
+   * @param format      one of the {@code FORMAT_*} constants
+   * @param normMeanRGB ignored for {@link #FORMAT_UINT8_NHWC}
+   * @param normStdRGB  ignored for {@link #FORMAT_UINT8_NHWC}
+   */
+  public Yuv420TensorConverter(int tensorWidth, int tensorHeight, int format, float[] normMeanRGB,
+                               float[] normStdRGB, ForkJoinPool pool) {
+    if (tensorWidth <= 0 || tensorHeight <= 0) {
+      throw new IllegalArgumentException("Tensor size must be positive");
+    }
+    if (format != FORMAT_FLOAT32_NCHW && format != FORMAT_FLOAT32_NHWC && format != FORMAT_UINT8_NHWC) {
+      throw new IllegalArgumentException("Unknown format " + format);
+    }
+    if (normMeanRGB.length != 3 || normStdRGB.length != 3) {
+      throw new IllegalArgumentException("normMeanRGB and normStdRGB must have 3 elements");
+    }
+    mTensorWidth = tensorWidth;
+    mTensorHeight = tensorHeight;
+    mPlaneSize = tensorWidth * tensorHeight;
+    mFormat = format;
+    mPool = pool;
+    for (int i = 0; i < 256; i++) {
+      mNormR[i] = (i / 255.f - normMeanRGB[0]) / normStdRGB[0];
+      mNormG[i] = (i / 255.f - normMeanRGB[1]) / normStdRGB[1];
+      mNormB[i] = (i / 255.f - normMeanRGB[2]) / normStdRGB[2];
+    }
+    mOut = format == FORMAT_UINT8_NHWC ? null : new float[3 * mPlaneSize];
+    mOutBytes = format == FORMAT_UINT8_NHWC ? new byte[3 * mPlaneSize] : null;
+
+    final int bandCount = Math.min(tensorHeight, Math.max(1, pool.getParallelism()));
+    final int bandRows = (tensorHeight + bandCount - 1) / bandCount;
+    for (int row = 0; row < tensorHeight; row += bandRows) {
+      mBands.add(new BandTask(row, Math.min(tensorHeight, row + bandRows)));
+    }
+  }
+
+  public int getFormat() {
+    return mFormat;
+  }
+
+  /**
+   * Converts into a float32 tensor buffer.
+   *
+   * @param rotateCWDegrees clockwise rotation that makes the frame upright, 0, 90, 180 or 270
+   */
+  public void convert(Image image, int rotateCWDegrees, FloatBuffer outBuffer, int outOffset) {
+    final Image.Plane[] planes = checkPlanes(image);
+    convert(image.getWidth(), image.getHeight(), rotateCWDegrees,
+        planes[0].getBuffer(), planes[0].getRowStride(), planes[0].getPixelStride(),
+        planes[1].getBuffer(), planes[2].getBuffer(), planes[1].getRowStride(),
+        planes[1].getPixelStride(), outBuffer, outOffset);
+  }
+
+  /** Converts into a uint8 tensor buffer, for {@link #FORMAT_UINT8_NHWC}. */
+  public void convert(Image image, int rotateCWDegrees, ByteBuffer outBuffer, int outOffset) {
+    final Image.Plane[] planes = checkPlanes(image);
+    convert(image.getWidth(), image.getHeight(), rotateCWDegrees,
+        planes[0].getBuffer(), planes[0].getRowStride(), planes[0].getPixelStride(),
+        planes[1].getBuffer(), planes[2].getBuffer(), planes[1].getRowStride(),
+        planes[1].getPixelStride(), outBuffer, outOffset);
+  }
+
+  private static Image.Plane[] checkPlanes(Image image) {
+    if (image.getFormat() != ImageFormat.YUV_420_888) {
+      throw new IllegalArgumentException("Image format " + image.getFormat() + " is not YUV_420_888");
+    }
+    return image.getPlanes();
+  }
+
+  /**
+   * Converts a frame given as plane buffers, for frames copied out of their {@link Image}. Plane
+   * data is read from the buffer positions, which are left unchanged, and the tensor is written
+   * at {@code outOffset} without moving the position of {@code outBuffer}.
+   */
+  public synchronized void convert(int width, int height, int rotateCWDegrees,
+                                   ByteBuffer yBuffer, int yRowStride, int yPixelStride,
+                                   ByteBuffer uBuffer, ByteBuffer vBuffer,
+                                   int uvRowStride, int uvPixelStride,
+                                   FloatBuffer outBuffer, int outOffset) {
+    if (mFormat == FORMAT_UINT8_NHWC) {
+      throw new IllegalStateException("Converter produces uint8 tensors");
+    }
+    checkOutput(outBuffer.capacity(), outOffset);
+    run(width, height, rotateCWDegrees, yBuffer, yRowStride, yPixelStride, uBuffer, vBuffer,
+        uvRowStride, uvPixelStride);
+    final int position = outBuffer.position();
+    outBuffer.position(outOffset);
+    outBuffer.put(mOut);
+    outBuffer.position(position);
+  }
+
+  /** Like the FloatBuffer variant, for {@link #FORMAT_UINT8_NHWC}. */
+  public synchronized void convert(int width, int height, int rotateCWDegrees,
+                                   ByteBuffer yBuffer, int yRowStride, int yPixelStride,
+                                   ByteBuffer uBuffer, ByteBuffer vBuffer,
+                                   int uvRowStride, int uvPixelStride,
+                                   ByteBuffer outBuffer, int outOffset) {
+    if (mFormat != FORMAT_UINT8_NHWC) {
+      throw new IllegalStateException("Converter produces float32 tensors");
+    }
+    checkOutput(outBuffer.capacity(), outOffset);
+    run(width, height, rotateCWDegrees, yBuffer, yRowStride, yPixelStride, uBuffer, vBuffer,
+        uvRowStride, uvPixelStride);
+    final int position = outBuffer.position();
+    outBuffer.position(outOffset);
+    outBuffer.put(mOutBytes);
+    outBuffer.position(position);
+  }
+
+  private void checkOutput(int capacity, int outOffset) {
+    if (outOffset < 0 || capacity - outOffset < 3 * mPlaneSize) {
+      throw new IllegalArgumentException("Output buffer is smaller than 3 * height * width");
+    }
+  }
+
+  private void run(int width, int height, int rotateCWDegrees,
+                   ByteBuffer yBuffer, int yRowStride, int yPixelStride,
+                   ByteBuffer uBuffer, ByteBuffer vBuffer, int uvRowStride, int uvPixelStride) {
+    final IndexMap map = indexMap(width, height, rotateCWDegrees,
+        yRowStride, yPixelStride, uvRowStride, uvPixelStride);
+    if (yBuffer.remaining() <= map.maxYIndex
+        || uBuffer.remaining() <= map.maxUvIndex || vBuffer.remaining() <= map.maxUvIndex) {
+      throw new IllegalArgumentException("Plane buffers are smaller than the strides require");
+    }
+    mY = copyPlane(yBuffer, mY);
+    mU = copyPlane(uBuffer, mU);
+    mV = copyPlane(vBuffer, mV);
+    mIndexMap = map;
+
+    if (mBands.size() == 1) {
+      mBands.get(0).compute();
+    } else {
+      for (BandTask band : mBands) {
+        band.reinitialize();
+      }
+      mInvokeBands.reinitialize();
+      mPool.invoke(mInvokeBands);
+    }
+  }
+
+  private static byte[] copyPlane(ByteBuffer buffer, byte[] array) {
+    final int size = buffer.remaining();
+    final byte[] out = array.length < size ? new byte[size] : array;
+    final int position = buffer.position();
+    buffer.get(out, 0, size);
+    buffer.position(position);
+    return out;
+  }
+
+  private IndexMap indexMap(int width, int height, int rotateCWDegrees, int yRowStride,
+                            int yPixelStride, int uvRowStride, int uvPixelStride) {
+    for (int i = 0; i < mIndexMaps.size(); i++) {
+      final IndexMap map = mIndexMaps.get(i);
+      if (map.matches(width, height, rotateCWDegrees, yRowStride, yPixelStride, uvRowStride,
+          uvPixelStride)) {
+        return map;
+      }
+    }
+    final IndexMap map = new IndexMap(width, height, rotateCWDegrees, yRowStride, yPixelStride,
+        uvRowStride, uvPixelStride, mTensorWidth, mTensorHeight);
+    if (mIndexMaps.size() == MAX_CACHED_GEOMETRIES) {
+      mIndexMaps.remove(0);
+    }
+    mIndexMaps.add(map);
+    return map;
+  }
+
+  /** Y and UV plane index of every output pixel for one frame geometry. */
+  private static class IndexMap {
+    final int width;
+    final int height;
+    final int rotation;
+    final int yRowStride;
+    final int yPixelStride;
+    final int uvRowStride;
+    final int uvPixelStride;
+    final int[] yIndex;
+    final int[] uvIndex;
+    final int maxYIndex;
+    final int maxUvIndex;
+
+    IndexMap(int width, int height, int rotation, int yRowStride, int yPixelStride,
+             int uvRowStride, int uvPixelStride, int tensorWidth, int tensorHeight) {
+      if (rotation != 0 && rotation != 90 && rotation != 180 && rotation != 270) {
+        throw new IllegalArgumentException("Unsupported rotation " + rotation);
+      }
+      this.width = width;
+      this.height = height;
+      this.rotation = rotation;
+      this.yRowStride = yRowStride;
+      this.yPixelStride = yPixelStride;
+      this.uvRowStride = uvRowStride;
+      this.uvPixelStride = uvPixelStride;
+
+      final boolean oddRotation = rotation == 90 || rotation == 270;
+      final int rotatedWidth = oddRotation ? height : width;
+      final int rotatedHeight = oddRotation ? width : height;
+      // largest crop of the tensor aspect ratio, centered in the rotated frame
+      int cropWidth = rotatedWidth;
+      int cropHeight = rotatedHeight;
+      if (tensorWidth * rotatedHeight <= tensorHeight * rotatedWidth) {
+        cropWidth = tensorWidth * rotatedHeight / tensorHeight;
+      } else {
+        cropHeight = tensorHeight * rotatedWidth / tensorWidth;
+      }
+      final int cropX = (rotatedWidth - cropWidth) / 2;
+      final int cropY = (rotatedHeight - cropHeight) / 2;
+
+      yIndex = new int[tensorWidth * tensorHeight];
+      uvIndex = new int[tensorWidth * tensorHeight];
+      int maxY = 0;
+      int maxUv = 0;
+      for (int ty = 0; ty < tensorHeight; ty++) {
+        final int ry = cropY + (int) ((long) ty * cropHeight / tensorHeight);
+        for (int tx = 0; tx < tensorWidth; tx++) {
+          final int rx = cropX + (int) ((long) tx * cropWidth / tensorWidth);
+          final int sx;
+          final int sy;
+          switch (rotation) {
+            case 90:
+              sx = ry;
+              sy = height - 1 - rx;
+              break;
+            case 180:
+              sx = width - 1 - rx;
+              sy = height - 1 - ry;
+              break;
+            case 270:
+              sx = width - 1 - ry;
+              sy = rx;
+              break;
+            default:
+              sx = rx;
+              sy = ry;
+              break;
+          }
+          final int i = ty * tensorWidth + tx;
+          yIndex[i] = sy * yRowStride + sx * yPixelStride;
+          uvIndex[i] = (sy >> 1) * uvRowStride + (sx >> 1) * uvPixelStride;
+          maxY = Math.max(maxY, yIndex[i]);
+          maxUv = Math.max(maxUv, uvIndex[i]);
+        }
+      }
+      maxYIndex = maxY;
+      maxUvIndex = maxUv;
+    }
+
+    boolean matches(int width, int height, int rotation, int yRowStride, int yPixelStride,
+                    int uvRowStride, int uvPixelStride) {
+      return this.width == width && this.height == height && this.rotation == rotation
+          && this.yRowStride == yRowStride && this.yPixelStride == yPixelStride
+          && this.uvRowStride == uvRowStride && this.uvPixelStride == uvPixelStride;
+    }
+  }
+
+  private class BandTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final int mStartRow;
+    private final int mEndRow;
+
+    BandTask(int startRow, int endRow) {
+      mStartRow = startRow;
+      mEndRow = endRow;
+    }
+
+    @Override
+    protected void compute() {
+      final int start = mStartRow * mTensorWidth;
+      final int end = mEndRow * mTensorWidth;
+      // one loop per format keeps the layout branch out of the per-pixel loop
+      switch (mFormat) {
+        case FORMAT_FLOAT32_NHWC:
+          computeFloatNhwc(start, end);
+          break;
+        case FORMAT_UINT8_NHWC:
+          computeUint8Nhwc(start, end);
+          break;
+        default:
+          computeFloatNchw(start, end);
+          break;
+      }
+    }
+
+    private void computeFloatNchw(int start, int end) {
+      final int[] yIndex = mIndexMap.yIndex;
+      final int[] uvIndex = mIndexMap.uvIndex;
+      final byte[] yPlane = mY;
+      final byte[] uPlane = mU;
+      final byte[] vPlane = mV;
+      final float[] normR = mNormR;
+      final float[] normG = mNormG;
+      final float[] normB = mNormB;
+      final float[] out = mOut;
+      final int planeSize = mPlaneSize;
+      for (int i = start; i < end; i++) {
+        final int y = Y_TABLE[yPlane[yIndex[i]] & 0xFF];
+        final int u = uPlane[uvIndex[i]] & 0xFF;
+        final int v = vPlane[uvIndex[i]] & 0xFF;
+        out[i] = normR[clamp((y + V_R_TABLE[v]) >> 10)];
+        out[planeSize + i] = normG[clamp((y - V_G_TABLE[v] - U_G_TABLE[u]) >> 10)];
+        out[2 * planeSize + i] = normB[clamp((y + U_B_TABLE[u]) >> 10)];
+      }
+    }
+
+    private void computeFloatNhwc(int start, int end) {
+      final int[] yIndex = mIndexMap.yIndex;
+      final int[] uvIndex = mIndexMap.uvIndex;
+      final byte[] yPlane = mY;
+      final byte[] uPlane = mU;
+      final byte[] vPlane = mV;
+      final float[] normR = mNormR;
+      final float[] normG = mNormG;
+      final float[] normB = mNormB;
+      final float[] out = mOut;
+      for (int i = start; i < end; i++) {
+        final int y = Y_TABLE[yPlane[yIndex[i]] & 0xFF];
+        final int u = uPlane[uvIndex[i]] & 0xFF;
+        final int v = vPlane[uvIndex[i]] & 0xFF;
+        out[3 * i] = normR[clamp((y + V_R_TABLE[v]) >> 10)];
+        out[3 * i + 1] = normG[clamp((y - V_G_TABLE[v] - U_G_TABLE[u]) >> 10)];
+        out[3 * i + 2] = normB[clamp((y + U_B_TABLE[u]) >> 10)];
+      }
+    }
+
+    private void computeUint8Nhwc(int start, int end) {
+      final int[] yIndex = mIndexMap.yIndex;
+      final int[] uvIndex = mIndexMap.uvIndex;
+      final byte[] yPlane = mY;
+      final byte[] uPlane = mU;
+      final byte[] vPlane = mV;
+      final byte[] out = mOutBytes;
+      for (int i = start; i < end; i++) {
+        final int y = Y_TABLE[yPlane[yIndex[i]] & 0xFF];
+        final int u = uPlane[uvIndex[i]] & 0xFF;
+        final int v = vPlane[uvIndex[i]] & 0xFF;
+        out[3 * i] = (byte) clamp((y + V_R_TABLE[v]) >> 10);
+        out[3 * i + 1] = (byte) clamp((y - V_G_TABLE[v] - U_G_TABLE[u]) >> 10);
+        out[3 * i + 2] = (byte) clamp((y + U_B_TABLE[u]) >> 10);
+      }
+    }
+  }
+
+  private static int clamp(int value) {
+    return value < 0 ? 0 : value > 255 ? 255 : value;
+  }
+}
@@ -0,0 +1,140 @@
+package org.pytorch.demo.vision.view;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.UiThread;
+import androidx.annotation.WorkerThread;
+
+/**
+ * Draws a label map over the camera preview.
+ *
+ * The analysis thread recolors only the changed rectangle of an ARGB pixel array and accumulates
+ * it as pending, the UI thread copies just that rectangle into the mask bitmap with setPixels.
+ * Frames analyzed faster than the UI applies them merge their rectangles, so no change is lost.
+ * The mask is the center square crop of the rotated camera frame, it is mapped onto the view
+ * the same way the preview stretches the whole frame over the view bounds.
+ */
+public class SegmentationOverlayView extends View {
+
+  private final Object mLock = new Object();
+  private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+  private final RectF mDst = new RectF();
+  private final Rect mPendingDirty = new Rect();
+  private int[] mPixels;
+  private int mMaskWidth;
+  private int mMaskHeight;
+  private int mFrameWidth;
+  private int mFrameHeight;
+  @Nullable
+  private Bitmap mBitmap;
+
+  public SegmentationOverlayView(@NonNull Context context) {
+    this(context, null);
+  }
+
+  public SegmentationOverlayView(@NonNull Context context, @Nullable AttributeSet attrs) {
+    this(context, attrs, 0);
+  }
+
+  public SegmentationOverlayView(@NonNull Context context, @Nullable AttributeSet attrs,
+                                 int defStyleAttr) {
+    super(context, attrs, defStyleAttr);
+  }
+
+  /**
+   * Recolors the labels inside {@code dirty} = {left, top, right, bottom}.
+   *
+   * @param frameWidth  width of the rotated camera frame the mask was cropped from
+   * @param frameHeight height of the rotated camera frame
+   * @param colors      ARGB color per label
+   */
+  @WorkerThread
+  public void updateLabels(byte[] labels, int maskWidth, int maskHeight, int[] dirty, int[] colors,
+                           int frameWidth, int frameHeight) {
+    synchronized (mLock) {
+      if (mPixels == null || maskWidth != mMaskWidth || maskHeight != mMaskHeight) {
+        mPixels = new int[maskWidth * maskHeight];
+        mMaskWidth = maskWidth;
+        mMaskHeight = maskHeight;
+      }
+      mFrameWidth = frameWidth;
+      mFrameHeight = frameHeight;
+      final int[] pixels = mPixels;
+      for (int y = dirty[1]; y < dirty[3]; y++) {
+        for (int p = y * maskWidth + dirty[0], end = y * maskWidth + dirty[2]; p < end; p++) {
+          pixels[p] = colors[labels[p] & 0xFF];
+        }
+      }
+      mPendingDirty.union(dirty[0], dirty[1], dirty[2], dirty[3]);
+    }
+  }
+
+  /** Copies the pending rectangle into the mask bitmap and redraws. */
+  @UiThread
+  public void applyPendingUpdate() {
+    synchronized (mLock) {
+      if (mPendingDirty.isEmpty()) {
+        return;
+      }
+      if (mBitmap == null || mBitmap.getWidth() != mMaskWidth || mBitmap.getHeight() != mMaskHeight) {
+        mBitmap = Bitmap.createBitmap(mMaskWidth, mMaskHeight, Bitmap.Config.ARGB_8888);
+        mPendingDirty.set(0, 0, mMaskWidth, mMaskHeight);
+      }
+      final Rect dirty = mPendingDirty;
+      mBitmap.setPixels(mPixels, dirty.top * mMaskWidth + dirty.left, mMaskWidth,
+          dirty.left, dirty.top, dirty.width(), dirty.height());
+      dirty.setEmpty();
+      updateDestination();
+    }
+    invalidate();
+  }
+
+  /** Hides the mask until the next update, e.g. after the model changed. */
+  @UiThread
+  public void clear() {
+    synchronized (mLock) {
+      mBitmap = null;
+      mPixels = null;
+      mPendingDirty.setEmpty();
+    }
+    invalidate();
+  }
+
+  @Override
+  protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+    super.onSizeChanged(w, h, oldw, oldh);
+    synchronized (mLock) {
+      updateDestination();
+    }
+  }
+
+  @Override
+  protected void onDraw(Canvas canvas) {
+    super.onDraw(canvas);
+    if (mBitmap != null) {
+      canvas.drawBitmap(mBitmap, null, mDst, mPaint);
+    }
+  }
+
+  private void updateDestination() {
+    if (mFrameWidth == 0 || mFrameHeight == 0) {
+      mDst.set(0, 0, getWidth(), getHeight());
+      return;
+    }
+    final float scaleX = (float) getWidth() / mFrameWidth;
+    final float scaleY = (float) getHeight() / mFrameHeight;
+    final int side = Math.min(mFrameWidth, mFrameHeight);
+    final float left = (mFrameWidth - side) / 2.f * scaleX;
+    final float top = (mFrameHeight - side) / 2.f * scaleY;
+    mDst.set(left, top, left + side * scaleX, top + side * scaleY);
+  }
+}
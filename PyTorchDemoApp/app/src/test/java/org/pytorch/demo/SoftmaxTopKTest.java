@@ -0,0 +1,116 @@
+package org.pytorch.demo;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class SoftmaxTopKTest {
+  private static final float EPSILON = 1e-6f;
+
+  @Test
+  public void matchesFullSoftmax() {
+    final Random random = new Random(0);
+    final float[] logits = new float[1000];
+    for (int i = 0; i < logits.length; i++) {
+      logits[i] = (float) random.nextGaussian() * 5;
+    }
+    final int[] ixs = new int[5];
+    final float[] values = new float[5];
+    final float[] probabilities = new float[5];
+    final float logSumExp = SoftmaxTopK.select(logits, 5, ixs, values, probabilities);
+
+    final float[] expected = softmax(logits);
+    final int[] expectedIxs = new int[5];
+    new TopK().select(logits, 5, expectedIxs, new float[5]);
+    assertArrayEquals(expectedIxs, ixs);
+    for (int i = 0; i < 5; i++) {
+      assertEquals(logits[ixs[i]], values[i], 0);
+      assertEquals(expected[ixs[i]], probabilities[i], EPSILON);
+      assertEquals(expected[ixs[i]], (float) Math.exp(values[i] - logSumExp), EPSILON);
+    }
+  }
+
+  @Test
+  public void bufferMatchesArray() {
+    final float[] logits = {3, -1, 2, 7, 7, 0.5f};
+    final FloatBuffer buffer = FloatBuffer.allocate(logits.length + 2);
+    buffer.position(2);
+    buffer.put(logits);
+    buffer.position(2);
+    final int[] ixs = new int[3];
+    final float[] values = new float[3];
+    final float[] probabilities = new float[3];
+    final float logSumExp = SoftmaxTopK.select(buffer, 3, ixs, values, probabilities);
+
+    final int[] arrayIxs = new int[3];
+    final float[] arrayProbabilities = new float[3];
+    assertEquals(SoftmaxTopK.select(logits, 3, arrayIxs, new float[3], arrayProbabilities), logSumExp, 0);
+    assertArrayEquals(arrayIxs, ixs);
+    assertArrayEquals(arrayProbabilities, probabilities, 0);
+    assertEquals(2, buffer.position());
+  }
+
+  @Test
+  public void tiesRankByIndex() {
+    final int[] ixs = new int[2];
+    final float[] probabilities = new float[2];
+    SoftmaxTopK.select(new float[]{1, 4, 4, 4}, 2, ixs, new float[2], probabilities);
+    assertArrayEquals(new int[]{1, 2}, ixs);
+    assertEquals(Math.exp(4) / (3 * Math.exp(4) + Math.exp(1)), probabilities[0], EPSILON);
+  }
+
+  @Test
+  public void zeroKOnlyComputesLogSumExp() {
+    final float[] logits = {1, 2, 3};
+    final float logSumExp = SoftmaxTopK.select(logits, 0, new int[0], new float[0], new float[0]);
+    assertEquals(Math.log(Math.exp(1) + Math.exp(2) + Math.exp(3)), logSumExp, EPSILON);
+  }
+
+  @Test
+  public void zeroKOnBuffer() {
+    final float logSumExp = SoftmaxTopK.select(FloatBuffer.wrap(new float[]{0, 0}), 0,
+        new int[0], new float[0], new float[0]);
+    assertEquals(Math.log(2), logSumExp, EPSILON);
+  }
+
+  @Test
+  public void leadingNegativeInfinity() {
+    final float[] logits = {Float.NEGATIVE_INFINITY, 1, Float.NEGATIVE_INFINITY, 1};
+    final int[] ixs = new int[4];
+    final float[] probabilities = new float[4];
+    final float logSumExp = SoftmaxTopK.select(logits, 4, ixs, new float[4], probabilities);
+    assertFalse(Float.isNaN(logSumExp));
+    assertArrayEquals(new int[]{1, 3, 0, 2}, ixs);
+    assertArrayEquals(new float[]{0.5f, 0.5f, 0, 0}, probabilities, EPSILON);
+
+    final float[] bufferProbabilities = new float[4];
+    SoftmaxTopK.select(FloatBuffer.wrap(logits), 4, new int[4], new float[4], bufferProbabilities);
+    assertArrayEquals(probabilities, bufferProbabilities, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsNegativeK() {
+    SoftmaxTopK.select(new float[]{1}, -1, new int[1], new float[1], new float[1]);
+  }
+
+  private static float[] softmax(float[] logits) {
+    double max = Double.NEGATIVE_INFINITY;
+    for (float v : logits) {
+      max = Math.max(max, v);
+    }
+    double sum = 0;
+    for (float v : logits) {
+      sum += Math.exp(v - max);
+    }
+    final float[] out = new float[logits.length];
+    for (int i = 0; i < logits.length; i++) {
+      out[i] = (float) (Math.exp(logits[i] - max) / sum);
+    }
+    return out;
+  }
+}
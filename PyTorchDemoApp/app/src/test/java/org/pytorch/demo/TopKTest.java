@@ -0,0 +1,178 @@
+package org.pytorch.demo;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TopKTest {
+  private static final int N = 1000;
+  // the heap is used while k * 32 <= n, 31 is the largest heap k for 1000 elements
+  private static final int[] HEAP_KS = {1, 5, 31};
+  private static final int[] QUICKSELECT_KS = {32, 100, 500, 999, 1000, 1200};
+
+  @Test
+  public void heapMatchesSort() {
+    final TopK topK = new TopK();
+    for (int k : HEAP_KS) {
+      assertMatchesSort(topK, gaussian(N, k), k);
+    }
+  }
+
+  @Test
+  public void quickSelectMatchesSort() {
+    final TopK topK = new TopK();
+    for (int k : QUICKSELECT_KS) {
+      assertMatchesSort(topK, gaussian(N, k), k);
+    }
+  }
+
+  @Test
+  public void tiesRankByIndex() {
+    final TopK topK = new TopK();
+    final Random random = new Random(1);
+    final double[] values = new double[N];
+    for (int i = 0; i < N; i++) {
+      // five distinct values, so every selection cuts through a run of equal values
+      values[i] = random.nextInt(5);
+    }
+    for (int k : HEAP_KS) {
+      assertMatchesSort(topK, values, k);
+    }
+    for (int k : QUICKSELECT_KS) {
+      assertMatchesSort(topK, values, k);
+    }
+
+    final double[] equal = new double[N];
+    assertMatchesSort(topK, equal, 5);
+    assertMatchesSort(topK, equal, 100);
+  }
+
+  @Test
+  public void nanRanksLast() {
+    final TopK topK = new TopK();
+    final double[] values = gaussian(N, 7);
+    for (int i = 0; i < N; i += 3) {
+      values[i] = Double.NaN;
+    }
+    values[1] = Double.NEGATIVE_INFINITY;
+    values[2] = Double.POSITIVE_INFINITY;
+    for (int k : HEAP_KS) {
+      assertMatchesSort(topK, values, k);
+    }
+    for (int k : QUICKSELECT_KS) {
+      assertMatchesSort(topK, values, k);
+    }
+  }
+
+  @Test
+  public void bufferSelectsFromPosition() {
+    final float[] logits = {3, -1, 2, 7, 7, 0.5f};
+    final FloatBuffer buffer = FloatBuffer.allocate(logits.length + 2);
+    buffer.put(new float[]{100, 100});
+    buffer.put(logits);
+    buffer.position(2);
+    final int[] ixs = new int[3];
+    final float[] values = new float[3];
+    assertEquals(3, new TopK().select(buffer, 3, ixs, values));
+    assertArrayEquals(new int[]{3, 4, 0}, ixs);
+    assertArrayEquals(new float[]{7, 7, 3}, values, 0);
+    assertEquals(2, buffer.position());
+  }
+
+  @Test
+  public void writesMinOfKAndLength() {
+    final int[] ixs = {-1, -1, -1, -1};
+    assertEquals(2, new TopK().select(new float[]{1, 2}, 4, ixs, new float[4]));
+    assertArrayEquals(new int[]{1, 0, -1, -1}, ixs);
+    assertEquals(0, new TopK().select(new double[0], 3, ixs, new double[4]));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsSmallOutputBuffers() {
+    new TopK().select(new float[]{1, 2, 3}, 3, new int[3], new float[2]);
+  }
+
+  /** Checks the float[], FloatBuffer and double[] variants, the float ones on the rounded values. */
+  private static void assertMatchesSort(TopK topK, double[] values, int k) {
+    final int n = values.length;
+    final int count = Math.min(k, n);
+    final float[] floats = new float[n];
+    for (int i = 0; i < n; i++) {
+      floats[i] = (float) values[i];
+    }
+    final double[] rounded = new double[n];
+    for (int i = 0; i < n; i++) {
+      rounded[i] = floats[i];
+    }
+    final int[] expectedFloatIxs = sortedIxs(rounded, count);
+    final int[] expectedDoubleIxs = sortedIxs(values, count);
+    final String message = "n=" + n + " k=" + k;
+
+    final int[] ixs = new int[count];
+    final float[] floatValues = new float[count];
+    assertEquals(message, count, topK.select(floats, k, ixs, floatValues));
+    assertArrayEquals(message, expectedFloatIxs, ixs);
+    assertArrayEquals(message, valuesAt(floats, ixs), floatValues, 0);
+
+    Arrays.fill(ixs, -1);
+    assertEquals(message, count, topK.select(FloatBuffer.wrap(floats), k, ixs, floatValues));
+    assertArrayEquals(message, expectedFloatIxs, ixs);
+    assertArrayEquals(message, valuesAt(floats, ixs), floatValues, 0);
+
+    Arrays.fill(ixs, -1);
+    final double[] doubleValues = new double[count];
+    assertEquals(message, count, topK.select(values, k, ixs, doubleValues));
+    assertArrayEquals(message, expectedDoubleIxs, ixs);
+    for (int i = 0; i < count; i++) {
+      assertEquals(message, values[ixs[i]], doubleValues[i], 0);
+    }
+  }
+
+  /** Reference ranking: all indices sorted by descending value, then ascending index, NaN last. */
+  private static int[] sortedIxs(final double[] values, int count) {
+    final Integer[] ixs = new Integer[values.length];
+    for (int i = 0; i < ixs.length; i++) {
+      ixs[i] = i;
+    }
+    Arrays.sort(ixs, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        final boolean aNaN = Double.isNaN(values[a]);
+        final boolean bNaN = Double.isNaN(values[b]);
+        if (aNaN != bNaN) {
+          return aNaN ? 1 : -1;
+        }
+        final int byValue = -Double.compare(values[a], values[b]);
+        return byValue != 0 ? byValue : Integer.compare(a, b);
+      }
+    });
+    final int[] out = new int[count];
+    for (int i = 0; i < count; i++) {
+      out[i] = ixs[i];
+    }
+    return out;
+  }
+
+  private static float[] valuesAt(float[] values, int[] ixs) {
+    final float[] out = new float[ixs.length];
+    for (int i = 0; i < ixs.length; i++) {
+      out[i] = values[ixs[i]];
+    }
+    return out;
+  }
+
+  private static double[] gaussian(int n, long seed) {
+    final Random random = new Random(seed);
+    final double[] values = new double[n];
+    for (int i = 0; i < n; i++) {
+      values[i] = random.nextGaussian();
+    }
+    return values;
+  }
+}
@@ -0,0 +1,82 @@
+package org.pytorch.demo.vision;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveFrameSchedulerTest {
+  private static final long MS = 1_000_000L;
+  private static final float EPSILON = 1e-3f;
+
+  @Test
+  public void intervalIsTargetRateWhenWithinBudget() {
+    final AdaptiveFrameScheduler scheduler = new AdaptiveFrameScheduler(10.f, 0.5f, 1000);
+    assertEquals(10.f, scheduler.getRateFps(), EPSILON);
+    // 20ms busy at a budget of 0.5 needs 40ms, less than the 100ms of the target rate
+    scheduler.onFrameAnalyzed(0, 20 * MS, 30 * MS);
+    assertEquals(10.f, scheduler.getRateFps(), EPSILON);
+  }
+
+  @Test
+  public void intervalIsBusyOverBudgetWhenAboveTarget() {
+    final AdaptiveFrameScheduler scheduler = new AdaptiveFrameScheduler(10.f, 0.5f, 1000);
+    // 80ms busy at a budget of 0.5 needs 160ms
+    scheduler.onFrameAnalyzed(0, 80 * MS, 90 * MS);
+    assertEquals(1000.f / 160, scheduler.getRateFps(), EPSILON);
+    // the busy time is a moving average, one 180ms frame moves it a fifth of the way to 100ms
+    scheduler.onFrameAnalyzed(0, 180 * MS, 190 * MS);
+    assertEquals(1000.f / 200, scheduler.getRateFps(), EPSILON);
+
+    final AdaptiveFrameScheduler unlimited = new AdaptiveFrameScheduler(0, 1.f, 1000);
+    assertEquals(0, unlimited.getRateFps(), 0);
+    unlimited.onFrameAnalyzed(0, 25 * MS, 30 * MS);
+    assertEquals(40.f, unlimited.getRateFps(), EPSILON);
+  }
+
+  @Test
+  public void admitsOncePerInterval() {
+    final AdaptiveFrameScheduler scheduler = new AdaptiveFrameScheduler(10.f, 1.f, 1000);
+    assertTrue(scheduler.admit(0, 0));
+    assertFalse(scheduler.admit(33 * MS, 33 * MS));
+    assertFalse(scheduler.admit(66 * MS, 66 * MS));
+    // within the quarter interval of tolerance before the next slot at 100ms
+    assertTrue(scheduler.admit(80 * MS, 80 * MS));
+    assertFalse(scheduler.admit(100 * MS, 100 * MS));
+    assertEquals(2, scheduler.getAdmittedFrameCount());
+    assertEquals(3, scheduler.getPacedFrameCount());
+    assertEquals(0, scheduler.getLateFrameCount());
+  }
+
+  @Test
+  public void dropsFramesThatWouldMissDeadline() {
+    final AdaptiveFrameScheduler scheduler = new AdaptiveFrameScheduler(0, 1.f, 100);
+    scheduler.onFrameAnalyzed(0, 10 * MS, 60 * MS);
+    assertEquals(60 * MS, scheduler.getLatencyNanos());
+    // captured at 1000ms, the result is expected at now + 60ms against a deadline of 1100ms, the
+    // 10ms admission interval keeps the calls apart
+    assertTrue(scheduler.admit(1000 * MS, 1030 * MS));
+    assertTrue(scheduler.admit(1000 * MS, 1040 * MS));
+    assertFalse(scheduler.admit(1000 * MS, 1051 * MS));
+    assertEquals(2, scheduler.getAdmittedFrameCount());
+    assertEquals(1, scheduler.getLateFrameCount());
+  }
+
+  @Test
+  public void deadlineKeepsLatencySlack() {
+    final AdaptiveFrameScheduler scheduler = new AdaptiveFrameScheduler(0, 1.f, 100);
+    // frames take 200ms, longer than the max latency, the deadline moves to 1.5 * 200ms
+    scheduler.onFrameAnalyzed(0, 10 * MS, 200 * MS);
+    assertTrue(scheduler.admit(1000 * MS, 1000 * MS));
+    assertTrue(scheduler.admit(1000 * MS, 1100 * MS));
+    assertFalse(scheduler.admit(1000 * MS, 1111 * MS));
+    assertEquals(2, scheduler.getAdmittedFrameCount());
+    assertEquals(1, scheduler.getLateFrameCount());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsZeroBudget() {
+    new AdaptiveFrameScheduler(10.f, 0, 100);
+  }
+}
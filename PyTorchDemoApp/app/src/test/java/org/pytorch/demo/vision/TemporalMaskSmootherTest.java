@@ -0,0 +1,118 @@
+package org.pytorch.demo.vision;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TemporalMaskSmootherTest {
+  private static final int CLASS_COUNT = 3;
+  private static final int WIDTH = 8;
+  private static final int HEIGHT = 6;
+  private static final int PLANE_SIZE = WIDTH * HEIGHT;
+
+  @Test
+  public void firstFrameRepaintsEverything() {
+    final TemporalMaskSmoother smoother = new TemporalMaskSmoother(CLASS_COUNT, WIDTH, HEIGHT, 0.5f, 1.f);
+    final int[] dirty = new int[4];
+    // every pixel stays background, the labels the smoother starts with
+    assertTrue(smoother.update(logits(0, 1.f), dirty));
+    assertArrayEquals(new int[]{0, 0, WIDTH, HEIGHT}, dirty);
+    assertArrayEquals(new byte[PLANE_SIZE], smoother.getLabels());
+
+    assertFalse(smoother.update(logits(0, 1.f), dirty));
+
+    smoother.reset();
+    assertTrue(smoother.update(logits(2, 1.f), dirty));
+    assertArrayEquals(new int[]{0, 0, WIDTH, HEIGHT}, dirty);
+    assertLabels(smoother, 2);
+  }
+
+  @Test
+  public void labelSwitchesOnlyAboveMargin() {
+    // no smoothing, so every frame is compared as is
+    final TemporalMaskSmoother smoother = new TemporalMaskSmoother(CLASS_COUNT, WIDTH, HEIGHT, 1.f, 1.f);
+    final int[] dirty = new int[4];
+    smoother.update(logits(0, 1.f), dirty);
+    assertLabels(smoother, 0);
+
+    final float[] logits = logits(0, 1.f);
+    Arrays.fill(logits, PLANE_SIZE, 2 * PLANE_SIZE, 1.5f);
+    assertFalse(smoother.update(logits, dirty));
+    assertLabels(smoother, 0);
+
+    Arrays.fill(logits, PLANE_SIZE, 2 * PLANE_SIZE, 2.f);
+    assertFalse("a margin equal to the hysteresis is not enough", smoother.update(logits, dirty));
+    assertLabels(smoother, 0);
+
+    Arrays.fill(logits, PLANE_SIZE, 2 * PLANE_SIZE, 2.25f);
+    assertTrue(smoother.update(logits, dirty));
+    assertLabels(smoother, 1);
+  }
+
+  @Test
+  public void smoothingDelaysSwitch() {
+    final TemporalMaskSmoother smoother = new TemporalMaskSmoother(CLASS_COUNT, WIDTH, HEIGHT, 0.5f, 1.f);
+    final int[] dirty = new int[4];
+    smoother.update(logits(0, 4.f), dirty);
+    // class 1 jumps to 4 above class 0, the smoothed logits close half of the gap per frame
+    int frames = 0;
+    do {
+      frames++;
+    } while (!smoother.update(logits(1, 4.f), dirty));
+    // smoothed class 0 is 4 * 0.5^n, class 1 is 4 * (1 - 0.5^n), switches once 8 * 0.5^n < 3
+    assertEquals(2, frames);
+    assertLabels(smoother, 1);
+  }
+
+  @Test
+  public void dirtyRectangleBoundsChangedPixels() {
+    final TemporalMaskSmoother smoother = new TemporalMaskSmoother(CLASS_COUNT, WIDTH, HEIGHT, 1.f, 0.f);
+    final int[] dirty = new int[4];
+    smoother.update(logits(0, 1.f), dirty);
+
+    final float[] logits = logits(0, 1.f);
+    setWinner(logits, 2, 1, 1);
+    setWinner(logits, 5, 3, 2);
+    assertTrue(smoother.update(logits, dirty));
+    assertArrayEquals(new int[]{2, 1, 6, 4}, dirty);
+    assertEquals(1, smoother.getLabels()[WIDTH + 2]);
+    assertEquals(2, smoother.getLabels()[3 * WIDTH + 5]);
+
+    // a single pixel switching back to background, the others keep their labels
+    setWinner(logits, 5, 3, 0);
+    assertTrue(smoother.update(logits, dirty));
+    assertArrayEquals(new int[]{5, 3, 6, 4}, dirty);
+    assertEquals(1, smoother.getLabels()[WIDTH + 2]);
+    assertEquals(0, smoother.getLabels()[3 * WIDTH + 5]);
+
+    // the corner pixels give the full frame
+    setWinner(logits, 0, 0, 2);
+    setWinner(logits, WIDTH - 1, HEIGHT - 1, 2);
+    assertTrue(smoother.update(logits, dirty));
+    assertArrayEquals(new int[]{0, 0, WIDTH, HEIGHT}, dirty);
+  }
+
+  /** Logits where {@code winner} leads every pixel by {@code lead}, the other classes are 0. */
+  private static float[] logits(int winner, float lead) {
+    final float[] logits = new float[CLASS_COUNT * PLANE_SIZE];
+    Arrays.fill(logits, winner * PLANE_SIZE, (winner + 1) * PLANE_SIZE, lead);
+    return logits;
+  }
+
+  private static void setWinner(float[] logits, int x, int y, int winner) {
+    for (int c = 0; c < CLASS_COUNT; c++) {
+      logits[c * PLANE_SIZE + y * WIDTH + x] = c == winner ? 1.f : 0.f;
+    }
+  }
+
+  private static void assertLabels(TemporalMaskSmoother smoother, int label) {
+    final byte[] expected = new byte[PLANE_SIZE];
+    Arrays.fill(expected, (byte) label);
+    assertArrayEquals(expected, smoother.getLabels());
+  }
+}
@@ -0,0 +1,20 @@
+import torch
+
+
+class DeepLabV3Logits(torch.nn.Module):
+    """Returns the "out" logits of shape 1x21xHxW directly instead of a dict, the live
+    segmentation activity smooths them over frames before taking the argmax."""
+
+    def __init__(self, model):
+        super(DeepLabV3Logits, self).__init__()
+        self.model = model
+
+    def forward(self, x):
+        return self.model(x)["out"]
+
+
+model = torch.hub.load('pytorch/vision:v0.9.0', 'deeplabv3_mobilenet_v3_large', pretrained=True)
+model.eval()
+
+scriptedm = torch.jit.script(DeepLabV3Logits(model))
+torch.jit.save(scriptedm, "app/src/main/assets/deeplabv3_mobilenet.pt")
@@ -0,0 +1,88 @@
+import argparse
+import time
+
+import torch
+import torchvision
+
+FORMATS = ["float32_nchw", "float32_nhwc", "uint8_nhwc"]
+MEAN = [0.485, 0.456, 0.406]
+STD = [0.229, 0.224, 0.225]
+
+
+class InputFormat(torch.nn.Module):
+    """Takes the input layout ImageClassificationActivity produces for `layout` and declares it
+    through `input_format()`, which the activity calls after loading the module.
+
+    Channels-last inputs arrive as 1x224x224x3 and are permuted to NCHW, a view with
+    channels-last strides rather than a copy. uint8 inputs are raw RGB, the
+    (x / 255 - mean) / std normalization runs here as one multiply-add per element."""
+
+    def __init__(self, model, layout):
+        super(InputFormat, self).__init__()
+        self.model = model
+        self.layout = layout
+        self.register_buffer("scale", torch.tensor([1.0 / (255.0 * s) for s in STD]).view(1, 3, 1, 1))
+        self.register_buffer("shift", torch.tensor([-m / s for m, s in zip(MEAN, STD)]).view(1, 3, 1, 1))
+
+    def forward(self, x):
+        if self.layout != "float32_nchw":
+            x = x.permute(0, 3, 1, 2)
+        if self.layout == "uint8_nhwc":
+            x = x.float() * self.scale + self.shift
+        return self.model(x)
+
+    @torch.jit.export
+    def input_format(self) -> str:
+        return self.layout
+
+
+def load_model(name):
+    if name == "mobilenet_v2":
+        return torchvision.models.quantization.mobilenet_v2(pretrained=True, quantize=True)
+    return torchvision.models.resnet18(pretrained=True)
+
+
+def example_input(layout):
+    if layout == "float32_nchw":
+        return torch.randn(1, 3, 224, 224)
+    if layout == "float32_nhwc":
+        return torch.randn(1, 224, 224, 3)
+    return torch.randint(0, 256, (1, 224, 224, 3), dtype=torch.uint8)
+
+
+def benchmark(module, layout, runs):
+    x = example_input(layout)
+    with torch.no_grad():
+        for _ in range(5):
+            module(x)
+        start = time.perf_counter()
+        for _ in range(runs):
+            module(x)
+    return (time.perf_counter() - start) * 1000.0 / runs
+
+
+parser = argparse.ArgumentParser()
+parser.add_argument("--model", choices=["resnet18", "mobilenet_v2"], default="mobilenet_v2")
+parser.add_argument("--format", choices=FORMATS, default="uint8_nhwc")
+parser.add_argument("--benchmark", action="store_true",
+                    help="time forward of every format on this machine instead of exporting")
+parser.add_argument("--all-formats", action="store_true",
+                    help="export every format into the instrumentation test assets for InputFormatBenchmark")
+parser.add_argument("--runs", type=int, default=50)
+args = parser.parse_args()
+
+model = load_model(args.model)
+model.eval()
+
+if args.benchmark:
+    for layout in FORMATS:
+        scripted = torch.jit.script(InputFormat(model, layout))
+        input_bytes = example_input(layout).element_size() * 3 * 224 * 224
+        print("%-13s input %6d bytes, forward %.2f ms" % (layout, input_bytes, benchmark(scripted, layout, args.runs)))
+elif args.all_formats:
+    for layout in FORMATS:
+        scripted = torch.jit.script(InputFormat(model, layout))
+        torch.jit.save(scripted, "app/src/androidTest/assets/%s_%s.pt" % (args.model, layout))
+else:
+    scripted = torch.jit.script(InputFormat(model, args.format))
+    torch.jit.save(scripted, "app/src/main/assets/%s.pt" % args.model)